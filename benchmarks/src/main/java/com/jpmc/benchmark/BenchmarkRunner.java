@@ -0,0 +1,30 @@
+package com.jpmc.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks and writes the results as JSON, by default to
+ * {@code target/jmh-result.json}, so runs of two releases can be compared.
+ * Any JMH command line option may be passed, e.g. a benchmark name pattern or
+ * {@code -rff other.json}.
+ *
+ * @author Stanly
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cmd = new CommandLineOptions(args);
+        OptionsBuilder builder = new OptionsBuilder();
+        builder.parent(cmd);
+        if (!cmd.getResultFormat().hasValue())
+            builder.resultFormat(ResultFormatType.JSON);
+        if (!cmd.getResult().hasValue())
+            builder.result("target/jmh-result.json");
+        Options options = builder.build();
+        new Runner(options).run();
+    }
+}
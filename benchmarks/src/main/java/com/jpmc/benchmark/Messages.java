@@ -0,0 +1,39 @@
+package com.jpmc.benchmark;
+
+/**
+ * Message lines used by the benchmarks.
+ *
+ * @author Stanly
+ */
+final class Messages {
+
+    private Messages() {
+    }
+
+    /**
+     * Sale messages spread round robin over a number of products, mixing the three
+     * message types: one in ten is an adjustment.
+     *
+     * @param products number of distinct product names
+     * @param count    number of lines
+     * @return
+     */
+    static String[] sales(int products, int count) {
+        String[] lines = new String[count];
+        for (int i = 0; i < count; i++) {
+            String name = "product" + (i % products);
+            switch (i % 10) {
+                case 9:
+                    lines[i] = "Add 2p " + name;
+                    break;
+                case 0:
+                case 5:
+                    lines[i] = name + " at " + (10 + i % 7) + "p";
+                    break;
+                default:
+                    lines[i] = (1 + i % 20) + " sales of " + name + " at " + (10 + i % 7) + "p each";
+            }
+        }
+        return lines;
+    }
+}
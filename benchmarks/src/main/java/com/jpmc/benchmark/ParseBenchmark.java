@@ -0,0 +1,61 @@
+package com.jpmc.benchmark;
+
+import com.jpmc.domain.Product;
+import com.jpmc.msg.Message;
+import com.jpmc.msg.MessageImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Validate and build one message of each type.
+ *
+ * @author Stanly
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+
+    @Param({"SALE", "SALES", "ADJUSTMENT", "INVALID"})
+    public String type;
+
+    private String line;
+
+    @Setup
+    public void setup() {
+        Quiet.console();
+        switch (type) {
+            case "SALE":
+                line = "apple at 10p";
+                break;
+            case "SALES":
+                line = "20 sales of apples at 10p each";
+                break;
+            case "ADJUSTMENT":
+                line = "Add 20p apples";
+                break;
+            default:
+                line = "this is not a sale at all";
+        }
+    }
+
+    @Benchmark
+    public Product validateAndBuild() {
+        Message message = new MessageImpl(line);
+        return message.validateMessage() ? message.buildMessage() : null;
+    }
+}
@@ -0,0 +1,35 @@
+package com.jpmc.benchmark;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.Logger;
+
+/**
+ * Silences the console output of the application, so the benchmarks measure building
+ * the reports and log records rather than the terminal.
+ *
+ * @author Stanly
+ */
+final class Quiet {
+
+    private static final PrintStream NULL = new PrintStream(new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    });
+
+    private Quiet() {
+    }
+
+    static void console() {
+        LogManager.getLogManager().reset();
+        Logger.getLogger("").setLevel(Level.OFF);
+        System.setOut(NULL);
+    }
+}
@@ -0,0 +1,59 @@
+package com.jpmc.benchmark;
+
+import com.jpmc.domain.ProductDictionary;
+import com.jpmc.receiver.MessageReceiver;
+import com.jpmc.report.ConsoleReportSink;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link MessageReceiver#receive(String)} against a receiver that already knows a number
+ * of products and has already received a number of messages.
+ *
+ * @author Stanly
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReceiveBenchmark {
+
+    @Param({"3", "100", "10000"})
+    public int products;
+
+    @Param({"0", "10000", "1000000"})
+    public int history;
+
+    private MessageReceiver receiver;
+    private String[] lines;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Quiet.console();
+        lines = Messages.sales(products, 1024);
+        receiver = new MessageReceiver(new ProductDictionary(), new ConsoleReportSink());
+        for (int i = 0; i < history; i++) {
+            receiver.receive(lines[i & (lines.length - 1)]);
+        }
+    }
+
+    @Benchmark
+    public void receive() {
+        receiver.receive(lines[next++ & (lines.length - 1)]);
+    }
+}
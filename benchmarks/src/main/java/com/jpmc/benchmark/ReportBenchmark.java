@@ -0,0 +1,81 @@
+package com.jpmc.benchmark;
+
+import com.jpmc.domain.ApplicationEnum;
+import com.jpmc.domain.ProductDictionary;
+import com.jpmc.receiver.MessageReceiver;
+import com.jpmc.report.ConsoleReportSink;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The message that triggers a report, so the time includes copying the aggregates
+ * ({@code populateReportMap}) and rendering the tables.
+ *
+ * @author Stanly
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 200)
+@Measurement(iterations = 1000)
+@Fork(1)
+public class ReportBenchmark {
+
+    //Reports stop after the 50th message, so at most 49 products can be in one
+    @Param({"3", "10", "40"})
+    public int products;
+
+    private String[] lines;
+    private MessageReceiver periodical;
+    private MessageReceiver adjustment;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Quiet.console();
+        lines = Messages.sales(products, 64);
+    }
+
+    /**
+     * Receiver one message short of the next 10th message report.
+     */
+    @Setup(Level.Invocation)
+    public void beforeReport() {
+        int every = Integer.parseInt(ApplicationEnum.LOG_REPORT_PER_MESSAGE_RECEIVED.getEnumType());
+        int quota = Integer.parseInt(ApplicationEnum.MAX_MESSAGES_TO_PAUSE_PROCESSING.getEnumType());
+        periodical = receiver(every - 1);
+        adjustment = receiver(quota - 1);
+    }
+
+    @Benchmark
+    public void periodicalReport() {
+        periodical.receive(lines[1]);
+    }
+
+    @Benchmark
+    public void adjustmentReport() {
+        adjustment.receive(lines[1]);
+    }
+
+    /**
+     * Fresh receiver that has received the given number of messages.
+     */
+    private MessageReceiver receiver(int messages) {
+        MessageReceiver receiver = new MessageReceiver(new ProductDictionary(), new ConsoleReportSink());
+        for (int i = 0; i < messages; i++) {
+            receiver.receive(lines[i]);
+        }
+        return receiver;
+    }
+}
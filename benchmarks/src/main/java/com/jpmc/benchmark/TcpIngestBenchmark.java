@@ -0,0 +1,113 @@
+package com.jpmc.benchmark;
+
+import com.jpmc.domain.ApplicationEnum;
+import com.jpmc.pipeline.WaitStrategy;
+import com.jpmc.server.MessageServer;
+import com.jpmc.server.ServerMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end ingest over a loopback connection: a batch of lines is written to the
+ * {@link MessageServer} and the invocation ends once the receiver has counted them all.
+ *
+ * @author Stanly
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TcpIngestBenchmark {
+
+    private static final int BATCH = 1000;
+
+    @Param({"BLOCKING", "NIO"})
+    public String mode;
+
+    @Param({"DIRECT", "PARK", "BUSY_SPIN"})
+    public String pipeline;
+
+    private MessageServer server;
+    private Thread serverThread;
+    private Socket socket;
+    private OutputStream out;
+    private byte[] batch;
+    private long expected = 0;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        Quiet.console();
+        WaitStrategy waitStrategy = "DIRECT".equals(pipeline) ? null : WaitStrategy.parse(pipeline);
+        server = new MessageServer(ServerMode.parse(mode), waitStrategy);
+        serverThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    server.startServer();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }, "benchmark-server");
+        serverThread.start();
+        socket = connect();
+        out = socket.getOutputStream();
+
+        StringBuilder lines = new StringBuilder();
+        for (String line : Messages.sales(3, BATCH)) {
+            lines.append(line).append('\n');
+        }
+        batch = lines.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        socket.close();
+        server.stopServer();
+        serverThread.join(10000);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void ingest() throws IOException {
+        out.write(batch);
+        out.flush();
+        expected += BATCH;
+        while (server.getMessageReceiver().messageCount() < expected) {
+            Thread.onSpinWait();
+        }
+    }
+
+    private static Socket connect() throws Exception {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (true) {
+            try {
+                return new Socket(ApplicationEnum.TCP_HOST.getEnumType(), Integer.parseInt(ApplicationEnum.TCP_PORT.getEnumType()));
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline)
+                    throw e;
+                Thread.sleep(50);
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.jpmc.cluster;
+
+import com.jpmc.config.Configuration;
+import com.jpmc.domain.ProductDictionary;
+import com.jpmc.receiver.MessageReceiver;
+import com.jpmc.report.ConsoleReportSink;
+import com.jpmc.report.NullReportSink;
+import com.jpmc.server.MessageServer;
+import com.jpmc.server.NioMessageServer;
+import com.jpmc.server.ServerMode;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs one process of a partitioned cluster on localhost or across hosts:
+ * <pre>
+ * node &lt;port&gt; [mode]                       a partition node, a message server without reports or quota
+ * router &lt;port&gt; &lt;host:port&gt;...           accepts the clients and routes to the nodes, in order
+ * coordinator &lt;host:port&gt;...               prints the combined reports of the nodes
+ * </pre>
+ * e.g. three nodes on 9901 to 9903, a router on 9898 and a coordinator, each its own process.
+ * The reports and the day's quota are the cluster's, so the coordinator prints them and a
+ * node neither prints the reports of its partition nor pauses at its own quota.
+ *
+ * @author Stanly
+ */
+public final class Cluster {
+
+    private Cluster() {
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        if (args.length < 2)
+            throw new IllegalArgumentException("Usage: node <port> [mode] | router <port> <host:port>... | coordinator <host:port>...");
+        switch (args[0]) {
+            case "node":
+                node(ServerMode.parse(args.length > 2 ? args[2] : null), Integer.parseInt(args[1])).startServer();
+                break;
+            case "router":
+                PartitionRouter router = new PartitionRouter(addresses(args, 2));
+                new NioMessageServer(router, Integer.parseInt(args[1])).start();
+                break;
+            case "coordinator":
+                ReportCoordinator coordinator = new ReportCoordinator(addresses(args, 1), new ConsoleReportSink());
+                long interval = Configuration.get().getCoordinatorIntervalMs();
+                while (true) {
+                    coordinator.poll();
+                    Thread.sleep(interval);
+                }
+            default:
+                throw new IllegalArgumentException("Unknown role " + args[0]);
+        }
+    }
+
+    /**
+     * A partition node: a message server whose receiver prints no reports and does not
+     * pause at the quota
+     *
+     * @param mode
+     * @param port
+     * @return the server, not started
+     */
+    public static MessageServer node(ServerMode mode, int port) {
+        MessageReceiver receiver = new MessageReceiver(ProductDictionary.getDefault(), new NullReportSink());
+        receiver.setQuotaEnabled(false);
+        MessageServer node = new MessageServer(mode, null, receiver);
+        node.setPort(port);
+        return node;
+    }
+
+    /**
+     * The host:port arguments from the index on
+     *
+     * @param args
+     * @param from
+     * @return
+     */
+    static List<InetSocketAddress> addresses(String[] args, int from) {
+        List<InetSocketAddress> nodes = new ArrayList<InetSocketAddress>();
+        for (int i = from; i < args.length; i++) {
+            int colon = args[i].lastIndexOf(':');
+            if (colon < 0)
+                throw new IllegalArgumentException("Expected host:port: " + args[i]);
+            nodes.add(new InetSocketAddress(args[i].substring(0, colon), Integer.parseInt(args[i].substring(colon + 1))));
+        }
+        return nodes;
+    }
+}
@@ -0,0 +1,114 @@
+package com.jpmc.cluster;
+
+import com.jpmc.config.Configuration;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The text connection of the router to a partition node. Messages are queued by any thread
+ * and written by the sender thread of the link, which flushes only once the queue is
+ * empty, so a burst of messages goes out in few writes. The bounded queue holds up the
+ * routing connections when the node does not keep up.
+ *
+ * @author Stanly
+ */
+final class NodeLink implements Runnable {
+
+    private static final Logger logger = Logger.getLogger(NodeLink.class.getName());
+    //Marks the end of the queue
+    private static final byte[] END = new byte[0];
+
+    private final InetSocketAddress address;
+    private final Socket socket;
+    private final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<byte[]>(Configuration.get().getRouterQueueSize());
+    private final Thread thread;
+
+    /**
+     * @param address the node
+     * @throws IOException
+     */
+    NodeLink(InetSocketAddress address) throws IOException {
+        this.address = address;
+        this.socket = new Socket(address.getAddress(), address.getPort());
+        this.socket.setTcpNoDelay(true);
+        this.thread = new Thread(this, "link-" + address);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Queue the bytes, waiting while the queue is full.
+     *
+     * @param bytes
+     */
+    void send(byte[] bytes) {
+        try {
+            queue.put(bytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        List<byte[]> batch = new ArrayList<byte[]>();
+        try {
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 1 << 16);
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch);
+                for (byte[] bytes : batch) {
+                    if (bytes == END) {
+                        out.flush();
+                        return;
+                    }
+                    out.write(bytes);
+                }
+                batch.clear();
+                if (queue.isEmpty())
+                    out.flush();
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Link to " + address + " failed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Write out every queued message and close the connection once the node has read
+     * them all, which it shows by closing its side.
+     */
+    void close() {
+        send(END);
+        try {
+            thread.join();
+            socket.shutdownOutput();
+            //The greeting of the node, then its end of stream
+            InputStream in = socket.getInputStream();
+            byte[] buffer = new byte[256];
+            while (in.read(buffer) >= 0) {
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Link to " + address + " not closed cleanly", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+}
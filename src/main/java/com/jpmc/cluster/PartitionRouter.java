@@ -0,0 +1,145 @@
+package com.jpmc.cluster;
+
+import com.jpmc.domain.Product;
+import com.jpmc.domain.ProductDictionary;
+import com.jpmc.msg.Message;
+import com.jpmc.msg.MessageImpl;
+import com.jpmc.receiver.MessageHandler;
+import com.jpmc.snapshot.Snapshot;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * Routes every message to the partition node owning its product, so each node
+ * aggregates a disjoint hash partition of the product names. Sales and adjustments of a
+ * product go to the same node, in the order they arrive, so the totals of the product
+ * are the same as on a single node.
+ * <p>
+ * The router is the {@link MessageHandler} of an ordinary server, e.g. a
+ * {@link com.jpmc.server.NioMessageServer}, which accepts the clients. Each node gets
+ * one text connection: lines are forwarded unchanged and messages of the binary protocol
+ * in their text form, so the node reads the messages of a product in the order the
+ * router took them, whichever protocol they came in. Messages without a product,
+ * including the lines that are not valid, go to the first node, which counts or rejects
+ * them.
+ *
+ * @author Stanly
+ */
+public class PartitionRouter implements MessageHandler {
+
+    private final InetSocketAddress[] nodes;
+    private final NodeLink[] links;
+    private final ProductDictionary dictionary = ProductDictionary.getDefault();
+    private final Charset charset = Charset.defaultCharset();
+
+    /**
+     * Connect to the partition nodes
+     *
+     * @param nodes the nodes, partition i is owned by the i-th
+     * @throws IOException
+     */
+    public PartitionRouter(List<InetSocketAddress> nodes) throws IOException {
+        this.nodes = nodes.toArray(new InetSocketAddress[0]);
+        this.links = new NodeLink[this.nodes.length];
+        for (int i = 0; i < this.nodes.length; i++) {
+            links[i] = new NodeLink(this.nodes[i]);
+        }
+    }
+
+    /**
+     * Partition owning the product
+     *
+     * @param name       product name, null for none
+     * @param partitions number of partitions
+     * @return
+     */
+    public static int partition(String name, int partitions) {
+        return name == null ? 0 : Math.floorMod(name.hashCode(), partitions);
+    }
+
+    /**
+     * @param line
+     * @return 0, the line is queued to its node when this returns
+     */
+    @Override
+    public long handle(String line) {
+        String name = null;
+        Message message = new MessageImpl(line, dictionary);
+        if (message.validateMessage())
+            name = message.buildMessage().getName();
+        byte[] bytes = (line + "\n").getBytes(charset);
+        links[partition(name, nodes.length)].send(bytes);
+        return 0;
+    }
+
+    /**
+     * @param product
+     * @return 0, the message is queued to its node when this returns
+     */
+    @Override
+    public long handle(Product product) {
+        byte[] bytes = (line(product) + "\n").getBytes(charset);
+        links[partition(product.getName(), nodes.length)].send(bytes);
+        return 0;
+    }
+
+    /**
+     * Text form of a decoded message, which the node parses back to the same message. A
+     * message without a product has no text form the node takes.
+     *
+     * @param product
+     * @return
+     */
+    static String line(Product product) {
+        String name = product.getName() == null ? "" : product.getName();
+        switch (product.getType()) {
+            case ADDITION:
+                return "Add " + product.getAdjustPrice() + "p " + name;
+            case SUBTRACTION:
+                return "Subtract " + product.getAdjustPrice() + "p " + name;
+            case MULTIPLICATION:
+                return "Multiply " + BigDecimal.valueOf(product.getAdjustPrice()).divide(BigDecimal.valueOf(Product.FACTOR_SCALE))
+                        .stripTrailingZeros().toPlainString() + " " + name;
+            default:
+                return product.getQuantity() + " sales " + (name.isEmpty() ? "" : "of " + name + " ") + "at " + product.getPrice() + "p each";
+        }
+    }
+
+    @Override
+    public ProductDictionary getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * The router keeps no state, the coordinator gathers it from the nodes
+     *
+     * @return null
+     */
+    @Override
+    public Snapshot snapshot() {
+        return null;
+    }
+
+    /**
+     * Forward every message still queued and close the connections to the nodes. The
+     * nodes have read every message routed to them when this returns.
+     */
+    public void close() {
+        for (NodeLink link : links) {
+            link.close();
+        }
+    }
+
+    /**
+     * Number of partition nodes
+     *
+     * @return
+     */
+    public int partitions() {
+        return nodes.length;
+    }
+}
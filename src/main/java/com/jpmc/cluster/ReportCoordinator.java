@@ -0,0 +1,132 @@
+package com.jpmc.cluster;
+
+import com.jpmc.config.Configuration;
+import com.jpmc.config.Settings;
+import com.jpmc.domain.ProductDictionary;
+import com.jpmc.domain.Report;
+import com.jpmc.receiver.MessageReceiver;
+import com.jpmc.report.ReportSink;
+import com.jpmc.server.Handshake;
+import com.jpmc.snapshot.Snapshot;
+import com.jpmc.snapshot.SnapshotFile;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Gathers the aggregate state of every partition node with the
+ * {@link Handshake#AGGREGATE_DUMP} handshake and prints the reports of the whole
+ * cluster from their merge: the log report every
+ * {@link Settings#getReportEvery()} messages and the adjustment report once the cluster
+ * reaches {@link Settings#getPauseQuota()}.
+ * <p>
+ * The partitions own disjoint products, so their running totals merge by union and are
+ * the totals a single node would have. Reports are printed when a poll finds a report
+ * threshold crossed, so they may include a few messages past it; the adjustment history
+ * is listed partition by partition.
+ *
+ * @author Stanly
+ */
+public class ReportCoordinator {
+
+    private final List<InetSocketAddress> nodes;
+    private final ReportSink sink;
+    private long reported = 0;
+    private boolean adjustmentsReported = false;
+
+    /**
+     * @param nodes the partition nodes
+     * @param sink  destination of the combined reports
+     */
+    public ReportCoordinator(List<InetSocketAddress> nodes, ReportSink sink) {
+        this.nodes = nodes;
+        this.sink = sink;
+    }
+
+    /**
+     * Aggregate state of the whole cluster
+     *
+     * @return
+     * @throws IOException when a node cannot be reached
+     */
+    public Snapshot gather() throws IOException {
+        List<Snapshot> partitions = new ArrayList<Snapshot>();
+        for (InetSocketAddress node : nodes) {
+            partitions.add(fetch(node));
+        }
+        return merge(partitions);
+    }
+
+    /**
+     * Gather the state and print the reports whose threshold was crossed since the last poll.
+     *
+     * @return the state of the cluster
+     * @throws IOException
+     */
+    public synchronized Snapshot poll() throws IOException {
+        Snapshot cluster = gather();
+        long count = cluster.getMessageCount();
+        Settings settings = Configuration.get();
+        int reportEvery = settings.getReportEvery();
+        int quota = settings.getPauseQuota();
+        boolean periodical = count / reportEvery > reported / reportEvery && reported < quota;
+        boolean adjustments = !adjustmentsReported && count >= quota;
+        if (periodical || adjustments) {
+            MessageReceiver view = new MessageReceiver(new ProductDictionary(), sink);
+            view.restore(cluster);
+            view.logReports(periodical, adjustments);
+        }
+        reported = count;
+        adjustmentsReported |= adjustments;
+        return cluster;
+    }
+
+    /**
+     * Aggregate state of one node
+     *
+     * @param node
+     * @return
+     * @throws IOException
+     */
+    public static Snapshot fetch(InetSocketAddress node) throws IOException {
+        Socket socket = new Socket(node.getAddress(), node.getPort());
+        try {
+            socket.getOutputStream().write(Handshake.AGGREGATE_DUMP);
+            return SnapshotFile.read(new BufferedInputStream(socket.getInputStream()));
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Union of the partition states: running totals by product, adjustment histories one
+     * after the other and the sum of the message counts.
+     *
+     * @param partitions
+     * @return
+     */
+    public static Snapshot merge(List<Snapshot> partitions) {
+        Snapshot cluster = new Snapshot();
+        Map<String, Report> products = new LinkedHashMap<String, Report>();
+        long count = 0;
+        for (Snapshot partition : partitions) {
+            for (Report r : partition.getProducts()) {
+                Report seen = products.get(r.getName());
+                //A product is owned by one partition, unless the partitioning changed
+                products.put(r.getName(), seen == null ? r
+                        : new Report(r.getName(), seen.getQuantity() + r.getQuantity(), seen.getTotalPrice() + r.getTotalPrice()));
+            }
+            cluster.getAdjustments().addAll(partition.getAdjustments());
+            count += partition.getMessageCount();
+        }
+        cluster.getProducts().addAll(products.values());
+        cluster.setMessageCount(count);
+        return cluster;
+    }
+}
@@ -0,0 +1,224 @@
+package com.jpmc.config;
+
+import com.jpmc.domain.ApplicationEnum;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The {@link Settings} the application runs with, loaded from a properties file and the
+ * system properties prefixed with {@code sales.}, which win over the file; a tunable in
+ * neither keeps its default. The current settings are one volatile read away, so the
+ * message path reads them per message instead of parsing strings.
+ * <p>
+ * The file can be reloaded while the server runs, on demand or by a {@link Watcher}. A
+ * reload with an invalid value is refused as a whole and the settings in use stay. Only
+ * these tunables apply straight away:
+ * <ul>
+ * <li>{@code LOG_REPORT_PER_MESSAGE_RECEIVED}, {@code MAX_MESSAGES_TO_PAUSE_PROCESSING}
+ * and {@code MIN_MSG_LENGTH}, from the next message;</li>
+ * <li>{@code MSG_VALID_TYPE}, whose new products are registered;</li>
+ * <li>{@code MAX_MSG_LENGTH}, {@code DELIVERY_ACK_BATCH} and
+ * {@code DELIVERY_ACK_DELAY_US}, for new connections.</li>
+ * </ul>
+ * Every other tunable is read when the component it sizes or paces is created, mostly
+ * when the server starts, and a reload changes it for the next one only.
+ *
+ * @author Stanly
+ */
+public final class Configuration {
+
+    /**
+     * System property naming the configuration file
+     */
+    public static final String FILE_PROPERTY = "sales.config";
+    private static final String PREFIX = "sales.";
+
+    private static final Logger logger = Logger.getLogger(Configuration.class.getName());
+    private static final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+    private static volatile Settings current = initial();
+    private static Path file = null;
+    private static long modified = 0;
+
+    /**
+     * Told about every new settings published
+     */
+    public interface Listener {
+
+        void changed(Settings previous, Settings current);
+    }
+
+    private Configuration() {
+    }
+
+    public static Settings get() {
+        return current;
+    }
+
+    /**
+     * Load the file, and reload it from now on
+     *
+     * @param path
+     * @return the settings loaded
+     * @throws IOException
+     * @throws IllegalArgumentException when a value is not valid, the settings in use stay
+     */
+    public static synchronized Settings load(Path path) throws IOException {
+        long lastModified = Files.getLastModifiedTime(path).toMillis();
+        Settings settings = apply(read(path));
+        file = path;
+        modified = lastModified;
+        return settings;
+    }
+
+    /**
+     * Load the file again
+     *
+     * @return false when there is no file or it holds an invalid value, the settings in
+     * use then stay
+     */
+    public static synchronized boolean reload() {
+        if (file == null)
+            return false;
+        try {
+            modified = Files.getLastModifiedTime(file).toMillis();
+            apply(read(file));
+            logger.log(Level.INFO, "Configuration reloaded from " + file);
+            return true;
+        } catch (IOException | IllegalArgumentException e) {
+            logger.log(Level.WARNING, "Configuration of " + file + " not reloaded: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Publish the settings of the properties, under the system properties
+     *
+     * @param properties
+     * @return
+     * @throws IllegalArgumentException when a value is not valid, the settings in use stay
+     */
+    public static synchronized Settings apply(Properties properties) {
+        Properties merged = new Properties();
+        merged.putAll(properties);
+        merged.putAll(systemProperties());
+        Settings settings = Settings.parse(merged);
+        Settings previous = current;
+        current = settings;
+        for (Listener listener : listeners) {
+            listener.changed(previous, settings);
+        }
+        return settings;
+    }
+
+    /**
+     * Reload the file every interval it changed, until the watcher returned is stopped
+     *
+     * @param interval milliseconds, 0 for never
+     * @return the watcher, null for never
+     */
+    public static Watcher watch(long interval) {
+        if (interval <= 0)
+            return null;
+        Watcher watcher = new Watcher(interval);
+        watcher.thread.start();
+        return watcher;
+    }
+
+    /**
+     * A thread reloading the file when it changed, owned by whoever started it; stopping
+     * it leaves the other watchers running.
+     */
+    public static final class Watcher {
+
+        private final Thread thread;
+
+        private Watcher(final long interval) {
+            thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (true) {
+                        try {
+                            Thread.sleep(interval);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        if (changed())
+                            reload();
+                    }
+                }
+            }, "configuration");
+            thread.setDaemon(true);
+        }
+
+        /**
+         * Stop watching, once a reload in progress finished
+         */
+        public void stop() {
+            thread.interrupt();
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        public boolean isWatching() {
+            return thread.isAlive();
+        }
+    }
+
+    public static void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public static void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    private static synchronized boolean changed() {
+        try {
+            return file != null && Files.getLastModifiedTime(file).toMillis() != modified;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static Properties read(Path path) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(path)) {
+            properties.load(in);
+        }
+        return properties;
+    }
+
+    private static Properties systemProperties() {
+        Properties properties = new Properties();
+        for (ApplicationEnum key : ApplicationEnum.values()) {
+            String value = System.getProperty(PREFIX + key.name());
+            if (value != null)
+                properties.setProperty(key.name(), value);
+        }
+        return properties;
+    }
+
+    /**
+     * The defaults under the system properties; invalid ones are reported and the
+     * defaults used, as there is nothing to keep yet.
+     */
+    private static Settings initial() {
+        try {
+            return Settings.parse(systemProperties());
+        } catch (IllegalArgumentException e) {
+            logger.log(Level.WARNING, "System properties ignored: " + e.getMessage());
+            return Settings.defaults();
+        }
+    }
+}
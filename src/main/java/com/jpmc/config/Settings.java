@@ -0,0 +1,430 @@
+package com.jpmc.config;
+
+import com.jpmc.domain.ApplicationEnum;
+import com.jpmc.journal.SyncPolicy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * The tunables of the server, parsed once into typed fields. Every one is named as its
+ * {@link ApplicationEnum} constant, which holds its default. A settings object never
+ * changes; a reload of the {@link Configuration} publishes a new one, which the
+ * components read when they are created, but for the tunables {@link Configuration}
+ * names as applying straight away.
+ * <p>
+ * Durations are in milliseconds, or microseconds for {@code _US} names; a duration of 0
+ * turns off what it paces where its getter says so.
+ *
+ * @author Stanly
+ */
+public final class Settings {
+
+    private final int tcpPort;
+    private final int tcpBacklog;
+    private final int reportEvery;
+    private final int pauseQuota;
+    private final int workerPoolSize;
+    private final int nioEventLoops;
+    private final int nioReadBufferSize;
+    private final int minMessageLength;
+    private final int maxMessageLength;
+    private final int pipelineRingSize;
+    private final int pipelineInFlightLimit;
+    private final List<String> products;
+    private final int maxProducts;
+    private final SyncPolicy journalSyncPolicy;
+    private final long journalSyncIntervalMs;
+    private final long journalRegionSize;
+    private final long snapshotIntervalMs;
+    private final long bulkChunkSize;
+    private final long metricsIntervalMs;
+    private final boolean flowControl;
+    private final int routerQueueSize;
+    private final long coordinatorIntervalMs;
+    private final long windowMs;
+    private final int windowCount;
+    private final long windowReportMs;
+    private final int topProducts;
+    private final boolean history;
+    private final int historySegmentRecords;
+    private final long retentionMs;
+    private final long retainRecords;
+    private final int retainAdjustments;
+    private final int deliveryAckBatch;
+    private final long deliveryAckDelayUs;
+    private final int deliveryDedupWindow;
+    private final long deliverySessionIdleMs;
+    private final boolean dedup;
+    private final long dedupExpectedMessages;
+    private final double dedupFalsePositive;
+    private final int dedupRecent;
+    private final long configReloadMs;
+
+    private Settings(Properties p) {
+        tcpPort = positive(p, ApplicationEnum.TCP_PORT);
+        tcpBacklog = positive(p, ApplicationEnum.TCP_BACKLOG);
+        reportEvery = positive(p, ApplicationEnum.LOG_REPORT_PER_MESSAGE_RECEIVED);
+        pauseQuota = positive(p, ApplicationEnum.MAX_MESSAGES_TO_PAUSE_PROCESSING);
+        workerPoolSize = positive(p, ApplicationEnum.WORKER_POOL_SIZE);
+        nioEventLoops = positive(p, ApplicationEnum.NIO_EVENT_LOOPS);
+        nioReadBufferSize = positive(p, ApplicationEnum.NIO_READ_BUFFER_SIZE);
+        minMessageLength = positive(p, ApplicationEnum.MIN_MSG_LENGTH);
+        maxMessageLength = positive(p, ApplicationEnum.MAX_MSG_LENGTH);
+        pipelineRingSize = positive(p, ApplicationEnum.PIPELINE_RING_SIZE);
+        pipelineInFlightLimit = positive(p, ApplicationEnum.PIPELINE_IN_FLIGHT_LIMIT);
+        maxProducts = positive(p, ApplicationEnum.MAX_PRODUCTS);
+        String policy = value(p, ApplicationEnum.JOURNAL_SYNC_POLICY);
+        try {
+            journalSyncPolicy = SyncPolicy.parse(policy);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(ApplicationEnum.JOURNAL_SYNC_POLICY.name() + " is not a sync policy: " + policy);
+        }
+        journalSyncIntervalMs = positiveLong(p, ApplicationEnum.JOURNAL_SYNC_INTERVAL_MS);
+        journalRegionSize = positiveLong(p, ApplicationEnum.JOURNAL_REGION_SIZE);
+        snapshotIntervalMs = positiveLong(p, ApplicationEnum.SNAPSHOT_INTERVAL_MS);
+        bulkChunkSize = positiveLong(p, ApplicationEnum.BULK_CHUNK_SIZE);
+        metricsIntervalMs = duration(p, ApplicationEnum.METRICS_INTERVAL_MS);
+        flowControl = bool(p, ApplicationEnum.FLOW_CONTROL);
+        routerQueueSize = positive(p, ApplicationEnum.ROUTER_QUEUE_SIZE);
+        coordinatorIntervalMs = positiveLong(p, ApplicationEnum.COORDINATOR_INTERVAL_MS);
+        windowMs = positiveLong(p, ApplicationEnum.WINDOW_MS);
+        windowCount = positive(p, ApplicationEnum.WINDOW_COUNT);
+        windowReportMs = duration(p, ApplicationEnum.WINDOW_REPORT_MS);
+        topProducts = positive(p, ApplicationEnum.TOP_PRODUCTS);
+        history = bool(p, ApplicationEnum.HISTORY);
+        historySegmentRecords = positive(p, ApplicationEnum.HISTORY_SEGMENT_RECORDS);
+        retentionMs = duration(p, ApplicationEnum.RETENTION_MS);
+        retainRecords = positiveLong(p, ApplicationEnum.RETAIN_RECORDS);
+        retainAdjustments = positive(p, ApplicationEnum.RETAIN_ADJUSTMENTS);
+        deliveryAckBatch = positive(p, ApplicationEnum.DELIVERY_ACK_BATCH);
+        deliveryAckDelayUs = duration(p, ApplicationEnum.DELIVERY_ACK_DELAY_US);
+        deliveryDedupWindow = positive(p, ApplicationEnum.DELIVERY_DEDUP_WINDOW);
+        deliverySessionIdleMs = positiveLong(p, ApplicationEnum.DELIVERY_SESSION_IDLE_MS);
+        dedup = bool(p, ApplicationEnum.DEDUP);
+        dedupExpectedMessages = positiveLong(p, ApplicationEnum.DEDUP_EXPECTED_MESSAGES);
+        dedupRecent = positive(p, ApplicationEnum.DEDUP_RECENT);
+        String rate = value(p, ApplicationEnum.DEDUP_FALSE_POSITIVE);
+        try {
+            dedupFalsePositive = Double.parseDouble(rate);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(ApplicationEnum.DEDUP_FALSE_POSITIVE.name() + " is not a number: " + rate);
+        }
+        if (!(dedupFalsePositive > 0 && dedupFalsePositive < 1))
+            throw new IllegalArgumentException(ApplicationEnum.DEDUP_FALSE_POSITIVE.name() + " must be between 0 and 1: " + rate);
+        configReloadMs = duration(p, ApplicationEnum.CONFIG_RELOAD_MS);
+        if (minMessageLength > maxMessageLength)
+            throw new IllegalArgumentException(ApplicationEnum.MIN_MSG_LENGTH.name() + " is over " + ApplicationEnum.MAX_MSG_LENGTH.name());
+        List<String> names = new ArrayList<String>();
+        for (String name : value(p, ApplicationEnum.MSG_VALID_TYPE).split(",")) {
+            if (!name.trim().isEmpty())
+                names.add(name.trim());
+        }
+        if (names.isEmpty())
+            throw new IllegalArgumentException(ApplicationEnum.MSG_VALID_TYPE.name() + " names no product");
+        products = Collections.unmodifiableList(names);
+    }
+
+    /**
+     * The defaults of {@link ApplicationEnum}
+     *
+     * @return
+     */
+    public static Settings defaults() {
+        return new Settings(new Properties());
+    }
+
+    /**
+     * Parse the properties, the tunables missing from them keep their default
+     *
+     * @param properties
+     * @return
+     * @throws IllegalArgumentException when a value is not valid
+     */
+    public static Settings parse(Properties properties) {
+        return new Settings(properties);
+    }
+
+    private static String value(Properties p, ApplicationEnum key) {
+        return p.getProperty(key.name(), key.getEnumType()).trim();
+    }
+
+    private static int positive(Properties p, ApplicationEnum key) {
+        long n = positiveLong(p, key);
+        if (n > Integer.MAX_VALUE)
+            throw new IllegalArgumentException(key.name() + " is too large: " + n);
+        return (int) n;
+    }
+
+    private static long positiveLong(Properties p, ApplicationEnum key) {
+        long n = number(p, key);
+        if (n <= 0)
+            throw new IllegalArgumentException(key.name() + " must be positive: " + n);
+        return n;
+    }
+
+    /**
+     * A duration, 0 included
+     */
+    private static long duration(Properties p, ApplicationEnum key) {
+        long n = number(p, key);
+        if (n < 0)
+            throw new IllegalArgumentException(key.name() + " must not be negative: " + n);
+        return n;
+    }
+
+    private static long number(Properties p, ApplicationEnum key) {
+        String value = value(p, key);
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(key.name() + " is not a number: " + value);
+        }
+    }
+
+    private static boolean bool(Properties p, ApplicationEnum key) {
+        String value = value(p, key);
+        if ("true".equalsIgnoreCase(value))
+            return true;
+        if ("false".equalsIgnoreCase(value))
+            return false;
+        throw new IllegalArgumentException(key.name() + " is neither true nor false: " + value);
+    }
+
+    public int getTcpPort() {
+        return tcpPort;
+    }
+
+    public int getTcpBacklog() {
+        return tcpBacklog;
+    }
+
+    /**
+     * Messages between two log reports
+     *
+     * @return
+     */
+    public int getReportEvery() {
+        return reportEvery;
+    }
+
+    /**
+     * Messages of the day's quota, after which the receiver pauses
+     *
+     * @return
+     */
+    public int getPauseQuota() {
+        return pauseQuota;
+    }
+
+    public int getWorkerPoolSize() {
+        return workerPoolSize;
+    }
+
+    public int getNioEventLoops() {
+        return nioEventLoops;
+    }
+
+    public int getNioReadBufferSize() {
+        return nioReadBufferSize;
+    }
+
+    public int getMinMessageLength() {
+        return minMessageLength;
+    }
+
+    public int getMaxMessageLength() {
+        return maxMessageLength;
+    }
+
+    public int getPipelineRingSize() {
+        return pipelineRingSize;
+    }
+
+    /**
+     * Messages waiting in the pipeline ring above which intake stops
+     *
+     * @return
+     */
+    public int getPipelineInFlightLimit() {
+        return pipelineInFlightLimit;
+    }
+
+    /**
+     * Products known before any message names them
+     *
+     * @return
+     */
+    public List<String> getProducts() {
+        return products;
+    }
+
+    /**
+     * Products a dictionary holds at most
+     *
+     * @return
+     */
+    public int getMaxProducts() {
+        return maxProducts;
+    }
+
+    public SyncPolicy getJournalSyncPolicy() {
+        return journalSyncPolicy;
+    }
+
+    /**
+     * Interval of the group commit of the journal
+     *
+     * @return
+     */
+    public long getJournalSyncIntervalMs() {
+        return journalSyncIntervalMs;
+    }
+
+    /**
+     * Bytes of the journal file mapped at once
+     *
+     * @return
+     */
+    public long getJournalRegionSize() {
+        return journalRegionSize;
+    }
+
+    public long getSnapshotIntervalMs() {
+        return snapshotIntervalMs;
+    }
+
+    /**
+     * Bytes of a file a bulk ingest task parses
+     *
+     * @return
+     */
+    public long getBulkChunkSize() {
+        return bulkChunkSize;
+    }
+
+    /**
+     * Interval of the metrics log line, 0 for none
+     *
+     * @return
+     */
+    public long getMetricsIntervalMs() {
+        return metricsIntervalMs;
+    }
+
+    public boolean isFlowControl() {
+        return flowControl;
+    }
+
+    /**
+     * Messages queued to a partition node at most
+     *
+     * @return
+     */
+    public int getRouterQueueSize() {
+        return routerQueueSize;
+    }
+
+    public long getCoordinatorIntervalMs() {
+        return coordinatorIntervalMs;
+    }
+
+    /**
+     * Length of a time window of the live sales
+     *
+     * @return
+     */
+    public long getWindowMs() {
+        return windowMs;
+    }
+
+    public int getWindowCount() {
+        return windowCount;
+    }
+
+    /**
+     * Interval of the window report, 0 for none
+     *
+     * @return
+     */
+    public long getWindowReportMs() {
+        return windowReportMs;
+    }
+
+    public int getTopProducts() {
+        return topProducts;
+    }
+
+    public boolean isHistory() {
+        return history;
+    }
+
+    public int getHistorySegmentRecords() {
+        return historySegmentRecords;
+    }
+
+    /**
+     * Interval of the compaction of the history and adjustments, 0 for none
+     *
+     * @return
+     */
+    public long getRetentionMs() {
+        return retentionMs;
+    }
+
+    public long getRetainRecords() {
+        return retainRecords;
+    }
+
+    public int getRetainAdjustments() {
+        return retainAdjustments;
+    }
+
+    /**
+     * Lines of a delivery session acknowledged at once at most
+     *
+     * @return
+     */
+    public int getDeliveryAckBatch() {
+        return deliveryAckBatch;
+    }
+
+    public long getDeliveryAckDelayUs() {
+        return deliveryAckDelayUs;
+    }
+
+    public int getDeliveryDedupWindow() {
+        return deliveryDedupWindow;
+    }
+
+    public long getDeliverySessionIdleMs() {
+        return deliverySessionIdleMs;
+    }
+
+    public boolean isDedup() {
+        return dedup;
+    }
+
+    public long getDedupExpectedMessages() {
+        return dedupExpectedMessages;
+    }
+
+    public double getDedupFalsePositive() {
+        return dedupFalsePositive;
+    }
+
+    public int getDedupRecent() {
+        return dedupRecent;
+    }
+
+    /**
+     * Interval at which the configuration file is checked for changes, 0 for never
+     *
+     * @return
+     */
+    public long getConfigReloadMs() {
+        return configReloadMs;
+    }
+}
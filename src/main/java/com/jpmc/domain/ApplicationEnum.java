@@ -13,12 +13,48 @@ public enum ApplicationEnum {
     LOG("Log"),
     PROCESS("Process"),
     RECORD("Record"),
+    RESUME("Resume"),
     LOG_REPORT_PER_MESSAGE_RECEIVED("10"),
     MAX_MESSAGES_TO_PAUSE_PROCESSING("50"),
     TCP_PORT("9898"),
     MSG_VALID_TYPE("mango,apple,mangos,apples,orange,oranges"),
+    MAX_PRODUCTS("4096"),
     MIN_MSG_LENGTH("10"),
-    TCP_HOST("localhost");
+    TCP_HOST("localhost"),
+    TCP_BACKLOG("1024"),
+    WORKER_POOL_SIZE("64"),
+    NIO_EVENT_LOOPS("2"),
+    NIO_READ_BUFFER_SIZE("8192"),
+    MAX_MSG_LENGTH("4096"),
+    PIPELINE_RING_SIZE("1024"),
+    PIPELINE_IN_FLIGHT_LIMIT("768"),
+    JOURNAL_SYNC_POLICY("GROUP"),
+    JOURNAL_SYNC_INTERVAL_MS("10"),
+    JOURNAL_REGION_SIZE("67108864"),
+    SNAPSHOT_INTERVAL_MS("60000"),
+    BULK_CHUNK_SIZE("16777216"),
+    METRICS_INTERVAL_MS("60000"),
+    FLOW_CONTROL("false"),
+    ROUTER_QUEUE_SIZE("65536"),
+    COORDINATOR_INTERVAL_MS("1000"),
+    WINDOW_MS("1000"),
+    WINDOW_COUNT("60"),
+    WINDOW_REPORT_MS("0"),
+    TOP_PRODUCTS("10"),
+    HISTORY("false"),
+    HISTORY_SEGMENT_RECORDS("65536"),
+    RETENTION_MS("0"),
+    RETAIN_RECORDS("1048576"),
+    RETAIN_ADJUSTMENTS("1000"),
+    DELIVERY_ACK_BATCH("64"),
+    DELIVERY_ACK_DELAY_US("200"),
+    DELIVERY_DEDUP_WINDOW("4096"),
+    DELIVERY_SESSION_IDLE_MS("3600000"),
+    DEDUP("false"),
+    DEDUP_EXPECTED_MESSAGES("1000000"),
+    DEDUP_FALSE_POSITIVE("0.0001"),
+    DEDUP_RECENT("65536"),
+    CONFIG_RELOAD_MS("5000");
     private final String type;
 
     ApplicationEnum(String type) {
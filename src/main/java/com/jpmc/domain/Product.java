@@ -7,11 +7,31 @@ package com.jpmc.domain;
  */
 public class Product {
 
+    /**
+     * A Multiply factor is held as a whole number of ten-thousandths, e.g. 1.5 as 15000
+     */
+    public static final long FACTOR_SCALE = 10000;
+
+    private int productId = -1;
     private String name;
-    private float price;
+    private long price;
     private int quantity;
     private ApplicationEnum type;
-    private float adjustPrice;
+    private long adjustPrice;
+    private long messageId;
+
+    /**
+     * Dense id of the product in the {@link ProductDictionary}, -1 when none.
+     *
+     * @return
+     */
+    public int getProductId() {
+        return productId;
+    }
+
+    public void setProductId(int productId) {
+        this.productId = productId;
+    }
 
     public String getName() {
         return name;
@@ -21,11 +41,16 @@ public class Product {
         this.name = name;
     }
 
-    public float getPrice() {
+    /**
+     * Unit price in pence
+     *
+     * @return
+     */
+    public long getPrice() {
         return price;
     }
 
-    public void setPrice(float price) {
+    public void setPrice(long price) {
         this.price = price;
     }
 
@@ -45,11 +70,30 @@ public class Product {
         this.type = type;
     }
 
-    public float getAdjustPrice() {
+    /**
+     * Adjustment amount, pence for Add and Subtract, the factor for Multiply in units of
+     * {@link #FACTOR_SCALE}
+     *
+     * @return
+     */
+    public long getAdjustPrice() {
         return adjustPrice;
     }
 
-    public void setAdjustPrice(float adjustPrice) {
+    public void setAdjustPrice(long adjustPrice) {
         this.adjustPrice = adjustPrice;
     }
+
+    /**
+     * Hash of the id the client gave the message, 0 when none.
+     *
+     * @return
+     */
+    public long getMessageId() {
+        return messageId;
+    }
+
+    public void setMessageId(long messageId) {
+        this.messageId = messageId;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,273 @@
+package com.jpmc.domain;
+
+import com.jpmc.config.Configuration;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Concurrent dictionary assigning every product a dense int id the first time it is
+ * seen. Names are normalised to their singular form (apples, apple -> apple) so both
+ * spellings share one id.
+ * <p>
+ * Lookups work on a character range and never allocate and take no lock. A new product
+ * is added to the table in place, the table is only rebuilt when it doubles, so
+ * registering products costs constant time on average.
+ * <p>
+ * Any word after "of" or in an adjustment registers a product, so the number of
+ * products is capped; past the cap unknown products are not registered.
+ *
+ * @author Stanly
+ */
+public final class ProductDictionary {
+
+    private static final Logger logger = Logger.getLogger(ProductDictionary.class.getName());
+    private static final VarHandle KEYS = MethodHandles.arrayElementVarHandle(String[].class);
+    private static final ProductDictionary DEFAULT = new ProductDictionary(Configuration.get().getProducts().toArray(new String[0]));
+
+    private final int limit;
+    //Set once the limit was reported, under the lock
+    private boolean full = false;
+    private volatile Table table = new Table(16, new String[8], 0);
+
+    public ProductDictionary(String... names) {
+        this(Configuration.get().getMaxProducts(), names);
+    }
+
+    /**
+     * @param limit most products registered
+     * @param names
+     */
+    public ProductDictionary(int limit, String... names) {
+        this.limit = limit;
+        for (String name : names) {
+            register(name);
+        }
+    }
+
+    /**
+     * Dictionary shared by the application, seeded with {@link ApplicationEnum#MSG_VALID_TYPE}.
+     *
+     * @return
+     */
+    public static ProductDictionary getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Find the id of a product.
+     *
+     * @param name singular or plural name
+     * @return id or -1 when the product has not been seen yet
+     */
+    public int lookup(CharSequence name) {
+        return lookup(name, 0, name.length());
+    }
+
+    /**
+     * Find the id of the product named by the range of the sequence, without allocating.
+     *
+     * @param s
+     * @param start
+     * @param end
+     * @return id or -1 when the product has not been seen yet
+     */
+    public int lookup(CharSequence s, int start, int end) {
+        int canonicalEnd = canonicalEnd(s, start, end);
+        char suffix = canonicalEnd < end - 2 ? 'y' : 0;
+        return table.find(s, start, canonicalEnd, suffix);
+    }
+
+    /**
+     * Id of the product, assigning the next free id when it is new.
+     *
+     * @param name
+     * @return id or -1 when the product is new and the dictionary is full
+     */
+    public int register(CharSequence name) {
+        return register(name, 0, name.length());
+    }
+
+    /**
+     * Id of the product named by the range of the sequence, assigning the next free id
+     * when it is new.
+     *
+     * @param s
+     * @param start
+     * @param end
+     * @return id or -1 when the product is new and the dictionary is full
+     */
+    public int register(CharSequence s, int start, int end) {
+        int id = lookup(s, start, end);
+        if (id >= 0) {
+            return id;
+        }
+        synchronized (this) {
+            id = lookup(s, start, end);
+            if (id < 0) {
+                Table t = table;
+                if (t.size >= limit) {
+                    if (!full) {
+                        full = true;
+                        logger.log(Level.WARNING, "Dictionary full at " + limit + " products, new products are ignored");
+                    }
+                    return -1;
+                }
+                int canonicalEnd = canonicalEnd(s, start, end);
+                String name = s.subSequence(start, canonicalEnd).toString();
+                if (canonicalEnd < end - 2) {
+                    name = name + 'y';
+                }
+                id = t.size;
+                if (t.fits())
+                    t.add(name);
+                else
+                    table = t.grow(name);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * Canonical name of the product.
+     *
+     * @param id
+     * @return
+     */
+    public String name(int id) {
+        Table t = table;
+        return id >= 0 && id < t.size ? t.names[id] : null;
+    }
+
+    /**
+     * Number of products registered, ids are 0 to size - 1.
+     *
+     * @return
+     */
+    public int size() {
+        return table.size;
+    }
+
+    /**
+     * End of the singular form of the name. Plural forms: -ies becomes -y (the range
+     * then ends three characters early and the caller appends the y), -oes, -xes,
+     * -ches, -shes and -sses lose -es, any other -s except -ss is dropped. Names of
+     * three characters or less are kept as they are.
+     */
+    private static int canonicalEnd(CharSequence s, int start, int end) {
+
+        int len = end - start;
+        if (len <= 3 || s.charAt(end - 1) != 's') {
+            return end;
+        }
+        char c1 = s.charAt(end - 2);
+        if (c1 == 's') {
+            return end;
+        }
+        if (c1 == 'e') {
+            char c2 = s.charAt(end - 3);
+            if (c2 == 'i' && len > 4) {
+                return end - 3;
+            }
+            if (c2 == 'o' || c2 == 'x' || (c2 == 's' && s.charAt(end - 4) == 's')
+                    || (c2 == 'h' && (s.charAt(end - 4) == 'c' || s.charAt(end - 4) == 's'))) {
+                return end - 2;
+            }
+        }
+        return end - 1;
+    }
+
+    /**
+     * Open addressing table of canonical name to id. Products are added in place under
+     * the lock of the dictionary while readers look up: the id and name of a product are
+     * written before its key is published with a release store, and the size last.
+     */
+    private static final class Table {
+
+        private final String[] keys;
+        private final int[] ids;
+        private final String[] names;
+        private final int mask;
+        private volatile int size;
+
+        private Table(int capacity, String[] names, int size) {
+            this.keys = new String[capacity];
+            this.ids = new int[capacity];
+            this.names = names;
+            this.mask = capacity - 1;
+            for (int id = 0; id < size; id++) {
+                insert(names[id], id);
+            }
+            this.size = size;
+        }
+
+        /**
+         * True when one more name fits, keeping the table at most half full
+         */
+        private boolean fits() {
+            return size < names.length && (size + 1) * 2 <= keys.length;
+        }
+
+        private void add(String name) {
+            int id = size;
+            names[id] = name;
+            insert(name, id);
+            size = id + 1;
+        }
+
+        /**
+         * A table of twice the capacity, with the name added
+         */
+        private Table grow(String name) {
+            String[] n = new String[names.length * 2];
+            System.arraycopy(names, 0, n, 0, size);
+            n[size] = name;
+            return new Table(keys.length * 2, n, size + 1);
+        }
+
+        private void insert(String name, int id) {
+            int slot = spread(hash(name, 0, name.length(), (char) 0)) & mask;
+            while (keys[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            ids[slot] = id;
+            KEYS.setRelease(keys, slot, name);
+        }
+
+        private int find(CharSequence s, int start, int end, char suffix) {
+            int length = end - start + (suffix != 0 ? 1 : 0);
+            int slot = spread(hash(s, start, end, suffix)) & mask;
+            String key;
+            while ((key = (String) KEYS.getAcquire(keys, slot)) != null) {
+                if (key.length() == length && matches(key, s, start, end, suffix)) {
+                    return ids[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        private static boolean matches(String key, CharSequence s, int start, int end, char suffix) {
+            for (int i = start; i < end; i++) {
+                if (key.charAt(i - start) != s.charAt(i)) {
+                    return false;
+                }
+            }
+            return suffix == 0 || key.charAt(end - start) == suffix;
+        }
+
+        private static int hash(CharSequence s, int start, int end, char suffix) {
+            int h = 0;
+            for (int i = start; i < end; i++) {
+                h = 31 * h + s.charAt(i);
+            }
+            return suffix != 0 ? 31 * h + suffix : h;
+        }
+
+        private static int spread(int h) {
+            return h ^ (h >>> 16);
+        }
+    }
+}
@@ -9,9 +9,9 @@ public class Report {
 
     private String name;
     private int quantity;
-    private float totalPrice;
+    private long totalPrice;
 
-    public Report(String name, int quantity, float totalPrice) {
+    public Report(String name, int quantity, long totalPrice) {
         this.name = name;
         this.quantity = quantity;
         this.totalPrice = totalPrice;
@@ -33,11 +33,16 @@ public class Report {
         this.quantity = quantity;
     }
 
-    public float getTotalPrice() {
+    /**
+     * Total value in pence
+     *
+     * @return
+     */
+    public long getTotalPrice() {
         return totalPrice;
     }
 
-    public void setTotalPrice(float totalPrice) {
+    public void setTotalPrice(long totalPrice) {
         this.totalPrice = totalPrice;
     }
 }
\ No newline at end of file
@@ -0,0 +1,281 @@
+package com.jpmc.history;
+
+import com.jpmc.config.Configuration;
+import com.jpmc.domain.ApplicationEnum;
+import com.jpmc.domain.Product;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Every message recorded, kept off the heap in columns: amount, link to the previous
+ * record of the same product, product id, quantity and type. The records are appended
+ * to direct buffer segments allocated as the history grows, 26 bytes a record instead
+ * of a {@link Product} object with its name and headers, so the history does not add
+ * to the garbage collected heap however long the day.
+ * <p>
+ * Appends from many threads claim their index with one atomic increment and write
+ * their own slots; the type is written last with release semantics, so a reader that
+ * sees it sees the whole record. Records can be scanned in order, or per product from
+ * the newest back through the links.
+ * <p>
+ * Once older records are no longer needed, e.g. folded into the totals and journaled,
+ * their whole segments can be released; scans then start at the oldest record kept.
+ *
+ * @author Stanly
+ */
+public final class SalesHistory {
+
+    /**
+     * Receives the records of a scan
+     */
+    public interface RecordVisitor {
+
+        /**
+         * @param index     position of the record in the history
+         * @param productId -1 for none
+         * @param type
+         * @param quantity
+         * @param amount    price of a sale or amount of an adjustment, in pence
+         */
+        void visit(long index, int productId, ApplicationEnum type, int quantity, long amount);
+    }
+
+    private static final ApplicationEnum[] TYPES = ApplicationEnum.values();
+    private static final VarHandle TYPE = MethodHandles.byteBufferViewVarHandle(short[].class, ByteOrder.nativeOrder());
+    private static final int PRODUCTS_PER_CHUNK = 1024;
+    private static final long NONE = -1;
+
+    private final int shift;
+    private final int mask;
+    private final AtomicLong claimed = new AtomicLong();
+    //Segments before this one were released
+    private volatile int released = 0;
+    private volatile Segment[] segments = new Segment[16];
+    //Newest record of each product, in chunks that are never replaced once published
+    private volatile AtomicLongArray[] heads = new AtomicLongArray[0];
+
+    public SalesHistory() {
+        this(Configuration.get().getHistorySegmentRecords());
+    }
+
+    /**
+     * @param segmentRecords records per segment, rounded up to a power of two
+     */
+    public SalesHistory(int segmentRecords) {
+        int size = Integer.highestOneBit(Math.max(2, segmentRecords - 1)) << 1;
+        this.shift = Integer.numberOfTrailingZeros(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * Append the message
+     *
+     * @param p
+     * @return index of the record
+     */
+    public long append(Product p) {
+        long index = claimed.getAndIncrement();
+        Segment s = segment((int) (index >>> shift));
+        int slot = (int) index & mask;
+        ApplicationEnum type = p.getType();
+        boolean adjustment = type == ApplicationEnum.ADDITION || type == ApplicationEnum.SUBTRACTION || type == ApplicationEnum.MULTIPLICATION;
+        int productId = p.getProductId();
+        s.buffer.putLong(s.amount + slot * 8, adjustment ? p.getAdjustPrice() : p.getPrice());
+        s.buffer.putInt(s.productId + slot * 4, productId);
+        s.buffer.putInt(s.quantity + slot * 4, p.getQuantity());
+        long previous = productId >= 0 ? head(productId).getAndSet(productId % PRODUCTS_PER_CHUNK, index) : NONE;
+        s.buffer.putLong(s.previous + slot * 8, previous);
+        TYPE.setRelease(s.buffer, s.type + slot * 2, (short) (type.ordinal() + 1));
+        return index;
+    }
+
+    /**
+     * Number of records appended or being appended
+     *
+     * @return
+     */
+    public long size() {
+        return claimed.get();
+    }
+
+    /**
+     * Index of the oldest record kept
+     *
+     * @return
+     */
+    public long first() {
+        return (long) released << shift;
+    }
+
+    /**
+     * Visit every record kept and appended before the call, oldest first.
+     *
+     * @param visitor
+     */
+    public void scan(RecordVisitor visitor) {
+        long end = claimed.get();
+        for (long index = first(); index < end; index++) {
+            Segment s = kept((int) (index >>> shift));
+            if (s == null) {
+                //Released while scanning
+                index = first() - 1;
+                continue;
+            }
+            visit(s, index, visitor);
+        }
+    }
+
+    /**
+     * Visit every record of the product, newest first.
+     *
+     * @param productId
+     * @param visitor
+     */
+    public void scanProduct(int productId, RecordVisitor visitor) {
+        AtomicLongArray[] h = heads;
+        if (productId < 0 || productId / PRODUCTS_PER_CHUNK >= h.length)
+            return;
+        long index = h[productId / PRODUCTS_PER_CHUNK].get(productId % PRODUCTS_PER_CHUNK);
+        while (index != NONE) {
+            Segment s = kept((int) (index >>> shift));
+            if (s == null)
+                return;
+            index = visit(s, index, visitor);
+        }
+    }
+
+    /**
+     * Release the segments holding only records before the index. Records of a
+     * segment still being written are kept until the whole segment can go.
+     *
+     * @param before index of the oldest record to keep
+     * @return number of records released by the call
+     */
+    public synchronized long release(long before) {
+        int n = (int) (Math.min(before, claimed.get()) >>> shift);
+        int from = released;
+        if (n <= from)
+            return 0;
+        Segment[] s = segments;
+        for (int i = from; i < n && i < s.length; i++) {
+            s[i] = null;
+        }
+        released = n;
+        return (long) (n - from) << shift;
+    }
+
+    /**
+     * Off-heap bytes held by the segments
+     *
+     * @return
+     */
+    public long memoryBytes() {
+        long bytes = 0;
+        for (Segment s : segments) {
+            if (s != null)
+                bytes += s.buffer.capacity();
+        }
+        return bytes;
+    }
+
+    /**
+     * Visit one record, waiting for the append that claimed it to finish writing it.
+     *
+     * @return index of the previous record of the same product
+     */
+    private long visit(Segment s, long index, RecordVisitor visitor) {
+        int slot = (int) index & mask;
+        short type;
+        while ((type = (short) TYPE.getAcquire(s.buffer, s.type + slot * 2)) == 0) {
+            Thread.yield();
+        }
+        visitor.visit(index, s.buffer.getInt(s.productId + slot * 4), TYPES[type - 1],
+                s.buffer.getInt(s.quantity + slot * 4), s.buffer.getLong(s.amount + slot * 8));
+        return s.buffer.getLong(s.previous + slot * 8);
+    }
+
+    private Segment segment(int n) {
+        Segment[] s = segments;
+        if (n < s.length && s[n] != null)
+            return s[n];
+        return allocate(n);
+    }
+
+    /**
+     * The segment, null once released
+     */
+    private Segment kept(int n) {
+        Segment[] s = segments;
+        if (n < released)
+            return null;
+        return n < s.length && s[n] != null ? s[n] : allocate(n);
+    }
+
+    private synchronized Segment allocate(int n) {
+        //An append claimed before the release, its record is not kept
+        if (n < released)
+            return new Segment(mask + 1);
+        Segment[] s = segments;
+        if (n >= s.length) {
+            Segment[] grown = new Segment[Math.max(s.length * 2, n + 1)];
+            System.arraycopy(s, 0, grown, 0, s.length);
+            s = grown;
+        }
+        if (s[n] == null)
+            s[n] = new Segment(mask + 1);
+        segments = s;
+        return s[n];
+    }
+
+    private AtomicLongArray head(int productId) {
+        AtomicLongArray[] h = heads;
+        int chunk = productId / PRODUCTS_PER_CHUNK;
+        if (chunk < h.length)
+            return h[chunk];
+        return growHeads(chunk);
+    }
+
+    private synchronized AtomicLongArray growHeads(int chunk) {
+        AtomicLongArray[] h = heads;
+        if (chunk >= h.length) {
+            AtomicLongArray[] grown = new AtomicLongArray[chunk + 1];
+            System.arraycopy(h, 0, grown, 0, h.length);
+            for (int i = h.length; i < grown.length; i++) {
+                grown[i] = new AtomicLongArray(PRODUCTS_PER_CHUNK);
+                for (int j = 0; j < PRODUCTS_PER_CHUNK; j++) {
+                    grown[i].set(j, NONE);
+                }
+            }
+            heads = grown;
+            h = grown;
+        }
+        return h[chunk];
+    }
+
+    /**
+     * One direct buffer holding the columns of a run of records, the wider columns
+     * first so every value is aligned.
+     */
+    private static final class Segment {
+
+        private final ByteBuffer buffer;
+        private final int amount = 0;
+        private final int previous;
+        private final int productId;
+        private final int quantity;
+        private final int type;
+
+        private Segment(int records) {
+            previous = amount + records * 8;
+            productId = previous + records * 8;
+            quantity = productId + records * 4;
+            type = quantity + records * 4;
+            buffer = ByteBuffer.allocateDirect(type + records * 2).order(ByteOrder.nativeOrder());
+        }
+    }
+}
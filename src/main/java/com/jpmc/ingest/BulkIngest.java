@@ -0,0 +1,228 @@
+package com.jpmc.ingest;
+
+import com.jpmc.config.Configuration;
+import com.jpmc.domain.Product;
+import com.jpmc.domain.ProductDictionary;
+import com.jpmc.msg.ByteSequence;
+import com.jpmc.msg.MessageParser;
+import com.jpmc.receiver.MessageReceiver;
+import com.jpmc.receiver.SalesBatch;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bulk ingest of a message file, e.g. an end of day reconciliation file, in the format
+ * of the socket protocol: one message per line.
+ * <p>
+ * The file is split at line boundaries into chunks which are memory-mapped and parsed
+ * in parallel on a fork-join pool, each into a {@link SalesBatch}. The batches are then
+ * merged into the receiver in file order, so adjustments apply to exactly the sales
+ * before them in the file. Lines are parsed straight from the mapping; only lines that
+ * are not ASCII are decoded to a String.
+ *
+ * @author Stanly
+ */
+public class BulkIngest {
+
+    private static final Logger logger = Logger.getLogger(BulkIngest.class.getName());
+
+    private final MessageReceiver receiver;
+    private final ForkJoinPool pool;
+    private final long chunkSize;
+    private final Charset charset = Charset.defaultCharset();
+
+    public BulkIngest(MessageReceiver receiver) {
+        this(receiver, ForkJoinPool.commonPool(), Configuration.get().getBulkChunkSize());
+    }
+
+    /**
+     * @param receiver
+     * @param pool
+     * @param chunkSize bytes of the file parsed by one task, a chunk ends at the end of a line
+     */
+    public BulkIngest(MessageReceiver receiver, ForkJoinPool pool, long chunkSize) {
+        if (chunkSize < 1 || chunkSize > Integer.MAX_VALUE / 2)
+            throw new IllegalArgumentException("Chunk size out of range: " + chunkSize);
+        this.receiver = receiver;
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Ingest every file given and log the final report.
+     *
+     * @param args message files
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        MessageReceiver receiver = new MessageReceiver();
+        BulkIngest ingest = new BulkIngest(receiver);
+        for (String file : args) {
+            long start = System.nanoTime();
+            long messages = ingest.ingest(Paths.get(file));
+            logger.log(Level.INFO, "Ingested " + messages + " messages from " + file + " in "
+                    + (System.nanoTime() - start) / 1000000 + " ms");
+        }
+        receiver.logFinalReport();
+        receiver.close();
+    }
+
+    /**
+     * Parse the file and merge its messages into the receiver.
+     *
+     * @param file
+     * @return number of valid messages merged
+     * @throws IOException
+     */
+    public long ingest(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long[] bounds = split(channel);
+            SalesBatch[] batches = new SalesBatch[bounds.length - 1];
+            pool.invoke(new ParseTask(channel, bounds, batches, 0, batches.length));
+            long messages = 0;
+            for (SalesBatch batch : batches) {
+                receiver.merge(batch);
+                messages += batch.messageCount();
+            }
+            return messages;
+        }
+    }
+
+    /**
+     * Chunk boundaries: every chunk but the last ends just after a line feed.
+     */
+    private long[] split(FileChannel channel) throws IOException {
+        long size = channel.size();
+        List<Long> bounds = new ArrayList<Long>();
+        bounds.add(0L);
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+        long pos = chunkSize;
+        while (pos < size) {
+            long end = lineEnd(channel, pos, probe);
+            if (end >= size)
+                break;
+            bounds.add(end);
+            pos = end + chunkSize;
+        }
+        bounds.add(size);
+        long[] b = new long[bounds.size()];
+        for (int i = 0; i < b.length; i++) {
+            b[i] = bounds.get(i);
+        }
+        return b;
+    }
+
+    /**
+     * Position just after the first line feed at or after pos, or the file size.
+     */
+    private static long lineEnd(FileChannel channel, long pos, ByteBuffer probe) throws IOException {
+        while (true) {
+            probe.clear();
+            int n = channel.read(probe, pos);
+            if (n <= 0)
+                return channel.size();
+            for (int i = 0; i < n; i++) {
+                if (probe.get(i) == '\n')
+                    return pos + i + 1;
+            }
+            pos += n;
+        }
+    }
+
+    /**
+     * Parse one chunk into a batch.
+     */
+    private SalesBatch parse(FileChannel channel, long start, long end) throws IOException {
+        SalesBatch batch = new SalesBatch();
+        if (end <= start)
+            return batch;
+        MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        ProductDictionary dictionary = receiver.getDictionary();
+        ByteSequence line = new ByteSequence();
+        int length = chunk.limit();
+        int lineStart = 0;
+        long invalid = 0;
+        while (lineStart < length) {
+            int lineEnd = lineStart;
+            boolean ascii = true;
+            byte b;
+            while (lineEnd < length && (b = chunk.get(lineEnd)) != '\n') {
+                if (b < 0)
+                    ascii = false;
+                lineEnd++;
+            }
+            int textEnd = lineEnd > lineStart && chunk.get(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+            CharSequence msg;
+            if (ascii) {
+                line.wrap(chunk, lineStart, textEnd - lineStart);
+                msg = line;
+            } else {
+                byte[] bytes = new byte[textEnd - lineStart];
+                chunk.get(lineStart, bytes);
+                msg = new String(bytes, charset);
+            }
+            if (MessageParser.isValid(msg, dictionary)) {
+                Product p = new Product();
+                MessageParser.parse(msg, p, dictionary);
+                batch.add(p);
+            } else if (textEnd > lineStart) {
+                invalid++;
+            }
+            lineStart = lineEnd + 1;
+        }
+        if (invalid > 0 && logger.isLoggable(Level.WARNING))
+            logger.log(Level.WARNING, invalid + " invalid messages skipped between bytes " + start + " and " + end);
+        return batch;
+    }
+
+    /**
+     * Parses a range of chunks, halving it until one chunk is left.
+     */
+    private final class ParseTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+        private final FileChannel channel;
+        private final long[] bounds;
+        private final SalesBatch[] batches;
+        private final int from;
+        private final int to;
+
+        private ParseTask(FileChannel channel, long[] bounds, SalesBatch[] batches, int from, int to) {
+            this.channel = channel;
+            this.bounds = bounds;
+            this.batches = batches;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ParseTask(channel, bounds, batches, from, mid),
+                        new ParseTask(channel, bounds, batches, mid, to));
+                return;
+            }
+            for (int i = from; i < to; i++) {
+                try {
+                    batches[i] = parse(channel, bounds[i], bounds[i + 1]);
+                } catch (IOException e) {
+                    throw new IllegalStateException("Chunk " + i + " could not be read", e);
+                }
+            }
+        }
+    }
+}
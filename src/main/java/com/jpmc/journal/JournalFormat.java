@@ -0,0 +1,99 @@
+package com.jpmc.journal;
+
+import com.jpmc.domain.ApplicationEnum;
+
+/**
+ * Layout of the journal file, shared by the writer and the reader.
+ * <p>
+ * A 16 byte file header (magic, version, region size) is followed by records. Every
+ * record starts with a 24 byte header: type, product id, quantity, checksum and amount
+ * (price or adjustment, in pence). A multiply record holds its factor as the amount
+ * over the quantity, a quantity of 0 meaning a whole factor as journals written before
+ * fractional factors have it. A resume record holds, as its amount, the message count
+ * the next quota starts from. A name record is followed by the name in UTF-8, padded
+ * to 8 bytes.
+ *
+ * @author Stanly
+ */
+final class JournalFormat {
+
+    static final int MAGIC = 0x534d504a;
+    static final int VERSION = 1;
+    static final int FILE_HEADER = 16;
+    static final int HEADER = 24;
+
+    static final byte SALE = 1;
+    static final byte LOG = 2;
+    static final byte PROCESS = 3;
+    static final byte ADD = 4;
+    static final byte SUBTRACT = 5;
+    static final byte MULTIPLY = 6;
+    static final byte NAME = 7;
+    static final byte PAD = 8;
+    static final byte RESUME = 9;
+
+    private JournalFormat() {
+    }
+
+    static byte typeOf(ApplicationEnum type) {
+        switch (type) {
+            case ADDITION:
+                return ADD;
+            case SUBTRACTION:
+                return SUBTRACT;
+            case MULTIPLICATION:
+                return MULTIPLY;
+            case LOG:
+                return LOG;
+            case PROCESS:
+                return PROCESS;
+            case RESUME:
+                return RESUME;
+            default:
+                return SALE;
+        }
+    }
+
+    static ApplicationEnum typeOf(byte type) {
+        switch (type) {
+            case ADD:
+                return ApplicationEnum.ADDITION;
+            case SUBTRACT:
+                return ApplicationEnum.SUBTRACTION;
+            case MULTIPLY:
+                return ApplicationEnum.MULTIPLICATION;
+            case LOG:
+                return ApplicationEnum.LOG;
+            case PROCESS:
+                return ApplicationEnum.PROCESS;
+            case RESUME:
+                return ApplicationEnum.RESUME;
+            default:
+                return ApplicationEnum.RECORD;
+        }
+    }
+
+    static int align(int size) {
+        return (size + 7) & ~7;
+    }
+
+    static int nameHash(byte[] name, int from, int to) {
+        int h = 1;
+        for (int i = from; i < to; i++) {
+            h = 31 * h + name[i];
+        }
+        return h;
+    }
+
+    /**
+     * Detects records only partly on the disk after a crash.
+     */
+    static int checksum(byte type, int productId, int quantity, long amount, int extra) {
+        long h = (type & 0xffL) * 0x9E3779B97F4A7C15L;
+        h = (h ^ productId) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ quantity) * 0x94D049BB133111EBL;
+        h = (h ^ amount) * 0x9E3779B97F4A7C15L;
+        h = (h ^ extra) * 0xBF58476D1CE4E5B9L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,237 @@
+package com.jpmc.journal;
+
+import com.jpmc.domain.Product;
+import com.jpmc.domain.ProductDictionary;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.jpmc.journal.JournalFormat.*;
+
+/**
+ * Reads the journal from a position, with plain reads. A reader keeps its position and
+ * the product names met so far, so it can be called again to pick up records appended
+ * since, or be moved to the position a snapshot was taken at.
+ *
+ * @author Stanly
+ */
+public class JournalReader {
+
+    private static final Logger logger = Logger.getLogger(JournalReader.class.getName());
+    private static final int READ_BUFFER_SIZE = 1 << 20;
+
+    private final ProductDictionary dictionary;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private long position = FILE_HEADER;
+    private long regionSize = 0;
+    //By journaled product id: its id in the dictionary and its name
+    private int[] ids = new int[0];
+    private String[] names = new String[0];
+    private byte[] name = new byte[64];
+
+    /**
+     * @param dictionary dictionary the products read are registered in
+     */
+    public JournalReader(ProductDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Position after the last complete record read.
+     *
+     * @return
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Names of the products met so far, by their id in the journal.
+     *
+     * @return
+     */
+    public Map<Integer, String> getNames() {
+        Map<Integer, String> copy = new LinkedHashMap<Integer, String>();
+        for (int i = 0; i < names.length; i++) {
+            if (names[i] != null)
+                copy.put(i, names[i]);
+        }
+        return copy;
+    }
+
+    /**
+     * Continue reading at a position reached earlier.
+     *
+     * @param position
+     * @param names    names of the products met before the position, by their id in the journal
+     */
+    public void seek(long position, Map<Integer, String> names) {
+        this.position = position;
+        for (Map.Entry<Integer, String> e : names.entrySet()) {
+            name(e.getKey(), e.getValue());
+        }
+    }
+
+    /**
+     * Read every complete record from the current position on. Reading stops at the end
+     * of the file or at the first record not completely written. A record whose product
+     * cannot be registered, e.g. as the dictionary is full, is read without product, as
+     * the message would be received.
+     *
+     * @param channel
+     * @param consumer receives the messages read, oldest first, and a resume after the
+     *                 quota as a message of type {@link com.jpmc.domain.ApplicationEnum#RESUME}
+     *                 whose price is the message count the next quota starts from
+     * @return number of messages and resumes read
+     * @throws IOException
+     */
+    public long read(FileChannel channel, Consumer<Product> consumer) throws IOException {
+        if (regionSize == 0 && !readHeader(channel))
+            return 0;
+        buffer.limit(0);
+        long bufferStart = position;
+        long pos = position;
+        long records = 0;
+        long unregistered = 0;
+
+        while (true) {
+            long rest = regionSize - pos % regionSize;
+            if (rest < HEADER) {
+                pos += rest;
+                continue;
+            }
+            if (pos + HEADER > bufferStart + buffer.limit()) {
+                bufferStart = pos;
+                if (!fill(channel, pos, HEADER))
+                    break;
+            }
+            int offset = (int) (pos - bufferStart);
+            byte type = buffer.get(offset);
+            int productId = buffer.getInt(offset + 4);
+            int quantity = buffer.getInt(offset + 8);
+            int checksum = buffer.getInt(offset + 12);
+            long amount = buffer.getLong(offset + 16);
+
+            if (type == PAD) {
+                if (quantity != rest || checksum != checksum(type, productId, quantity, amount, 0))
+                    break;
+                pos += rest;
+            } else if (type == NAME) {
+                int size = align(HEADER + quantity);
+                if (quantity < 0 || size > rest)
+                    break;
+                if (pos + size > bufferStart + buffer.limit()) {
+                    bufferStart = pos;
+                    if (!fill(channel, pos, size))
+                        break;
+                    offset = 0;
+                }
+                if (name.length < quantity)
+                    name = new byte[quantity];
+                buffer.get(offset + HEADER, name, 0, quantity);
+                if (productId < 0 || checksum != checksum(type, productId, quantity, amount, nameHash(name, 0, quantity)))
+                    break;
+                name(productId, new String(name, 0, quantity, StandardCharsets.UTF_8));
+                pos += size;
+            } else if (type >= SALE && type <= MULTIPLY || type == RESUME) {
+                if (checksum != checksum(type, productId, quantity, amount, 0))
+                    break;
+                int id = -1;
+                if (productId >= 0) {
+                    if (productId < ids.length)
+                        id = ids[productId];
+                    if (id < 0)
+                        unregistered++;
+                }
+                consumer.accept(product(type, id, quantity, amount));
+                records++;
+                pos += HEADER;
+            } else {
+                break;
+            }
+            position = pos;
+        }
+        if (unregistered > 0)
+            logger.log(Level.WARNING, unregistered + " journaled messages read without their product, it could not be registered");
+        return records;
+    }
+
+    /**
+     * Size of one mapped region, 0 before the file header is read.
+     *
+     * @return
+     */
+    long getRegionSize() {
+        return regionSize;
+    }
+
+    private boolean readHeader(FileChannel channel) throws IOException {
+        if (channel.size() < FILE_HEADER)
+            return false;
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER).order(ByteOrder.LITTLE_ENDIAN);
+        while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+        }
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION)
+            throw new IOException("Not a sales journal of version " + VERSION);
+        regionSize = header.getLong(8);
+        return true;
+    }
+
+    /**
+     * Read the file from pos into the buffer.
+     *
+     * @return true when at least the needed bytes were read
+     */
+    private boolean fill(FileChannel channel, long pos, int needed) throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, pos + buffer.position()) <= 0)
+                break;
+        }
+        buffer.flip();
+        return buffer.limit() >= needed;
+    }
+
+    private void name(int productId, String productName) {
+        if (productId >= ids.length) {
+            int length = Math.max(productId + 1, ids.length * 2);
+            int[] copy = new int[length];
+            System.arraycopy(ids, 0, copy, 0, ids.length);
+            for (int i = ids.length; i < length; i++) {
+                copy[i] = -1;
+            }
+            String[] namesCopy = new String[length];
+            System.arraycopy(names, 0, namesCopy, 0, names.length);
+            ids = copy;
+            names = namesCopy;
+        }
+        ids[productId] = dictionary.register(productName);
+        names[productId] = productName;
+    }
+
+    private Product product(byte type, int productId, int quantity, long amount) {
+        Product p = new Product();
+        p.setType(typeOf(type));
+        p.setProductId(productId);
+        if (productId >= 0)
+            p.setName(dictionary.name(productId));
+        if (type == MULTIPLY) {
+            p.setAdjustPrice(quantity == 0 ? amount * Product.FACTOR_SCALE : amount * Product.FACTOR_SCALE / quantity);
+        } else {
+            p.setQuantity(quantity);
+            if (type >= ADD && type < MULTIPLY)
+                p.setAdjustPrice(amount);
+            else
+                p.setPrice(amount);
+        }
+        return p;
+    }
+}
@@ -0,0 +1,324 @@
+package com.jpmc.journal;
+
+import com.jpmc.config.Configuration;
+import com.jpmc.domain.Product;
+import com.jpmc.domain.ProductDictionary;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.jpmc.journal.JournalFormat.*;
+
+/**
+ * Append only journal of the recorded messages, so a restart does not lose the day.
+ * <p>
+ * The file is mapped in fixed size regions. A writer claims the bytes of its record with
+ * a compare and set of the position and writes it straight into the mapping, so
+ * concurrent connections do not take a lock to journal. The record layout is described
+ * in {@link JournalFormat}. The first record of a product is preceded by a record
+ * holding its name, so the journal does not depend on the order products were
+ * registered in the dictionary. Records never span two regions; the rest of a region
+ * too small for a record is padded.
+ * <p>
+ * Opening the journal replays every complete record and truncates anything after the
+ * first incomplete one, so appends continue from the last good record.
+ *
+ * @author Stanly
+ */
+public class SalesJournal implements Closeable {
+
+    private static final Logger logger = Logger.getLogger(SalesJournal.class.getName());
+    private static final long MIN_REGION_SIZE = 1 << 16;
+    //The type is stored as the first int of the record, its other bytes are unused
+    private static final VarHandle TYPE = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final FileChannel channel;
+    private final ProductDictionary dictionary;
+    private final SyncPolicy policy;
+    private final long regionSize;
+    private final AtomicLong position;
+    //Position the last sync reached
+    private final AtomicLong synced;
+    private volatile MappedByteBuffer[] regions = new MappedByteBuffer[0];
+    //Product ids whose name record is written, copied on write
+    private volatile boolean[] named = new boolean[0];
+    private volatile boolean open = true;
+    private Thread syncThread = null;
+
+    /**
+     * Open the journal with the configured region size, sync policy and interval, replaying
+     * it from the start.
+     *
+     * @param file
+     * @param dictionary dictionary the product ids of the appended messages belong to
+     * @param policy
+     * @param replay     receives every journaled message, oldest first
+     * @return
+     * @throws IOException
+     */
+    public static SalesJournal open(Path file, ProductDictionary dictionary, SyncPolicy policy, Consumer<Product> replay) throws IOException {
+        return open(file, dictionary, policy, new JournalReader(dictionary), replay);
+    }
+
+    /**
+     * Open the journal with the configured region size, sync policy and interval, replaying
+     * it from the position of the reader.
+     *
+     * @param file
+     * @param dictionary
+     * @param policy
+     * @param reader     reader of the dictionary, e.g. moved to the position of a snapshot
+     * @param replay
+     * @return
+     * @throws IOException
+     */
+    public static SalesJournal open(Path file, ProductDictionary dictionary, SyncPolicy policy, JournalReader reader,
+                                    Consumer<Product> replay) throws IOException {
+        return open(file, dictionary, policy, Configuration.get().getJournalRegionSize(),
+                Configuration.get().getJournalSyncIntervalMs(), reader, replay);
+    }
+
+    /**
+     * @param file
+     * @param dictionary
+     * @param policy
+     * @param regionSize   size of one mapped region for a new file, an existing file keeps its own
+     * @param syncInterval milliseconds between two group commits
+     * @param reader
+     * @param replay
+     * @return
+     * @throws IOException
+     */
+    public static SalesJournal open(Path file, ProductDictionary dictionary, SyncPolicy policy, long regionSize,
+                                    long syncInterval, JournalReader reader, Consumer<Product> replay) throws IOException {
+        if (regionSize < MIN_REGION_SIZE || regionSize % 8 != 0)
+            throw new IllegalArgumentException("Region size must be a multiple of 8 and at least " + MIN_REGION_SIZE);
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            SalesJournal journal = new SalesJournal(channel, dictionary, policy, regionSize, reader, replay);
+            if (policy == SyncPolicy.GROUP)
+                journal.startSync(syncInterval);
+            return journal;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private SalesJournal(FileChannel channel, ProductDictionary dictionary, SyncPolicy policy, long regionSize,
+                         JournalReader reader, Consumer<Product> replay) throws IOException {
+        this.channel = channel;
+        this.dictionary = dictionary;
+        this.policy = policy;
+        if (channel.size() >= FILE_HEADER) {
+            long records = reader.read(channel, replay);
+            if (logger.isLoggable(Level.INFO))
+                logger.log(Level.INFO, "Replayed " + records + " journaled messages");
+            long end = reader.getPosition();
+            if (end > channel.size())
+                throw new IOException("Journal ends before position " + end);
+            channel.truncate(end);
+            this.regionSize = reader.getRegionSize();
+            this.position = new AtomicLong(end);
+            this.synced = new AtomicLong(end);
+        } else {
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putLong(regionSize).flip();
+            channel.truncate(0);
+            channel.write(header, 0);
+            this.regionSize = regionSize;
+            this.position = new AtomicLong(FILE_HEADER);
+            this.synced = new AtomicLong(FILE_HEADER);
+        }
+    }
+
+    /**
+     * Journal a recorded message. Safe to call from any number of threads.
+     *
+     * @param p
+     */
+    public void append(Product p) {
+        int productId = p.getProductId();
+        if (productId >= 0) {
+            boolean[] n = named;
+            if (productId >= n.length || !n[productId])
+                appendName(productId);
+        }
+        byte type = typeOf(p.getType());
+        long amount = type >= ADD ? p.getAdjustPrice() : p.getPrice();
+        int quantity = type == MULTIPLY ? (int) Product.FACTOR_SCALE : p.getQuantity();
+        long pos = claim(HEADER);
+        write(pos, type, productId, quantity, amount, 0);
+        if (policy == SyncPolicy.ALWAYS)
+            force(pos, HEADER);
+    }
+
+    /**
+     * Journal a resume after the quota, so a replay resumes at the same message.
+     *
+     * @param quotaStart message count the next quota starts from
+     */
+    public void appendResume(long quotaStart) {
+        long pos = claim(HEADER);
+        write(pos, RESUME, -1, 0, quotaStart, 0);
+        if (policy == SyncPolicy.ALWAYS)
+            force(pos, HEADER);
+    }
+
+    /**
+     * Force every record appended so far to the disk. Only the regions written since the
+     * last sync are forced: the one the last sync reached, a record claimed before it may
+     * still have been written there, and the ones after it.
+     */
+    public void sync() {
+        long end = position.get();
+        long from = synced.get();
+        MappedByteBuffer[] r = regions;
+        int last = (int) Math.min(r.length - 1, (end - 1) / regionSize);
+        for (int i = (int) ((from - 1) / regionSize); i <= last; i++) {
+            if (r[i] != null)
+                r[i].force();
+        }
+        long s;
+        while ((s = synced.get()) < end && !synced.compareAndSet(s, end)) {
+        }
+    }
+
+    /**
+     * Bytes used by the journal, including the file header and region padding.
+     *
+     * @return
+     */
+    public long size() {
+        return position.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        open = false;
+        if (syncThread != null) {
+            syncThread.interrupt();
+            try {
+                syncThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        sync();
+        channel.close();
+    }
+
+    /**
+     * The name record is written before any other record of the product can claim its
+     * position, so replay always meets the name first.
+     */
+    private synchronized void appendName(int productId) {
+        boolean[] n = named;
+        if (productId < n.length && n[productId])
+            return;
+        byte[] name = dictionary.name(productId).getBytes(StandardCharsets.UTF_8);
+        int size = align(HEADER + name.length);
+        long pos = claim(size);
+        MappedByteBuffer region = region(pos);
+        region.put((int) (pos % regionSize) + HEADER, name);
+        write(pos, NAME, productId, name.length, 0, nameHash(name, 0, name.length));
+        if (policy == SyncPolicy.ALWAYS)
+            force(pos, size);
+        boolean[] copy = new boolean[Math.max(n.length, productId + 1)];
+        System.arraycopy(n, 0, copy, 0, n.length);
+        copy[productId] = true;
+        named = copy;
+    }
+
+    /**
+     * Claim the position of a record, padding the rest of the region when it does not fit.
+     */
+    private long claim(int size) {
+        while (true) {
+            long pos = position.get();
+            long rest = regionSize - pos % regionSize;
+            if (size <= rest) {
+                if (position.compareAndSet(pos, pos + size))
+                    return pos;
+            } else if (position.compareAndSet(pos, pos + rest)) {
+                if (rest >= HEADER)
+                    write(pos, PAD, -1, (int) rest, 0, 0);
+            }
+        }
+    }
+
+    /**
+     * Write a record header. The type goes last, with a release store so it is not seen
+     * before the rest: a reader seeing a zero type knows the record is not written yet.
+     */
+    private void write(long pos, byte type, int productId, int quantity, long amount, int extra) {
+        MappedByteBuffer region = region(pos);
+        int offset = (int) (pos % regionSize);
+        region.putInt(offset + 4, productId);
+        region.putInt(offset + 8, quantity);
+        region.putInt(offset + 12, checksum(type, productId, quantity, amount, extra));
+        region.putLong(offset + 16, amount);
+        TYPE.setRelease(region, offset, (int) type);
+    }
+
+    private void force(long pos, int size) {
+        region(pos).force((int) (pos % regionSize), size);
+    }
+
+    private MappedByteBuffer region(long pos) {
+        int index = (int) (pos / regionSize);
+        MappedByteBuffer[] r = regions;
+        if (index < r.length && r[index] != null)
+            return r[index];
+        return map(index);
+    }
+
+    private synchronized MappedByteBuffer map(int index) {
+        MappedByteBuffer[] r = regions;
+        if (index < r.length && r[index] != null)
+            return r[index];
+        MappedByteBuffer region;
+        try {
+            region = channel.map(FileChannel.MapMode.READ_WRITE, index * regionSize, regionSize);
+        } catch (IOException e) {
+            throw new IllegalStateException("Journal region " + index + " could not be mapped", e);
+        }
+        region.order(ByteOrder.LITTLE_ENDIAN);
+        MappedByteBuffer[] copy = new MappedByteBuffer[Math.max(r.length, index + 1)];
+        System.arraycopy(r, 0, copy, 0, r.length);
+        copy[index] = region;
+        regions = copy;
+        return region;
+    }
+
+    private void startSync(final long interval) {
+        syncThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (open) {
+                    try {
+                        Thread.sleep(interval);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    sync();
+                }
+            }
+        }, "journal-sync");
+        syncThread.setDaemon(true);
+        syncThread.start();
+    }
+}
@@ -0,0 +1,35 @@
+package com.jpmc.journal;
+
+/**
+ * When the journal forces its records to the disk. Records already written survive a
+ * crash of the process with any policy, the policy decides what survives a crash of
+ * the machine.
+ *
+ * @author Stanly
+ */
+public enum SyncPolicy {
+
+    /**
+     * Leave it to the operating system to write the pages back.
+     */
+    NONE,
+    /**
+     * Group commit: a background thread forces every record written in the last
+     * interval at once.
+     */
+    GROUP,
+    /**
+     * Force each record before the append returns.
+     */
+    ALWAYS;
+
+    /**
+     * Resolve the policy from a startup argument.
+     *
+     * @param value
+     * @return
+     */
+    public static SyncPolicy parse(String value) {
+        return SyncPolicy.valueOf(value.trim().toUpperCase());
+    }
+}
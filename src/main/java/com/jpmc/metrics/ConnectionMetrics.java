@@ -0,0 +1,77 @@
+package com.jpmc.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Traffic of one client connection. Only the thread serving the connection counts, so
+ * the counters are written with an ordered store instead of an atomic add; the rates
+ * are computed by the sampling thread of the {@link ServerMetrics}.
+ *
+ * @author Stanly
+ */
+public final class ConnectionMetrics {
+
+    private final String name;
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong messages = new AtomicLong();
+    //Owned by the sampling thread
+    private long lastBytes = 0;
+    private long lastMessages = 0;
+    private long lastSample = System.nanoTime();
+    private volatile double bytesPerSecond = 0;
+    private volatile double messagesPerSecond = 0;
+
+    ConnectionMetrics(String name) {
+        this.name = name;
+    }
+
+    public void addBytes(int n) {
+        bytes.lazySet(bytes.get() + n);
+    }
+
+    public void addMessage() {
+        messages.lazySet(messages.get() + 1);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    public long getMessages() {
+        return messages.get();
+    }
+
+    public double getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public double getMessagesPerSecond() {
+        return messagesPerSecond;
+    }
+
+    /**
+     * Rates since the previous sample
+     */
+    void sample(long now) {
+        double seconds = (now - lastSample) / 1e9;
+        if (seconds <= 0)
+            return;
+        long b = bytes.get();
+        long m = messages.get();
+        bytesPerSecond = (b - lastBytes) / seconds;
+        messagesPerSecond = (m - lastMessages) / seconds;
+        lastBytes = b;
+        lastMessages = m;
+        lastSample = now;
+    }
+
+    @Override
+    public String toString() {
+        return name + " bytes/s=" + Math.round(bytesPerSecond) + " messages/s=" + Math.round(messagesPerSecond)
+                + " bytes=" + bytes.get() + " messages=" + messages.get();
+    }
+}
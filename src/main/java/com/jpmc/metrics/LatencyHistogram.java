@@ -0,0 +1,124 @@
+package com.jpmc.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * Latency histogram in the style of HdrHistogram: values are counted in log-linear
+ * buckets, 32 per power of two, so any value is reported within about 3% and the whole
+ * range of a long fits in under two thousand buckets. Recording takes no lock and the
+ * buckets are striped adders, so many threads can record the same latency without
+ * contending; the buckets are only summed when a percentile is read.
+ *
+ * @author Stanly
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 6;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int HALF_COUNT = SUB_COUNT >> 1;
+    private static final int BUCKETS = index(Long.MAX_VALUE) + 1;
+
+    private final LongAdder[] counts = new LongAdder[BUCKETS];
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(new LongBinaryOperator() {
+        @Override
+        public long applyAsLong(long left, long right) {
+            return Math.max(left, right);
+        }
+    }, 0);
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Count one value, negative values count as 0.
+     *
+     * @param nanos
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts[index(value)].increment();
+        total.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    public long count() {
+        return total.sum();
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    public double mean() {
+        long n = total.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    /**
+     * Value at or below which the given percentage of the recorded values fall.
+     *
+     * @param percentile between 0 and 100
+     * @return upper end of the bucket holding the percentile, never above the maximum
+     */
+    public long percentile(double percentile) {
+        long n = total.sum();
+        if (n == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i].sum();
+            if (seen >= rank)
+                return Math.min(upperBound(i), max.get());
+        }
+        return max.get();
+    }
+
+    /**
+     * One line summary in microseconds: count, mean and the usual percentiles.
+     *
+     * @return
+     */
+    public String summary() {
+        return "count=" + count()
+                + " mean=" + micros((long) mean())
+                + " p50=" + micros(percentile(50))
+                + " p90=" + micros(percentile(90))
+                + " p99=" + micros(percentile(99))
+                + " p99.9=" + micros(percentile(99.9))
+                + " max=" + micros(max()) + "us";
+    }
+
+    private static String micros(long nanos) {
+        long tenths = nanos / 100;
+        return (tenths / 10) + "." + (tenths % 10);
+    }
+
+    /**
+     * Values below 64 get a bucket each; above, the top six bits of the value select
+     * the bucket within its power of two.
+     */
+    static int index(long value) {
+        if (value < SUB_COUNT)
+            return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BITS - 1);
+        return shift * HALF_COUNT + (int) (value >>> shift);
+    }
+
+    static long upperBound(int index) {
+        if (index < SUB_COUNT)
+            return index;
+        int shift = index / HALF_COUNT - 1;
+        long top = index % HALF_COUNT + HALF_COUNT;
+        //Wraps to Long.MAX_VALUE for the last bucket
+        return ((top + 1) << shift) - 1;
+    }
+}
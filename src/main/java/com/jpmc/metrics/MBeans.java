@@ -0,0 +1,50 @@
+package com.jpmc.metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Registration of the server MBeans with the platform MBean server.
+ *
+ * @author Stanly
+ */
+public final class MBeans {
+
+    private static final Logger logger = Logger.getLogger(MBeans.class.getName());
+
+    private MBeans() {
+    }
+
+    /**
+     * Register the MBean, replacing one of a server stopped before in the same JVM.
+     *
+     * @param mbean
+     * @param objectName
+     */
+    public static void register(Object mbean, String objectName) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(objectName);
+            if (server.isRegistered(name))
+                server.unregisterMBean(name);
+            server.registerMBean(mbean, name);
+        } catch (JMException e) {
+            logger.log(Level.WARNING, "MBean " + objectName + " could not be registered", e);
+        }
+    }
+
+    public static void unregister(String objectName) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(objectName);
+            if (server.isRegistered(name))
+                server.unregisterMBean(name);
+        } catch (JMException e) {
+            logger.log(Level.WARNING, "MBean " + objectName + " could not be unregistered", e);
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package com.jpmc.metrics;
+
+import com.jpmc.msg.RejectReason;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Instrumentation of the ingest path: message counts by outcome, parse, aggregate and
+ * report latencies, the open connections with their traffic, and the pause state.
+ * <p>
+ * Counters are striped adders and the histograms record without locks, so the
+ * connections recording concurrently do not contend on them. The metrics are exposed
+ * as the MBean {@value #OBJECT_NAME} and, every sampling interval, dumped to the log.
+ *
+ * @author Stanly
+ */
+public class ServerMetrics implements ServerMetricsMBean {
+
+    public static final String OBJECT_NAME = "com.jpmc:type=ServerMetrics";
+    private static final Logger logger = Logger.getLogger(ServerMetrics.class.getName());
+    private static final int DUMP_CONNECTIONS = 10;
+
+    private final LongAdder received = new LongAdder();
+    private final LongAdder valid = new LongAdder();
+    private final LongAdder[] rejected = new LongAdder[RejectReason.values().length];
+    private final LatencyHistogram parseLatency = new LatencyHistogram();
+    private final LatencyHistogram aggregateLatency = new LatencyHistogram();
+    private final LatencyHistogram reportLatency = new LatencyHistogram();
+    private final Set<ConnectionMetrics> connections = ConcurrentHashMap.newKeySet();
+    private final BooleanSupplier paused;
+    private Thread thread = null;
+    private volatile boolean running = false;
+
+    /**
+     * @param paused pause state of the receiver
+     */
+    public ServerMetrics(BooleanSupplier paused) {
+        this.paused = paused;
+        for (int i = 0; i < rejected.length; i++) {
+            rejected[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * A message was parsed and is valid
+     */
+    public void valid() {
+        received.increment();
+        valid.increment();
+    }
+
+    /**
+     * A message was rejected
+     *
+     * @param reason
+     */
+    public void rejected(RejectReason reason) {
+        received.increment();
+        rejected[reason.ordinal()].increment();
+    }
+
+    public void recordParse(long nanos) {
+        parseLatency.record(nanos);
+    }
+
+    public void recordAggregate(long nanos) {
+        aggregateLatency.record(nanos);
+    }
+
+    public void recordReport(long nanos) {
+        reportLatency.record(nanos);
+    }
+
+    /**
+     * Start counting the traffic of a new connection.
+     *
+     * @param name e.g. the remote address
+     * @return
+     */
+    public ConnectionMetrics connectionOpened(String name) {
+        ConnectionMetrics c = new ConnectionMetrics(name);
+        connections.add(c);
+        return c;
+    }
+
+    public void connectionClosed(ConnectionMetrics c) {
+        if (c != null)
+            connections.remove(c);
+    }
+
+    /**
+     * Sample the connection rates and dump the metrics to the log every interval.
+     *
+     * @param interval milliseconds, 0 for never
+     */
+    public synchronized void start(final long interval) {
+        if (running || interval <= 0)
+            return;
+        running = true;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (running) {
+                    try {
+                        Thread.sleep(interval);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    sample();
+                    if (logger.isLoggable(Level.INFO))
+                        logger.log(Level.INFO, dump());
+                }
+            }
+        }, "metrics-dump");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+    }
+
+    /**
+     * Register as the platform MBean {@value #OBJECT_NAME}.
+     */
+    public void register() {
+        MBeans.register(this, OBJECT_NAME);
+    }
+
+    public void unregister() {
+        MBeans.unregister(OBJECT_NAME);
+    }
+
+    /**
+     * Update the per connection rates, called by the sampling thread.
+     */
+    void sample() {
+        long now = System.nanoTime();
+        for (ConnectionMetrics c : connections) {
+            c.sample(now);
+        }
+    }
+
+    @Override
+    public long getMessagesReceived() {
+        return received.sum();
+    }
+
+    @Override
+    public long getMessagesValid() {
+        return valid.sum();
+    }
+
+    @Override
+    public long getMessagesRejected() {
+        long n = 0;
+        for (LongAdder r : rejected) {
+            n += r.sum();
+        }
+        return n;
+    }
+
+    public long getRejected(RejectReason reason) {
+        return rejected[reason.ordinal()].sum();
+    }
+
+    @Override
+    public long getRejectedNullMessage() {
+        return getRejected(RejectReason.NULL_MESSAGE);
+    }
+
+    @Override
+    public long getRejectedTooShort() {
+        return getRejected(RejectReason.TOO_SHORT);
+    }
+
+    @Override
+    public long getRejectedUnknownForm() {
+        return getRejected(RejectReason.UNKNOWN_FORM);
+    }
+
+    @Override
+    public long getRejectedBadFrame() {
+        return getRejected(RejectReason.BAD_FRAME);
+    }
+
+    @Override
+    public long getRejectedNoSequence() {
+        return getRejected(RejectReason.NO_SEQUENCE);
+    }
+
+    @Override
+    public long getRejectedDuplicate() {
+        return getRejected(RejectReason.DUPLICATE);
+    }
+
+    @Override
+    public long getRejectedStopped() {
+        return getRejected(RejectReason.STOPPED);
+    }
+
+    public LatencyHistogram getParseHistogram() {
+        return parseLatency;
+    }
+
+    public LatencyHistogram getAggregateHistogram() {
+        return aggregateLatency;
+    }
+
+    public LatencyHistogram getReportHistogram() {
+        return reportLatency;
+    }
+
+    @Override
+    public String getParseLatency() {
+        return parseLatency.summary();
+    }
+
+    @Override
+    public String getAggregateLatency() {
+        return aggregateLatency.summary();
+    }
+
+    @Override
+    public String getReportLatency() {
+        return reportLatency.summary();
+    }
+
+    @Override
+    public long getParseLatencyP99() {
+        return parseLatency.percentile(99);
+    }
+
+    @Override
+    public long getAggregateLatencyP99() {
+        return aggregateLatency.percentile(99);
+    }
+
+    @Override
+    public long getReportLatencyP99() {
+        return reportLatency.percentile(99);
+    }
+
+    @Override
+    public int getActiveConnections() {
+        return connections.size();
+    }
+
+    @Override
+    public String[] getConnections() {
+        List<String> list = new ArrayList<String>();
+        for (ConnectionMetrics c : connections) {
+            list.add(c.toString());
+        }
+        return list.toArray(new String[0]);
+    }
+
+    @Override
+    public boolean isPaused() {
+        return paused.getAsBoolean();
+    }
+
+    @Override
+    public String dump() {
+        StringBuilder out = new StringBuilder("Server metrics\n");
+        out.append("messages received=").append(getMessagesReceived())
+                .append(" valid=").append(getMessagesValid())
+                .append(" rejected=").append(getMessagesRejected());
+        for (RejectReason reason : RejectReason.values()) {
+            out.append(' ').append(reason).append('=').append(getRejected(reason));
+        }
+        out.append("\npaused=").append(isPaused()).append(" connections=").append(getActiveConnections()).append('\n');
+        out.append("parse     ").append(parseLatency.summary()).append('\n');
+        out.append("aggregate ").append(aggregateLatency.summary()).append('\n');
+        out.append("report    ").append(reportLatency.summary()).append('\n');
+        List<ConnectionMetrics> busiest = new ArrayList<ConnectionMetrics>(connections);
+        Collections.sort(busiest, new Comparator<ConnectionMetrics>() {
+            @Override
+            public int compare(ConnectionMetrics a, ConnectionMetrics b) {
+                return Double.compare(b.getMessagesPerSecond(), a.getMessagesPerSecond());
+            }
+        });
+        for (int i = 0; i < busiest.size() && i < DUMP_CONNECTIONS; i++) {
+            out.append("connection ").append(busiest.get(i)).append('\n');
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,61 @@
+package com.jpmc.metrics;
+
+/**
+ * Management interface of the {@link ServerMetrics}. Latencies are in nanoseconds, the
+ * summaries in microseconds.
+ *
+ * @author Stanly
+ */
+public interface ServerMetricsMBean {
+
+    long getMessagesReceived();
+
+    long getMessagesValid();
+
+    long getMessagesRejected();
+
+    long getRejectedNullMessage();
+
+    long getRejectedTooShort();
+
+    long getRejectedUnknownForm();
+
+    long getRejectedBadFrame();
+
+    long getRejectedNoSequence();
+
+    long getRejectedDuplicate();
+
+    long getRejectedStopped();
+
+    String getParseLatency();
+
+    String getAggregateLatency();
+
+    String getReportLatency();
+
+    long getParseLatencyP99();
+
+    long getAggregateLatencyP99();
+
+    long getReportLatencyP99();
+
+    int getActiveConnections();
+
+    /**
+     * One entry per open connection with its bytes and messages per second over the
+     * last sampling interval
+     *
+     * @return
+     */
+    String[] getConnections();
+
+    boolean isPaused();
+
+    /**
+     * The text dump also written to the log periodically
+     *
+     * @return
+     */
+    String dump();
+}
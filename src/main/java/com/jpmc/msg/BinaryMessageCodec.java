@@ -0,0 +1,135 @@
+package com.jpmc.msg;
+
+import com.jpmc.domain.ApplicationEnum;
+import com.jpmc.domain.Product;
+import com.jpmc.domain.ProductDictionary;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary wire protocol, an alternative to the text lines for clients sending structured
+ * records. A connection opens with the {@link #HANDSHAKE} byte, then every message is a
+ * frame, big endian:
+ * <pre>
+ * u16  length of the rest of the frame
+ * u8   type: 1 sale, 2 add, 3 subtract, 4 multiply
+ * i32  quantity of a sale
+ * i64  unit price of a sale or amount of an adjustment, in pence (for multiply the
+ *      factor, in units of {@link Product#FACTOR_SCALE})
+ * u8   length of the product name
+ *      product name, UTF-8
+ * </pre>
+ * Frames are decoded straight from the buffer; the product is looked up in the
+ * dictionary on the bytes, so no String is built unless the product is new.
+ *
+ * @author Stanly
+ */
+public final class BinaryMessageCodec {
+
+    public static final byte HANDSHAKE = 0x02;
+    public static final byte SALE = 1;
+    public static final byte ADD = 2;
+    public static final byte SUBTRACT = 3;
+    public static final byte MULTIPLY = 4;
+    /**
+     * Size of the length prefix of a frame
+     */
+    public static final int PREFIX = 2;
+    /**
+     * Smallest frame after the prefix: a message without product name
+     */
+    public static final int MIN_LENGTH = 14;
+    public static final int MAX_LENGTH = MIN_LENGTH + 255;
+
+    private final ProductDictionary dictionary;
+    private final ByteSequence view = new ByteSequence();
+
+    public BinaryMessageCodec(ProductDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Encode one message as a frame, including its length prefix.
+     *
+     * @param type
+     * @param quantity
+     * @param amount
+     * @param name
+     * @return
+     */
+    public static byte[] encode(byte type, int quantity, long amount, String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 255)
+            throw new IllegalArgumentException("Product name longer than 255 bytes: " + name);
+        ByteBuffer frame = ByteBuffer.allocate(PREFIX + MIN_LENGTH + bytes.length);
+        frame.putShort((short) (MIN_LENGTH + bytes.length));
+        frame.put(type).putInt(quantity).putLong(amount).put((byte) bytes.length).put(bytes);
+        return frame.array();
+    }
+
+    /**
+     * Decode the frame held by the buffer at offset, after its length prefix.
+     *
+     * @param buffer
+     * @param offset
+     * @param length length of the frame without its prefix
+     * @return the message, null when the frame is not valid
+     */
+    public Product decode(ByteBuffer buffer, int offset, int length) {
+        if (length < MIN_LENGTH)
+            return null;
+        byte type = buffer.get(offset);
+        int nameLength = buffer.get(offset + 13) & 0xff;
+        if (MIN_LENGTH + nameLength > length)
+            return null;
+
+        long amount = buffer.getLong(offset + 5);
+        int quantity = buffer.getInt(offset + 1);
+        if (amount < 0 || quantity < 0)
+            return null;
+
+        Product p = new Product();
+        switch (type) {
+            case SALE:
+                p.setType(ApplicationEnum.RECORD);
+                p.setQuantity(quantity);
+                p.setPrice(amount);
+                break;
+            case ADD:
+                p.setType(ApplicationEnum.ADDITION);
+                p.setAdjustPrice(amount);
+                break;
+            case SUBTRACT:
+                p.setType(ApplicationEnum.SUBTRACTION);
+                p.setAdjustPrice(amount);
+                break;
+            case MULTIPLY:
+                p.setType(ApplicationEnum.MULTIPLICATION);
+                p.setAdjustPrice(amount);
+                break;
+            default:
+                return null;
+        }
+        if (nameLength > 0) {
+            int id = productId(buffer, offset + MIN_LENGTH, nameLength);
+            p.setProductId(id);
+            p.setName(dictionary.name(id));
+        }
+        return p;
+    }
+
+    private int productId(ByteBuffer buffer, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(offset + i) < 0) {
+                //Not ASCII, decode it
+                byte[] bytes = new byte[length];
+                buffer.get(offset, bytes);
+                return dictionary.register(new String(bytes, StandardCharsets.UTF_8));
+            }
+        }
+        view.wrap(buffer, offset, length);
+        int id = dictionary.lookup(view);
+        return id >= 0 ? id : dictionary.register(view);
+    }
+}
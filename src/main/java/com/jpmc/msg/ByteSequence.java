@@ -0,0 +1,54 @@
+package com.jpmc.msg;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Characters of single byte encoded text held by a buffer. It is wrapped around one
+ * message after the other, so messages can be parsed and looked up in the dictionary
+ * without building a String for each of them.
+ *
+ * @author Stanly
+ */
+public final class ByteSequence implements CharSequence {
+
+    private ByteBuffer buffer;
+    private int offset;
+    private int length;
+
+    /**
+     * Point the sequence at length bytes of the buffer, starting at offset.
+     *
+     * @param buffer
+     * @param offset
+     * @param length
+     */
+    public void wrap(ByteBuffer buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return (char) (buffer.get(offset + index) & 0xff);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        char[] chars = new char[end - start];
+        for (int i = start; i < end; i++) {
+            chars[i - start] = charAt(i);
+        }
+        return new String(chars);
+    }
+
+    @Override
+    public String toString() {
+        return subSequence(0, length).toString();
+    }
+}
@@ -12,4 +12,11 @@ public interface Message {
     Product buildMessage();
 
     boolean validateMessage();
+
+    /**
+     * Why the last {@link #validateMessage()} failed
+     *
+     * @return reason, null when the message is valid or not validated yet
+     */
+    RejectReason getRejectReason();
 }
@@ -0,0 +1,466 @@
+package com.jpmc.msg;
+
+import com.jpmc.config.Configuration;
+import com.jpmc.domain.ApplicationEnum;
+import com.jpmc.domain.Product;
+import com.jpmc.domain.ProductDictionary;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Single pass parser for the three sales message types. It works directly on the
+ * characters of the message, no regular expressions, tokenizer or exception based
+ * number checks are used and no intermediate Strings are created for the tokens.
+ * Money is read as whole pence and a Multiply factor as a whole number of
+ * {@link Product#FACTOR_SCALE} units, never through floating point.
+ * <p>
+ * Message forms:
+ * 1.apple at 10p
+ * 2.20 sales of apples at 10p each
+ * 3.Add 20p apples
+ * A message may start with a "#id " prefix, the id the client gave it so a resend is
+ * recognised; it is not part of the message and every entry point skips it here.
+ * Products are resolved through the {@link ProductDictionary}; a product seen for the
+ * first time in a whole sale or adjustment, a sale with its price or an adjustment with
+ * its amount, is registered there and gets a new id, unless the dictionary is full, then
+ * the message has no product. Nothing else registers a product, so malformed messages
+ * cannot fill the dictionary.
+ *
+ * @author Stanly
+ */
+public final class MessageParser {
+
+    private static final Logger logger = Logger.getLogger(MessageParser.class.getName());
+    private static final long NO_VALUE = Long.MIN_VALUE;
+    private static final int MAX_DIGITS = 18;
+    private static final int FACTOR_DECIMALS = Long.toString(Product.FACTOR_SCALE).length() - 1;
+    private static final long[] POWERS_OF_TEN = new long[MAX_DIGITS + 1];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private MessageParser() {
+    }
+
+    /**
+     * Validate the message length and that it is one of the message forms or mentions a
+     * known product as a whole word.
+     *
+     * @param msg
+     * @param dictionary
+     * @return
+     */
+    public static boolean isValid(CharSequence msg, ProductDictionary dictionary) {
+        msg = body(msg);
+        return msg != null && msg.length() >= minLength() && isKnownForm(msg, dictionary);
+    }
+
+    /**
+     * Find the message type and fill quantity, product and price.
+     *
+     * @param msg
+     * @param p
+     * @param dictionary
+     */
+    public static void parse(CharSequence msg, Product p, ProductDictionary dictionary) {
+
+        msg = body(msg);
+        ApplicationEnum operation = operation(msg);
+        if (operation != null) {
+            p.setType(operation);
+            parseAdjustment(msg, p, dictionary);
+        } else if (Character.isDigit(msg.charAt(0))) {
+            p.setType(ApplicationEnum.RECORD);
+            parseSale(msg, p, dictionary);
+        } else if (isKnownForm(msg, dictionary)) {
+            p.setType(ApplicationEnum.LOG);
+        } else {
+            p.setType(ApplicationEnum.PROCESS);
+        }
+    }
+
+    /**
+     * Sale message: an integer token is the quantity, the token after "of" (or else a
+     * known product) the product and a token starting with a digit followed by a unit
+     * character the price in pence. A new product is only registered when the sale has
+     * a price.
+     *
+     * @param msg
+     * @param p
+     * @param dictionary
+     */
+    private static void parseSale(CharSequence msg, Product p, ProductDictionary dictionary) {
+
+        int len = msg.length();
+        boolean afterOf = false;
+        boolean priceFound = false;
+        int productStart = -1;
+        int productEnd = -1;
+        int start = nextToken(msg, 0);
+        while (start < len) {
+            int end = tokenEnd(msg, start);
+            long qty = parseInt(msg, start, end);
+            int id;
+            if (qty != NO_VALUE) {
+                p.setQuantity((int) qty);
+            } else if (Character.isDigit(msg.charAt(start))) {
+                long price = parseFixed(msg, start, end - 1, 0);
+                if (price == NO_VALUE) {
+                    logger.log(Level.WARNING, "Invalid price in message: " + msg);
+                    price = 0;
+                }
+                p.setPrice(price);
+                priceFound = true;
+            } else if (productStart < 0 && p.getProductId() < 0) {
+                if (afterOf) {
+                    productStart = start;
+                    productEnd = end;
+                } else if ((id = dictionary.lookup(msg, start, end)) >= 0) {
+                    setProduct(p, dictionary, id);
+                }
+            }
+            afterOf = regionEquals(msg, start, end, "of");
+            start = nextToken(msg, end);
+        }
+        if (productStart >= 0)
+            resolveProduct(msg, productStart, productEnd, priceFound, p, dictionary);
+    }
+
+    /**
+     * Adjustment message: the operation is followed by the amount and the product.
+     * The amount may carry a unit character; it is in pence for Add and Subtract and a
+     * factor for Multiply, kept to {@link Product#FACTOR_SCALE} with the rest rounded half
+     * up. When it cannot be read a multiplication falls back to 1 and the other operations
+     * to 0. A new product is only registered when the adjustment has an amount.
+     *
+     * @param msg
+     * @param p
+     * @param dictionary
+     */
+    private static void parseAdjustment(CharSequence msg, Product p, ProductDictionary dictionary) {
+
+        int len = msg.length();
+        boolean amountFound = false;
+        boolean multiply = p.getType() == ApplicationEnum.MULTIPLICATION;
+        int decimals = multiply ? FACTOR_DECIMALS : 0;
+        int productStart = -1;
+        int productEnd = -1;
+        int start = nextToken(msg, tokenEnd(msg, nextToken(msg, 0)));
+        while (start < len && (!amountFound || productStart < 0)) {
+            int end = tokenEnd(msg, start);
+            if (Character.isDigit(msg.charAt(start))) {
+                if (!amountFound) {
+                    long amount = parseFixed(msg, start, end, decimals);
+                    if (amount == NO_VALUE) {
+                        amount = parseFixed(msg, start, end - 1, decimals);
+                    }
+                    if (amount == NO_VALUE) {
+                        amount = multiply ? Product.FACTOR_SCALE : 0;
+                    }
+                    p.setAdjustPrice(amount);
+                    amountFound = true;
+                }
+            } else if (productStart < 0) {
+                productStart = start;
+                productEnd = end;
+            }
+            start = nextToken(msg, end);
+        }
+        if (productStart >= 0)
+            resolveProduct(msg, productStart, productEnd, amountFound, p, dictionary);
+    }
+
+    /**
+     * Set the product of the token, registering it when it is new and the message whole.
+     */
+    private static void resolveProduct(CharSequence msg, int start, int end, boolean whole, Product p,
+                                       ProductDictionary dictionary) {
+        int id = whole ? dictionary.register(msg, start, end) : dictionary.lookup(msg, start, end);
+        if (id >= 0)
+            setProduct(p, dictionary, id);
+    }
+
+    private static void setProduct(Product p, ProductDictionary dictionary, int id) {
+        p.setProductId(id);
+        p.setName(dictionary.name(id));
+    }
+
+    /**
+     * End of the id of a message with a "#id " prefix, the index of the space after it.
+     *
+     * @param msg
+     * @return the end of the id, 0 when the message has no prefix
+     */
+    public static int idEnd(CharSequence msg) {
+        if (msg == null || msg.length() < 3 || msg.charAt(0) != '#')
+            return 0;
+        int len = msg.length();
+        for (int i = 1; i < len; i++) {
+            if (msg.charAt(i) == ' ')
+                return i > 1 ? i : 0;
+        }
+        return 0;
+    }
+
+    /**
+     * The message without its "#id " prefix, if it has one.
+     *
+     * @param msg
+     * @return
+     */
+    public static CharSequence body(CharSequence msg) {
+        int end = idEnd(msg);
+        return end > 0 ? msg.subSequence(end + 1, msg.length()) : msg;
+    }
+
+    /**
+     * Shortest message accepted, as currently configured
+     */
+    static int minLength() {
+        return Configuration.get().getMinMessageLength();
+    }
+
+    /**
+     * Adjustment operation the message starts with as a whole word, or null.
+     */
+    private static ApplicationEnum operation(CharSequence msg) {
+        int end = tokenEnd(msg, 0);
+        if (regionEquals(msg, 0, end, ApplicationEnum.ADDITION.getEnumType())) {
+            return ApplicationEnum.ADDITION;
+        } else if (regionEquals(msg, 0, end, ApplicationEnum.MULTIPLICATION.getEnumType())) {
+            return ApplicationEnum.MULTIPLICATION;
+        } else if (regionEquals(msg, 0, end, ApplicationEnum.SUBTRACTION.getEnumType())) {
+            return ApplicationEnum.SUBTRACTION;
+        }
+        return null;
+    }
+
+    /**
+     * True when the message has the shape of one of the three message forms, numbers
+     * included, or when a whole word of it is a known product.
+     *
+     * @param msg
+     * @param dictionary
+     * @return
+     */
+    static boolean isKnownForm(CharSequence msg, ProductDictionary dictionary) {
+
+        int len = msg.length();
+        int first = nextToken(msg, 0);
+        int firstEnd = tokenEnd(msg, first);
+        int second = nextToken(msg, firstEnd);
+        int secondEnd = tokenEnd(msg, second);
+        int third = nextToken(msg, secondEnd);
+        if (operation(msg) != null) {
+            boolean amount = false;
+            boolean product = false;
+            for (int i = second; i < len; i = nextToken(msg, tokenEnd(msg, i))) {
+                if (Character.isDigit(msg.charAt(i))) {
+                    amount = true;
+                } else {
+                    product = true;
+                }
+            }
+            if (amount && product) {
+                return true;
+            }
+        } else if (first < len && Character.isDigit(msg.charAt(first))) {
+            boolean price = false;
+            boolean product = false;
+            for (int i = second; i < len; ) {
+                int end = tokenEnd(msg, i);
+                int next = nextToken(msg, end);
+                if (Character.isDigit(msg.charAt(i))) {
+                    price = true;
+                } else if (regionEquals(msg, i, end, "of") && next < len && !Character.isDigit(msg.charAt(next))) {
+                    product = true;
+                }
+                i = next;
+            }
+            if (price && product) {
+                return true;
+            }
+        } else if (third < len && regionEquals(msg, second, secondEnd, "at") && Character.isDigit(msg.charAt(third))) {
+            return true;
+        }
+        return containsProduct(msg, dictionary);
+    }
+
+    /**
+     * True when a whole word of the message is a known product.
+     */
+    private static boolean containsProduct(CharSequence msg, ProductDictionary dictionary) {
+
+        int len = msg.length();
+        int i = 0;
+        while (i < len) {
+            while (i < len && !isWordChar(msg.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            while (i < len && isWordChar(msg.charAt(i))) {
+                i++;
+            }
+            if (i > start && dictionary.lookup(msg, start, i) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean regionEquals(CharSequence msg, int start, int end, String s) {
+        if (end - start != s.length()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (msg.charAt(start + i) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
+    private static int nextToken(CharSequence msg, int from) {
+        int len = msg.length();
+        while (from < len && msg.charAt(from) == ' ') {
+            from++;
+        }
+        return from;
+    }
+
+    private static int tokenEnd(CharSequence msg, int from) {
+        int len = msg.length();
+        while (from < len && msg.charAt(from) != ' ') {
+            from++;
+        }
+        return from;
+    }
+
+    /**
+     * Same grammar as {@link Integer#parseInt(String)}.
+     *
+     * @return the value or {@link #NO_VALUE} when the range is not an int
+     */
+    private static long parseInt(CharSequence msg, int start, int end) {
+
+        if (start >= end) {
+            return NO_VALUE;
+        }
+        boolean negative = false;
+        char first = msg.charAt(start);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            if (++start == end) {
+                return NO_VALUE;
+            }
+        }
+        long limit = negative ? 1L + Integer.MAX_VALUE : Integer.MAX_VALUE;
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = Character.digit(msg.charAt(i), 10);
+            if (digit < 0) {
+                return NO_VALUE;
+            }
+            value = value * 10 + digit;
+            if (value > limit) {
+                return NO_VALUE;
+            }
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Value of the decimal form digits[.digits][e[sign]digits][fFdD], the grammar
+     * {@link Float#parseFloat(String)} accepts for it, times 10 to the power of decimals.
+     * What is left below the last decimal is rounded half up, so with 0 decimals an
+     * amount is in whole pence.
+     *
+     * @return the value or {@link #NO_VALUE} when the range is not an amount or too large
+     */
+    private static long parseFixed(CharSequence msg, int start, int end, int decimals) {
+
+        while (end > start && msg.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        int i = start;
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = decimals;
+        char c;
+        while (i < end && (c = msg.charAt(i)) >= '0' && c <= '9') {
+            if (mantissa != 0 || c != '0') {
+                if (++digits > MAX_DIGITS) {
+                    return NO_VALUE;
+                }
+                mantissa = mantissa * 10 + (c - '0');
+            }
+            i++;
+        }
+        if (i == start) {
+            return NO_VALUE;
+        }
+        if (i < end && msg.charAt(i) == '.') {
+            i++;
+            while (i < end && (c = msg.charAt(i)) >= '0' && c <= '9') {
+                //Digits past what a long holds are too small to count
+                if (digits < MAX_DIGITS && (mantissa != 0 || c != '0')) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    exponent--;
+                    digits++;
+                } else if (digits == 0) {
+                    exponent--;
+                }
+                i++;
+            }
+        }
+        if (i < end && (msg.charAt(i) == 'e' || msg.charAt(i) == 'E')) {
+            i++;
+            boolean negative = false;
+            if (i < end && (msg.charAt(i) == '-' || msg.charAt(i) == '+')) {
+                negative = msg.charAt(i) == '-';
+                i++;
+            }
+            int power = 0;
+            int powerStart = i;
+            while (i < end && (c = msg.charAt(i)) >= '0' && c <= '9') {
+                if (power < 1000) {
+                    power = power * 10 + (c - '0');
+                }
+                i++;
+            }
+            if (i == powerStart) {
+                return NO_VALUE;
+            }
+            exponent += negative ? -power : power;
+        }
+        if (i < end && "fFdD".indexOf(msg.charAt(i)) >= 0) {
+            i++;
+        }
+        if (i != end) {
+            return NO_VALUE;
+        }
+        if (mantissa == 0) {
+            return 0;
+        }
+        if (exponent >= 0) {
+            if (exponent > MAX_DIGITS || mantissa > Long.MAX_VALUE / POWERS_OF_TEN[exponent]) {
+                return NO_VALUE;
+            }
+            return mantissa * POWERS_OF_TEN[exponent];
+        }
+        if (-exponent > MAX_DIGITS) {
+            return 0;
+        }
+        long divisor = POWERS_OF_TEN[-exponent];
+        return (mantissa + divisor / 2) / divisor;
+    }
+}
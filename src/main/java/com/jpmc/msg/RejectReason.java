@@ -0,0 +1,20 @@
+package com.jpmc.msg;
+
+/**
+ * Why a message was rejected: one of the {@link Message#validateMessage()} failures, a
+ * frame of the binary protocol that could not be decoded, or a line of a sequenced
+ * session without a sequence number or already handled, or a message arriving after
+ * the pipeline stopped.
+ *
+ * @author Stanly
+ */
+public enum RejectReason {
+
+    NULL_MESSAGE,
+    TOO_SHORT,
+    UNKNOWN_FORM,
+    BAD_FRAME,
+    NO_SEQUENCE,
+    DUPLICATE,
+    STOPPED
+}
@@ -0,0 +1,284 @@
+package com.jpmc.pipeline;
+
+import com.jpmc.config.Configuration;
+import com.jpmc.domain.Product;
+import com.jpmc.domain.ProductDictionary;
+import com.jpmc.msg.RejectReason;
+import com.jpmc.receiver.FlowControl;
+import com.jpmc.receiver.MessageHandler;
+import com.jpmc.receiver.MessageReceiver;
+import com.jpmc.snapshot.Snapshot;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Staged pipeline between the socket readers and the {@link MessageReceiver}.
+ * <p>
+ * Reader threads claim a sequence number, put the raw line into the pre-allocated slot
+ * of a ring buffer and publish it. A parse thread turns published lines into products
+ * in the same slots, and a single aggregator thread applies them to the receiver in
+ * sequence order. Readers only wait when the ring is full, so network threads are
+ * never held up by parsing, aggregation or report printing.
+ * <p>
+ * With flow control enabled, the {@link FlowControl} of the receiver is closed while
+ * more than the in-flight limit of messages wait in the ring, and opened again once half
+ * of them are applied, so connections stop reading before the ring is full.
+ *
+ * @author Stanly
+ */
+public class MessagePipeline implements MessageHandler {
+
+    private final Logger logger = Logger.getLogger(MessagePipeline.class.getName());
+    private final MessageReceiver receiver;
+    private final WaitStrategy waitStrategy;
+    private final Event[] ring;
+    private final int mask;
+    private final int inFlightLimit;
+    private final FlowControl flowControl;
+    //Sequence stamped into a slot when its line is published, -1 before
+    private final AtomicLongArray published;
+    //Next sequence to hand to a reader
+    private final AtomicLong claimed = new AtomicLong();
+    //Highest sequence parsed and applied, -1 before the first
+    private final AtomicLong parsed = new AtomicLong(-1);
+    private final AtomicLong applied = new AtomicLong(-1);
+    private volatile boolean running = false;
+    //Set once the stages are gone, nothing frees a slot of the ring any more
+    private volatile boolean stopped = false;
+    private Thread parseThread = null;
+    private Thread aggregateThread = null;
+
+    public MessagePipeline(MessageReceiver receiver, WaitStrategy waitStrategy) {
+        this(receiver, waitStrategy, Configuration.get().getPipelineRingSize());
+    }
+
+    /**
+     * @param receiver
+     * @param waitStrategy
+     * @param ringSize     rounded up to a power of two
+     */
+    public MessagePipeline(MessageReceiver receiver, WaitStrategy waitStrategy, int ringSize) {
+        this(receiver, waitStrategy, ringSize, Configuration.get().getPipelineInFlightLimit());
+    }
+
+    /**
+     * @param receiver
+     * @param waitStrategy
+     * @param ringSize      rounded up to a power of two
+     * @param inFlightLimit messages waiting in the ring above which intake stops, at most the ring size
+     */
+    public MessagePipeline(MessageReceiver receiver, WaitStrategy waitStrategy, int ringSize, int inFlightLimit) {
+        int size = Integer.highestOneBit(Math.max(2, ringSize - 1)) << 1;
+        this.receiver = receiver;
+        this.flowControl = receiver.getFlowControl();
+        this.inFlightLimit = Math.max(1, Math.min(inFlightLimit, size));
+        this.waitStrategy = waitStrategy;
+        this.ring = new Event[size];
+        this.mask = size - 1;
+        this.published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            ring[i] = new Event();
+            published.set(i, -1);
+        }
+    }
+
+    /**
+     * Start the parse and aggregator threads.
+     */
+    public synchronized void start() {
+        if (running)
+            return;
+        running = true;
+        stopped = false;
+        parseThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                parseLoop();
+            }
+        }, "pipeline-parse");
+        aggregateThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                aggregateLoop();
+            }
+        }, "pipeline-aggregate");
+        parseThread.setDaemon(true);
+        aggregateThread.setDaemon(true);
+        parseThread.start();
+        aggregateThread.start();
+    }
+
+    /**
+     * Stop the stages once every line already published has been applied.
+     */
+    public void stop() {
+        running = false;
+        try {
+            if (parseThread != null)
+                parseThread.join();
+            if (aggregateThread != null)
+                aggregateThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        stopped = true;
+    }
+
+    /**
+     * Publish a line read from a client. Safe to call from any number of threads; it
+     * only waits while the ring is full. Once the pipeline is stopped the line is
+     * rejected.
+     *
+     * @param line
+     * @return the sequence of the line, -1 when it was rejected
+     */
+    @Override
+    public long handle(String line) {
+        return publish(line, null);
+    }
+
+    /**
+     * Publish a message already decoded, the parse stage passes it through.
+     *
+     * @param product
+     * @return the sequence of the message, -1 when it was rejected
+     */
+    @Override
+    public long handle(Product product) {
+        return publish(null, product);
+    }
+
+    /**
+     * Highest sequence applied to the receiver, and journaled when it journals.
+     *
+     * @return -1 before the first
+     */
+    @Override
+    public long applied() {
+        return applied.get();
+    }
+
+    @Override
+    public ProductDictionary getDictionary() {
+        return receiver.getDictionary();
+    }
+
+    /**
+     * State of the receiver, without the messages still in the ring
+     *
+     * @return
+     */
+    @Override
+    public Snapshot snapshot() {
+        return receiver.snapshot();
+    }
+
+    private long publish(String line, Product product) {
+        if (stopped) {
+            reject();
+            return -1;
+        }
+        long seq = claimed.getAndIncrement();
+        long wrapPoint = seq - ring.length;
+        int attempt = 0;
+        while (applied.get() < wrapPoint) {
+            if (stopped) {
+                reject();
+                return -1;
+            }
+            waitStrategy.idle(attempt++);
+        }
+        int index = (int) seq & mask;
+        Event event = ring[index];
+        event.line = line;
+        event.product = product;
+        published.set(index, seq);
+        if (seq - applied.get() >= inFlightLimit) {
+            flowControl.close(FlowControl.IN_FLIGHT);
+            //The aggregator may have drained the ring before the gate closed, and would
+            //not look at it again
+            if (claimed.get() - 1 - applied.get() <= inFlightLimit / 2)
+                flowControl.open(FlowControl.IN_FLIGHT);
+        }
+        return seq;
+    }
+
+    private void reject() {
+        logger.log(Level.WARNING, "Pipeline is stopped, message rejected");
+        receiver.getMetrics().rejected(RejectReason.STOPPED);
+    }
+
+    /**
+     * Number of lines published but not yet applied to the receiver.
+     *
+     * @return
+     */
+    public long depth() {
+        return claimed.get() - 1 - applied.get();
+    }
+
+    /**
+     * Number of slots in the ring.
+     *
+     * @return
+     */
+    public int capacity() {
+        return ring.length;
+    }
+
+    private void parseLoop() {
+        long next = 0;
+        int attempt = 0;
+        while (running || next < claimed.get()) {
+            int index = (int) next & mask;
+            if (published.get(index) != next) {
+                waitStrategy.idle(attempt++);
+                continue;
+            }
+            attempt = 0;
+            Event event = ring[index];
+            try {
+                if (event.line != null)
+                    event.product = receiver.process(event.line);
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Message could not be parsed", e);
+                event.product = null;
+            }
+            parsed.set(next++);
+        }
+    }
+
+    private void aggregateLoop() {
+        long next = 0;
+        int attempt = 0;
+        while (running || next < claimed.get()) {
+            if (parsed.get() < next) {
+                waitStrategy.idle(attempt++);
+                continue;
+            }
+            attempt = 0;
+            Event event = ring[(int) next & mask];
+            try {
+                receiver.apply(event.product);
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Message could not be applied", e);
+            }
+            event.line = null;
+            event.product = null;
+            applied.set(next++);
+            if (flowControl.isClosed(FlowControl.IN_FLIGHT) && claimed.get() - next <= inFlightLimit / 2)
+                flowControl.open(FlowControl.IN_FLIGHT);
+        }
+    }
+
+    /**
+     * Pre-allocated ring slot, reused for every lap around the ring.
+     */
+    private static final class Event {
+        private String line;
+        private Product product;
+    }
+}
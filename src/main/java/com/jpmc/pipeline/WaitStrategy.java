@@ -0,0 +1,59 @@
+package com.jpmc.pipeline;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * How a pipeline stage waits for the next slot: lowest latency spends a core
+ * spinning, parking gives the core back at the cost of wake up latency.
+ *
+ * @author Stanly
+ */
+public enum WaitStrategy {
+
+    BUSY_SPIN {
+        @Override
+        void idle(int attempt) {
+            Thread.onSpinWait();
+        }
+    },
+    YIELD {
+        @Override
+        void idle(int attempt) {
+            if (attempt < SPIN_TRIES)
+                Thread.onSpinWait();
+            else
+                Thread.yield();
+        }
+    },
+    PARK {
+        @Override
+        void idle(int attempt) {
+            if (attempt < SPIN_TRIES)
+                Thread.onSpinWait();
+            else if (attempt < SPIN_TRIES * 2)
+                Thread.yield();
+            else
+                LockSupport.parkNanos(PARK_NANOS);
+        }
+    };
+
+    private static final int SPIN_TRIES = 100;
+    private static final long PARK_NANOS = 50000;
+
+    /**
+     * Called while the awaited slot is not ready yet.
+     *
+     * @param attempt number of times the caller already waited for this slot
+     */
+    abstract void idle(int attempt);
+
+    /**
+     * Resolve the strategy from a startup argument.
+     *
+     * @param value
+     * @return
+     */
+    public static WaitStrategy parse(String value) {
+        return WaitStrategy.valueOf(value.trim().toUpperCase().replace('-', '_'));
+    }
+}
@@ -0,0 +1,96 @@
+package com.jpmc.receiver;
+
+import com.jpmc.domain.Product;
+
+/**
+ * An adjustment message as it was applied to the running totals of its product: the
+ * totals just before and just after it, kept for the adjustment report. Compacted
+ * adjustments are summarised per product by one of them: the totals before the first
+ * and after the last, with the count of adjustments it stands for.
+ *
+ * @author Stanly
+ */
+public final class Adjustment {
+
+    private final Product product;
+    private final boolean applied;
+    private final int quantity;
+    private final long before;
+    private final long after;
+    private final int count;
+
+    public Adjustment(Product product, boolean applied, int quantity, long before, long after) {
+        this(product, applied, quantity, before, after, 1);
+    }
+
+    /**
+     * @param product  the last adjustment summarised
+     * @param applied
+     * @param quantity
+     * @param before
+     * @param after
+     * @param count    adjustments summarised, 1 for a single one
+     */
+    public Adjustment(Product product, boolean applied, int quantity, long before, long after, int count) {
+        this.product = product;
+        this.applied = applied;
+        this.quantity = quantity;
+        this.before = before;
+        this.after = after;
+        this.count = count;
+    }
+
+    public Product getProduct() {
+        return product;
+    }
+
+    /**
+     * False when the product had no sales yet, so there was nothing to adjust.
+     *
+     * @return
+     */
+    public boolean isApplied() {
+        return applied;
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+
+    /**
+     * Total value in pence before the adjustment
+     *
+     * @return
+     */
+    public long getBefore() {
+        return before;
+    }
+
+    /**
+     * Total value in pence after the adjustment
+     *
+     * @return
+     */
+    public long getAfter() {
+        return after;
+    }
+
+    /**
+     * Number of adjustments this one stands for, more than 1 once compacted
+     *
+     * @return
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * This adjustment followed by a later one of the same product
+     *
+     * @param next
+     * @return
+     */
+    public Adjustment then(Adjustment next) {
+        return new Adjustment(next.product, applied || next.applied, next.quantity, before, next.after, count + next.count);
+    }
+}
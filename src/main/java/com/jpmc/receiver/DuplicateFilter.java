@@ -0,0 +1,171 @@
+package com.jpmc.receiver;
+
+import com.jpmc.config.Configuration;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers the ids of the messages recorded, so a message resent by an upstream retry
+ * is dropped instead of counted again. Memory is fixed whatever the traffic:
+ * <ul>
+ * <li>the most recent ids are kept exactly, in a table indexed by the id where a newer
+ * id replaces an older one of the same slot;</li>
+ * <li>every id is added to a Bloom filter sized for the expected volume, e.g. a day's.
+ * Once it holds that many ids it becomes the previous generation, still looked up, and
+ * a new filter is started in place of the one before.</li>
+ * </ul>
+ * An id in neither is new. An id only found in a filter is taken for a duplicate, which
+ * it is but for the false positive rate the filters are sized for.
+ * <p>
+ * The Bloom filters are blocked: all the bits of an id are in one cache line, so a
+ * lookup costs a cache miss per generation. Bits are set with atomic ors and the exact
+ * table with compare-and-set, so any number of threads add ids without a lock.
+ *
+ * @author Stanly
+ */
+public final class DuplicateFilter {
+
+    private static final VarHandle WORDS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final int BLOCK_WORDS = 8;
+    private static final int BLOCK_BITS = BLOCK_WORDS * 64;
+    private static final int MAX_BLOCKS = 1 << 26;
+
+    private final long expected;
+    private final int blocks;
+    private final int probes;
+    private final long[] recent;
+    //Current generation first, then the previous one or null
+    private volatile Generation[] generations;
+
+    public DuplicateFilter() {
+        this(Configuration.get().getDedupExpectedMessages(), Configuration.get().getDedupFalsePositive(),
+                Configuration.get().getDedupRecent());
+    }
+
+    /**
+     * @param expected      ids per generation of the Bloom filter
+     * @param falsePositive rate of new ids taken for duplicates, for a full generation
+     * @param recent        ids kept exactly, rounded up to a power of two
+     */
+    public DuplicateFilter(long expected, double falsePositive, int recent) {
+        this.expected = expected;
+        double ln2 = Math.log(2);
+        long bits = (long) Math.ceil(-expected * Math.log(falsePositive) / (ln2 * ln2));
+        //A power of two of blocks, so a block is picked with a mask
+        long count = Long.highestOneBit(Math.max(1, (bits + BLOCK_BITS - 1) / BLOCK_BITS - 1)) << 1;
+        this.blocks = (int) Math.min(count, MAX_BLOCKS);
+        this.probes = (int) Math.max(1, Math.min(16, Math.round((double) blocks * BLOCK_BITS / expected * ln2)));
+        this.recent = new long[Integer.highestOneBit(Math.max(2, recent) - 1) << 1];
+        this.generations = new Generation[]{new Generation(), null};
+    }
+
+    /**
+     * Add the id of a message about to be recorded
+     *
+     * @param id hash of the message id, see {@link #hash(CharSequence, int, int)}
+     * @return false when the id was already added, the message is a duplicate
+     */
+    public boolean add(long id) {
+        int slot = (int) id & (recent.length - 1);
+        while (true) {
+            long current = (long) WORDS.getVolatile(recent, slot);
+            if (current == id)
+                return false;
+            if (WORDS.compareAndSet(recent, slot, current, id))
+                break;
+        }
+        Generation[] g = generations;
+        if (g[1] != null && g[1].contains(id))
+            return false;
+        if (!g[0].put(id))
+            return false;
+        if (g[0].count.incrementAndGet() == expected)
+            rotate(g);
+        return true;
+    }
+
+    /**
+     * Bytes of the filters and of the exact table
+     *
+     * @return
+     */
+    public long memoryBytes() {
+        return 2L * blocks * BLOCK_WORDS * 8 + recent.length * 8L;
+    }
+
+    /**
+     * 64 bit hash of the characters, never 0
+     *
+     * @param s
+     * @param from
+     * @param to
+     * @return
+     */
+    public static long hash(CharSequence s, int from, int to) {
+        //FNV-1a, then the MurmurHash3 finaliser to spread the bits
+        long h = 0xcbf29ce484222325L;
+        for (int i = from; i < to; i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h = mix(h);
+        return h != 0 ? h : 1;
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private synchronized void rotate(Generation[] full) {
+        if (generations == full)
+            generations = new Generation[]{new Generation(), full[0]};
+    }
+
+    /**
+     * One blocked Bloom filter
+     */
+    private final class Generation {
+
+        private final long[] words = new long[blocks * BLOCK_WORDS];
+        private final AtomicLong count = new AtomicLong();
+
+        /**
+         * @return true when a bit of the id was not set yet
+         */
+        private boolean put(long id) {
+            int base = ((int) (id >>> 32) & (blocks - 1)) * BLOCK_WORDS;
+            int bit = (int) id;
+            int step = (int) (mix(id) | 1);
+            boolean added = false;
+            for (int i = 0; i < probes; i++, bit += step) {
+                int b = bit & (BLOCK_BITS - 1);
+                long mask = 1L << b;
+                //Only the bits not set yet cost an atomic write
+                if (((long) WORDS.getAcquire(words, base + (b >>> 6)) & mask) == 0) {
+                    long previous = (long) WORDS.getAndBitwiseOr(words, base + (b >>> 6), mask);
+                    added |= (previous & mask) == 0;
+                }
+            }
+            return added;
+        }
+
+        private boolean contains(long id) {
+            int base = ((int) (id >>> 32) & (blocks - 1)) * BLOCK_WORDS;
+            int bit = (int) id;
+            int step = (int) (mix(id) | 1);
+            for (int i = 0; i < probes; i++, bit += step) {
+                int b = bit & (BLOCK_BITS - 1);
+                if (((long) WORDS.getAcquire(words, base + (b >>> 6)) & 1L << b) == 0)
+                    return false;
+            }
+            return true;
+        }
+    }
+}
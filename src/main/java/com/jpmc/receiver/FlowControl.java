@@ -0,0 +1,160 @@
+package com.jpmc.receiver;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Gate in front of the message intake. While it is closed the connections stop reading
+ * from their sockets, so unread messages stay in the kernel buffers and clients see
+ * TCP backpressure instead of the server buffering them.
+ * <p>
+ * The gate closes when the receiver reaches the day's quota, until {@link #resume()},
+ * and while the staged pipeline holds more messages than its in-flight limit. It only
+ * closes when flow control is enabled; otherwise messages past the quota are recorded
+ * without reports, as before.
+ *
+ * @author Stanly
+ */
+public class FlowControl implements FlowControlMBean {
+
+    public static final String OBJECT_NAME = "com.jpmc:type=FlowControl";
+    /**
+     * Closed because the day's quota is reached
+     */
+    public static final int QUOTA = 1;
+    /**
+     * Closed because too many messages wait in the pipeline
+     */
+    public static final int IN_FLIGHT = 2;
+
+    private final AtomicInteger closed = new AtomicInteger();
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<Runnable>();
+    private final Runnable resume;
+    private volatile boolean enabled = false;
+    private volatile boolean stopped = false;
+
+    /**
+     * @param resume resumes the receiver after the quota
+     */
+    FlowControl(Runnable resume) {
+        this.resume = resume;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled)
+            open(QUOTA | IN_FLIGHT);
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * True when messages may be read
+     *
+     * @return
+     */
+    public boolean isOpen() {
+        return closed.get() == 0;
+    }
+
+    public boolean isClosed(int reason) {
+        return (closed.get() & reason) != 0;
+    }
+
+    /**
+     * Close the gate for the reason, when flow control is enabled.
+     *
+     * @param reason
+     */
+    public void close(int reason) {
+        if (!enabled)
+            return;
+        int c;
+        do {
+            c = closed.get();
+            if ((c & reason) == reason)
+                return;
+        } while (!closed.compareAndSet(c, c | reason));
+    }
+
+    /**
+     * Lift the reason, the gate opens once no reason is left.
+     *
+     * @param reason
+     */
+    public void open(int reason) {
+        int c;
+        do {
+            c = closed.get();
+            if ((c & reason) == 0)
+                return;
+        } while (!closed.compareAndSet(c, c & ~reason));
+        if ((c & ~reason) == 0) {
+            synchronized (this) {
+                notifyAll();
+            }
+            for (Runnable listener : listeners) {
+                listener.run();
+            }
+        }
+    }
+
+    /**
+     * Wait until the gate is open.
+     *
+     * @return true when open, false when the server is stopping
+     * @throws InterruptedException
+     */
+    public boolean await() throws InterruptedException {
+        if (isOpen())
+            return !stopped;
+        synchronized (this) {
+            while (!isOpen() && !stopped) {
+                wait();
+            }
+        }
+        return !stopped;
+    }
+
+    /**
+     * Called on the thread opening the gate, e.g. to wake an event loop.
+     *
+     * @param listener
+     */
+    public void addListener(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Runnable listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Release every connection waiting at the gate, the server is stopping.
+     */
+    public void stop() {
+        stopped = true;
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    @Override
+    public boolean isStoppedAtQuota() {
+        return isClosed(QUOTA);
+    }
+
+    @Override
+    public boolean isInFlightLimited() {
+        return isClosed(IN_FLIGHT);
+    }
+
+    @Override
+    public void resume() {
+        resume.run();
+    }
+}
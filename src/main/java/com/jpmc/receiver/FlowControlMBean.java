@@ -0,0 +1,30 @@
+package com.jpmc.receiver;
+
+/**
+ * Management interface of the {@link FlowControl}.
+ *
+ * @author Stanly
+ */
+public interface FlowControlMBean {
+
+    boolean isEnabled();
+
+    /**
+     * True while intake is stopped because the day's quota is reached
+     *
+     * @return
+     */
+    boolean isStoppedAtQuota();
+
+    /**
+     * True while intake is stopped because the pipeline is full
+     *
+     * @return
+     */
+    boolean isInFlightLimited();
+
+    /**
+     * Restart intake after the quota, for another quota of messages
+     */
+    void resume();
+}
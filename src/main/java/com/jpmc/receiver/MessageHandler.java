@@ -0,0 +1,58 @@
+package com.jpmc.receiver;
+
+import com.jpmc.domain.Product;
+import com.jpmc.domain.ProductDictionary;
+import com.jpmc.snapshot.Snapshot;
+
+/**
+ * Destination of the messages read from the clients, as text lines or as messages
+ * already decoded from the binary protocol.
+ * <p>
+ * Handing over a message returns its ticket. A handler applying the messages on other
+ * threads has applied, and journaled, every message up to the ticket {@link #applied()}
+ * returns, so a connection acknowledges its messages only once they are applied.
+ *
+ * @author Stanly
+ */
+public interface MessageHandler {
+
+    /**
+     * Handle a text line.
+     *
+     * @param line
+     * @return ticket of the message
+     */
+    long handle(String line);
+
+    /**
+     * Handle a message decoded with the products of {@link #getDictionary()}.
+     *
+     * @param product
+     * @return ticket of the message
+     */
+    long handle(Product product);
+
+    /**
+     * Ticket up to which the messages handed over are applied. A handler applying a
+     * message before handing it over returns is always past its tickets.
+     *
+     * @return
+     */
+    default long applied() {
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Dictionary the product ids of decoded messages must belong to
+     *
+     * @return
+     */
+    ProductDictionary getDictionary();
+
+    /**
+     * Aggregate state of the messages handled so far, for the aggregate dump.
+     *
+     * @return the state, null when this handler keeps none
+     */
+    Snapshot snapshot();
+}
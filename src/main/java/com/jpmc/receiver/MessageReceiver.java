@@ -1,113 +1,612 @@
 package com.jpmc.receiver;
 
+import com.jpmc.config.Configuration;
+import com.jpmc.config.Settings;
 import com.jpmc.domain.ApplicationEnum;
 import com.jpmc.domain.Product;
+import com.jpmc.domain.ProductDictionary;
 import com.jpmc.domain.Report;
+import com.jpmc.history.SalesHistory;
+import com.jpmc.journal.SalesJournal;
+import com.jpmc.metrics.ServerMetrics;
 import com.jpmc.msg.Message;
 import com.jpmc.msg.MessageImpl;
-
-import java.io.FileNotFoundException;
+import com.jpmc.msg.MessageParser;
+import com.jpmc.msg.RejectReason;
+import com.jpmc.report.AsyncReportSink;
+import com.jpmc.report.ConsoleReportSink;
+import com.jpmc.report.ReportSink;
+import com.jpmc.snapshot.Snapshot;
+
+import java.math.BigDecimal;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * This class is used to receive message and used as reporting tool.
+ * One receiver is shared by every connection: sales go to striped per product
+ * counters, and an atomic message sequence decides which thread prints the 10th
+ * message report and the 50th message adjustment report, so each is printed once.
+ * Reports are rendered into a buffer of the {@link ReportSink}, which writes them.
+ * <p>
+ * Live sales are also kept per window of time in {@link SalesWindows}, for reports
+ * printed every interval however many messages arrive.
+ * <p>
+ * With retention the receiver runs at a steady heap size: a history kept is released
+ * once journaled, but for the most recent records, and older adjustments are
+ * compacted into one summary per product.
+ * <p>
+ * A message may start with its id, {@code #<id> } before the message; with a
+ * {@link DuplicateFilter} a message whose id was already recorded is dropped, so a
+ * batch resent by an upstream retry is counted once.
  *
  * @author Stanly
  */
-public class MessageReceiver {
-
-    private final Logger logger = Logger.getLogger(MessageReceiver.class.getName());
-    private final List<Product> productList = new ArrayList<Product>();
-    private final List<Product> adjustList = new ArrayList<Product>();
-    private final String padding = new String(new char[64]);
-    private boolean isPause = false;
+public class MessageReceiver implements MessageHandler {
+
+    private static final String LINE = "+-------------------------------------+----------------+----------+\n";
+    private static final String HEADER = LINE + "|        NAME                         |	 QUANTITY      |   TOTAL  |\n" + LINE;
+
+    private static final Logger logger = Logger.getLogger(MessageReceiver.class.getName());
+    private static final int NAME_WIDTH = 37;
+    private static final int QUANTITY_WIDTH = 16;
+    private static final int TOTAL_WIDTH = 10;
+    private static final char PAD = '\0';
+
+    private final Queue<Adjustment> adjustList = new ConcurrentLinkedQueue<Adjustment>();
+    //Adjustments compacted out of the list, one summary per product id
+    private final Map<Integer, Adjustment> compacted = new TreeMap<Integer, Adjustment>();
+    private final AtomicLong compactedCount = new AtomicLong();
+    private final ProductDictionary dictionary;
+    private final ReportSink sink;
+    private final SalesAggregator aggregator = new SalesAggregator();
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicBoolean isPause = new AtomicBoolean(false);
+    //Sequence number before the first message of the day's quota, moved on by a resume
+    private final AtomicLong quotaStart = new AtomicLong();
+    private final ServerMetrics metrics;
+    private final FlowControl flowControl;
+    private final SalesWindows windows;
+    private final ViewPublisher views;
+    private volatile SalesJournal journal = null;
+    //Appends to the journal set when the message is applied
+    private final Consumer<Product> journaling = new Consumer<Product>() {
+        public void accept(Product p) {
+            SalesJournal j = journal;
+            if (j != null)
+                j.append(p);
+        }
+    };
+    private volatile DuplicateFilter duplicates = null;
+    private volatile SalesHistory history = null;
+    private volatile boolean quotaEnabled = true;
+    private Thread windowReporter = null;
+    private Thread retention = null;
 
     public MessageReceiver() {
+        this(ProductDictionary.getDefault());
+    }
+
+    public MessageReceiver(ProductDictionary dictionary) {
+        this(dictionary, new AsyncReportSink(new ConsoleReportSink()));
+    }
+
+    public MessageReceiver(ProductDictionary dictionary, ReportSink sink) {
+        this.dictionary = dictionary;
+        this.sink = sink;
+        this.metrics = new ServerMetrics(new BooleanSupplier() {
+            @Override
+            public boolean getAsBoolean() {
+                return isPause.get();
+            }
+        });
+        this.flowControl = new FlowControl(new Runnable() {
+            @Override
+            public void run() {
+                resume();
+            }
+        });
+        Settings settings = Configuration.get();
+        this.windows = new SalesWindows(dictionary, settings.getWindowMs(), settings.getWindowCount());
+        this.views = new ViewPublisher(aggregator, dictionary, settings.getTopProducts());
     }
 
     /**
      * Responsible for processing the message and generate the report.
+     * It is called concurrently by every connection and takes no lock.
      *
      * @param line
-     * @throws FileNotFoundException
      */
-    public void receive(String line) throws FileNotFoundException {
+    public void receive(String line) {
 
         //Process all messages
-        Product p = process(line);
+        apply(process(line));
+    }
+
+    /**
+     * @param line
+     * @return 0, the message is applied when this returns
+     */
+    @Override
+    public long handle(String line) {
+        receive(line);
+        return 0;
+    }
+
+    /**
+     * @param product
+     * @return 0, the message is applied when this returns
+     */
+    @Override
+    public long handle(Product product) {
+        apply(product);
+        return 0;
+    }
+
+    /**
+     * Record a processed message and print the reports it triggers. This is the second
+     * half of {@link #receive(String)}, used when parsing runs on another thread.
+     *
+     * @param p processed message, null when the message was not valid
+     */
+    public void apply(Product p) {
 
         if (p != null) {
             //Record all sales
-            record(p);
+            long start = System.nanoTime();
+            long seq = record(p);
+            metrics.recordAggregate(System.nanoTime() - start);
             //report 10
-            logPeriodicalReport();
+            logPeriodicalReport(seq);
             //report 50
-            logAdjustmentReport(p);
+            logAdjustmentReport(seq);
         }
     }
 
     /**
-     * Process the message line by line.
+     * Process the message line by line. A message whose "#id " prefix was seen before is
+     * a duplicate, rejected before it is counted valid.
      *
      * @param line
-     * @return
+     * @return the product, null when the message is not valid or a duplicate
      */
-    private Product process(String line) {
+    public Product process(String line) {
 
-        logger.log(Level.INFO, "Message received:" + line);
+        long start = System.nanoTime();
+        boolean info = logger.isLoggable(Level.INFO);
+        if (info)
+            logger.log(Level.INFO, "Message received:" + line);
         Product p = null;
-        Message message = new MessageImpl(line);
+        Message message = new MessageImpl(line, dictionary);
 
         if (message.validateMessage()) {
-            logger.log(Level.INFO, "Only valid message will be processed");
+            int idEnd = MessageParser.idEnd(line);
+            long id = idEnd > 0 ? DuplicateFilter.hash(line, 1, idEnd) : 0;
+            DuplicateFilter d = duplicates;
+            if (d != null && id != 0 && !d.add(id)) {
+                metrics.rejected(RejectReason.DUPLICATE);
+                metrics.recordParse(System.nanoTime() - start);
+                return null;
+            }
+            if (info)
+                logger.log(Level.INFO, "Only valid message will be processed");
             p = message.buildMessage();
+            p.setMessageId(id);
+            metrics.valid();
+        } else {
+            metrics.rejected(message.getRejectReason());
         }
+        metrics.recordParse(System.nanoTime() - start);
         return p;
     }
 
     /**
-     * All the messages are accumulated.
+     * All the messages are accumulated and the running aggregate of the product is updated.
+     * Adjustments are applied to the running aggregate straight away, so every report
+     * reflects them, and are kept in the adjustment history. With a journal the message
+     * is journaled under the lock of its product as it is aggregated, so the sales and
+     * adjustments of a product are journaled in the order they were applied and a replay
+     * gives the same totals. The message takes its sequence number only
+     * after it is aggregated, so the report triggered by message n includes at least the
+     * first n messages. Sales are added to the window of the time they are recorded.
      *
      * @param p
+     * @return sequence number of the message, starting at 1
      */
-    private void record(Product p) {
-        productList.add(p);
+    private long record(Product p) {
+        long seq = aggregate(p, journal != null ? journaling : null);
+        if (p.getType() == ApplicationEnum.RECORD && p.getProductId() >= 0 && p.getPrice() > 0)
+            windows.record(p.getProductId(), p.getQuantity(), p.getQuantity() * p.getPrice());
+        return seq;
     }
 
     /**
-     * This is used to print the report.
+     * Rebuild the state from a journaled message, without journaling it again or printing
+     * reports. The receiver is paused when the journal already holds the day's quota, and
+     * resumed at a journaled resume.
+     *
+     * @param p
+     */
+    public void restore(Product p) {
+        if (p.getType() == ApplicationEnum.RESUME) {
+            resume(p.getPrice(), false);
+            return;
+        }
+        long seq = aggregate(p, null);
+        if (atQuota(seq))
+            stopAtQuota();
+    }
+
+    /**
+     * Merge a batch of messages folded elsewhere, e.g. by the bulk file ingest. Like
+     * {@link #restore(Product)} it prints no reports and pauses the receiver once the
+     * day's quota is reached; the messages are not journaled, their file is the record.
+     *
+     * @param batch
      */
-    private void logPeriodicalReport() {
+    public void merge(SalesBatch batch) {
+        adjustList.addAll(batch.applyTo(aggregator));
+        long seq = sequence.addAndGet(batch.messageCount());
+        if (atQuota(seq))
+            stopAtQuota();
+    }
 
-        if ((productList.size() % Integer.parseInt(ApplicationEnum.LOG_REPORT_PER_MESSAGE_RECEIVED.getEnumType()) == 0) && !isPause) {
-            printPeriodicalReport();
+    /**
+     * Restart after the quota: reports are printed again, the next quota of messages is
+     * accepted and, with flow control, intake restarts.
+     */
+    public void resume() {
+        resume(sequence.get(), true);
+    }
+
+    /**
+     * @param start   message count the next quota starts from
+     * @param journal journal the resume, false when it is replayed
+     */
+    private void resume(long start, boolean journal) {
+        if (isPause.compareAndSet(true, false)) {
+            quotaStart.set(start);
+            SalesJournal j = this.journal;
+            if (journal && j != null)
+                j.appendResume(start);
+            if (logger.isLoggable(Level.INFO))
+                logger.log(Level.INFO, "Resuming after " + start + " messages");
+            flowControl.open(FlowControl.QUOTA);
         }
     }
 
     /**
-     * This is used to print adjustment report
+     * The message of the sequence reached the quota, as currently configured
+     */
+    private boolean atQuota(long seq) {
+        return quotaEnabled && seq - quotaStart.get() >= Configuration.get().getPauseQuota();
+    }
+
+    private void stopAtQuota() {
+        isPause.set(true);
+        flowControl.close(FlowControl.QUOTA);
+    }
+
+    /**
+     * Log the current totals of every product sold.
+     */
+    public void logFinalReport() {
+        if (!sink.isEnabled())
+            return;
+        StringBuilder out = sink.buffer();
+        logFinalAdjustmentReport(out);
+        sink.publish(out);
+    }
+
+    /**
+     * Print the reports of the current state on demand, e.g. after restoring the merged
+     * state of the partitions of a cluster.
      *
-     * @param p
+     * @param periodical the log report of the running totals
+     * @param adjustments the adjustment report
      */
-    private void logAdjustmentReport(Product p) {
+    public void logReports(boolean periodical, boolean adjustments) {
+        if (!sink.isEnabled())
+            return;
+        if (periodical)
+            printPeriodicalReport(Configuration.get().getReportEvery());
+        if (adjustments)
+            logAdjustmentReport();
+    }
 
-        switch (p.getType()) {
+    /**
+     * Print the sales of the last complete window and of the last windows kept, e.g. of
+     * the last second and the last minute. It reads a fixed number of windows, so it
+     * costs the same when idle and at peak.
+     */
+    public void logWindowReport() {
+        if (!sink.isEnabled())
+            return;
+        long start = System.nanoTime();
+        StringBuilder out = sink.buffer();
+        List<SalesWindows.Window> last = windows.last(1);
+        windowReport(out, last.get(0), windows.windowMillis());
+        windowReport(out, windows.sum(windows.windows()), windows.windowMillis() * windows.windows());
+        sink.publish(out);
+        metrics.recordReport(System.nanoTime() - start);
+    }
+
+    private void windowReport(StringBuilder out, SalesWindows.Window window, long millis) {
+        out.append("In the last ").append(millis).append(" ms, ").append(window.getMessages()).append(" sales, the window report:\n");
+        out.append(HEADER);
+        for (Report r : window.getProducts()) {
+            row(out, r.getName(), r.getQuantity(), r.getTotalPrice());
+        }
+        out.append(LINE).append("\n\n");
+    }
+
+    /**
+     * Print the window report every interval until {@link #stopWindowReports()}.
+     *
+     * @param interval milliseconds, 0 for never
+     */
+    public synchronized void startWindowReports(final long interval) {
+        if (windowReporter != null || interval <= 0)
+            return;
+        windowReporter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    try {
+                        Thread.sleep(interval);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    logWindowReport();
+                }
+            }
+        }, "window-reports");
+        windowReporter.setDaemon(true);
+        windowReporter.start();
+    }
+
+    public synchronized void stopWindowReports() {
+        if (windowReporter != null) {
+            windowReporter.interrupt();
+            try {
+                windowReporter.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            windowReporter = null;
+        }
+    }
+
+    /**
+     * Pause at the day's quota, or never, e.g. on a partition node whose quota is the
+     * cluster's, kept by its coordinator.
+     *
+     * @param enabled
+     */
+    public void setQuotaEnabled(boolean enabled) {
+        this.quotaEnabled = enabled;
+    }
+
+    /**
+     * Journal every message recorded from now on.
+     *
+     * @param journal the journal, null to stop journaling
+     */
+    public void setJournal(SalesJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Drop the messages whose id was already recorded.
+     *
+     * @param duplicates the filter of the ids recorded, null to record every message
+     */
+    public void setDuplicateFilter(DuplicateFilter duplicates) {
+        this.duplicates = duplicates;
+    }
+
+    /**
+     * Copy of the aggregate state. It is only consistent while no message is recorded
+     * concurrently, as in the shadow receiver of the {@link com.jpmc.snapshot.Snapshotter};
+     * otherwise each product total is consistent but the totals may be of different
+     * moments.
+     *
+     * @return
+     */
+    @Override
+    public Snapshot snapshot() {
+        Snapshot snapshot = new Snapshot();
+        int capacity = aggregator.capacity();
+        for (int id = 0; id < capacity; id++) {
+            if (aggregator.hasSales(id)) {
+                snapshot.getProducts().add(new Report(dictionary.name(id), aggregator.quantity(id), aggregator.value(id)));
+            }
+        }
+        snapshot.getAdjustments().addAll(adjustments());
+        snapshot.setMessageCount(sequence.get());
+        snapshot.setPaused(isPause.get());
+        snapshot.setQuotaStart(quotaStart.get());
+        return snapshot;
+    }
+
+    /**
+     * Load a snapshot into a receiver that has not recorded anything yet.
+     *
+     * @param snapshot
+     */
+    public void restore(Snapshot snapshot) {
+        for (Report r : snapshot.getProducts()) {
+            aggregator.add(dictionary.register(r.getName()), r.getQuantity(), r.getTotalPrice());
+        }
+        for (Adjustment a : snapshot.getAdjustments()) {
+            //The snapshot may be loaded by several receivers, each with its own product ids
+            Product p = new Product();
+            p.setName(a.getProduct().getName());
+            p.setProductId(p.getName() != null ? dictionary.register(p.getName()) : -1);
+            p.setType(a.getProduct().getType());
+            p.setAdjustPrice(a.getProduct().getAdjustPrice());
+            adjustList.add(new Adjustment(p, a.isApplied(), a.getQuantity(), a.getBefore(), a.getAfter(), a.getCount()));
+        }
+        sequence.set(snapshot.getMessageCount());
+        quotaStart.set(snapshot.getQuotaStart());
+        if (snapshot.isPaused())
+            stopAtQuota();
+    }
+
+    /**
+     * The adjustment history, oldest first: the compacted summaries, then the
+     * adjustments kept one by one.
+     *
+     * @return
+     */
+    private List<Adjustment> adjustments() {
+        synchronized (compacted) {
+            List<Adjustment> all = new ArrayList<Adjustment>(compacted.values());
+            all.addAll(adjustList);
+            return all;
+        }
+    }
+
+    /**
+     * Release the history but for the most recent records, once the journal has them,
+     * and compact the adjustments but for the most recent into one summary per product.
+     * Adjustments of products not sold yet changed nothing and are dropped.
+     *
+     * @param records     recent records of the history to keep
+     * @param adjustments recent adjustments to keep one by one
+     * @return number of history records released
+     */
+    public long compact(long records, int adjustments) {
+        SalesHistory h = history;
+        long released = 0;
+        if (h != null) {
+            long keepFrom = h.size() - records;
+            SalesJournal j = journal;
+            //Every record before keepFrom was journaled before it was added to the history
+            if (j != null)
+                j.sync();
+            released = keepFrom > 0 ? h.release(keepFrom) : 0;
+        }
+        synchronized (compacted) {
+            int excess = adjustList.size() - adjustments;
+            Adjustment a;
+            while (excess-- > 0 && (a = adjustList.poll()) != null) {
+                compactedCount.addAndGet(a.getCount());
+                int id = a.getProduct().getProductId();
+                if (!a.isApplied() || id < 0)
+                    continue;
+                Adjustment summary = compacted.get(id);
+                compacted.put(id, summary == null ? a : summary.then(a));
+            }
+        }
+        if (logger.isLoggable(Level.FINE))
+            logger.log(Level.FINE, "Released " + released + " records, " + compactedCount.get() + " adjustments compacted");
+        return released;
+    }
+
+    /**
+     * Compact every interval until {@link #stopRetention()}, keeping the recent records
+     * and adjustments of the configuration.
+     *
+     * @param interval milliseconds, 0 for never
+     */
+    public synchronized void startRetention(final long interval) {
+        if (retention != null || interval <= 0)
+            return;
+        final long records = Configuration.get().getRetainRecords();
+        final int adjustments = Configuration.get().getRetainAdjustments();
+        retention = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    try {
+                        Thread.sleep(interval);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    compact(records, adjustments);
+                }
+            }
+        }, "retention");
+        retention.setDaemon(true);
+        retention.start();
+    }
 
+    public synchronized void stopRetention() {
+        if (retention != null) {
+            retention.interrupt();
+            try {
+                retention.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            retention = null;
+        }
+    }
+
+    /**
+     * @param p
+     * @param journal journals the message as it is applied, null when it is not journaled
+     */
+    private long aggregate(Product p, Consumer<Product> journal) {
+        switch (p.getType()) {
             case ADDITION:
+                adjustList.add(aggregator.adjust(p, Product.FACTOR_SCALE, p.getAdjustPrice(), journal));
+                break;
             case MULTIPLICATION:
+                adjustList.add(aggregator.adjust(p, p.getAdjustPrice(), 0, journal));
+                break;
             case SUBTRACTION:
-                adjustList.add(p);
+                adjustList.add(aggregator.adjust(p, Product.FACTOR_SCALE, -p.getAdjustPrice(), journal));
                 break;
+            default:
+                if (p.getProductId() >= 0 && p.getPrice() > 0)
+                    aggregator.add(p, journal);
+                else if (journal != null)
+                    journal.accept(p);
         }
+        //After the journal, see compact
+        SalesHistory h = history;
+        if (h != null)
+            h.append(p);
+        return sequence.incrementAndGet();
+    }
 
-        if (productList.size() == Integer.parseInt(ApplicationEnum.MAX_MESSAGES_TO_PAUSE_PROCESSING.getEnumType()) && !isPause) {
+    /**
+     * This is used to print the report.
+     *
+     * @param seq
+     */
+    private void logPeriodicalReport(long seq) {
+
+        int every = Configuration.get().getReportEvery();
+        if ((seq % every == 0) && !isPause.get() && sink.isEnabled()) {
+            printPeriodicalReport(every);
+        }
+    }
+
+    /**
+     * This is used to print adjustment report once the quota is reached.
+     *
+     * @param seq
+     */
+    private void logAdjustmentReport(long seq) {
+
+        if (atQuota(seq) && isPause.compareAndSet(false, true)) {
+            flowControl.close(FlowControl.QUOTA);
             pause();
-            logAdjustmentReport();
+            if (sink.isEnabled())
+                logAdjustmentReport();
         }
     }
 
@@ -115,161 +614,230 @@ public class MessageReceiver {
      * Pause the message if the threshold of 50 messages are processed
      */
     private void pause() {
-
-        isPause = true;
-        logger.log(Level.INFO, "Reached today quota of " + ApplicationEnum.MAX_MESSAGES_TO_PAUSE_PROCESSING.getEnumType() + " messages. Pausing.................");
+        if (logger.isLoggable(Level.INFO))
+            logger.log(Level.INFO, "Reached today quota of " + Configuration.get().getPauseQuota() + " messages. Pausing.................");
     }
 
     /**
      * Print the report in console
+     *
+     * @param every messages between two reports
      */
-    private void printPeriodicalReport() {
-
-        Map<String, Report> reportMap = populateReportMap();
-        System.out.println("After " + ApplicationEnum.LOG_REPORT_PER_MESSAGE_RECEIVED.getEnumType() + " messages received, the log report:");
-        System.out.println("+-------------------------------------+----------------+----------+");
-        System.out.println("|        NAME                         |	 QUANTITY      |   TOTAL  |");
-        System.out.println("+-------------------------------------+----------------+----------+");
-        for (Map.Entry<String, Report> entry : reportMap.entrySet()) {
-
-            String name = entry.getKey();
-            Report r = entry.getValue();
-            if (r.getName() != null) {
-                System.out.println("|" + (name + padding).substring(0, 37) + "|" + (r.getQuantity() + padding).substring(0, 16) + "|" + ("£" + r.getTotalPrice() / 100 + padding).substring(0, 10) + "|");
+    private void printPeriodicalReport(int every) {
+
+        long start = System.nanoTime();
+        StringBuilder out = sink.buffer();
+        out.append("After ").append(every).append(" messages received, the log report:\n");
+        out.append(HEADER);
+        int capacity = aggregator.capacity();
+        for (int id = 0; id < capacity; id++) {
+            if (aggregator.hasSales(id)) {
+                row(out, dictionary.name(id), aggregator.quantity(id), aggregator.value(id));
             }
         }
-        System.out.println("+-------------------------------------+----------------+----------+");
-        System.out.println();
-        System.out.println();
+        out.append(LINE).append("\n\n");
+        sink.publish(out);
+        metrics.recordReport(System.nanoTime() - start);
     }
 
     /**
-     * This is used to apply adjustment logic for the report
+     * This is used to print the adjustment history and the adjusted totals
      */
     private void logAdjustmentReport() {
 
-        logger.log(Level.INFO, "Adjustment received: " + adjustList.size());
-        System.out.println("After " + ApplicationEnum.MAX_MESSAGES_TO_PAUSE_PROCESSING.getEnumType() + " messages received, the adjustment log report:");
-        Map<String, Report> reportMap = populateReportMap();
-        for (Product p : adjustList) {
-            //First adjustment received
-            if (p != null && p.getName() != null && p.getName().length() > 0)
-                adjust(p, reportMap);
+        long start = System.nanoTime();
+        if (logger.isLoggable(Level.INFO))
+            logger.log(Level.INFO, "Adjustment received: " + adjustmentCount());
+        StringBuilder out = sink.buffer();
+        out.append("After ").append(Configuration.get().getPauseQuota()).append(" messages received, the adjustment log report:\n");
+        for (Adjustment a : adjustments()) {
+            //Only adjustments of a product already sold changed anything
+            if (a.isApplied())
+                logAdjustment(out, a);
         }
-        logFinalAdjustmentReport(reportMap);
+        logFinalAdjustmentReport(out);
+        sink.publish(out);
+        metrics.recordReport(System.nanoTime() - start);
     }
 
     /**
      * Final Adjustment report on the console
      *
-     * @param reportMap
-     */
-    private void logFinalAdjustmentReport(Map<String, Report> reportMap) {
-        System.out.println("+------------------------+");
-        System.out.println("|Final Adjustment Report|");
-        System.out.println("+------------------------+");
-        System.out.println("+-------------------------------------+----------------+----------+");
-        System.out.println("|        NAME                         |	 QUANTITY      |   TOTAL  |");
-        System.out.println("+-------------------------------------+----------------+----------+");
-        for (Map.Entry<String, Report> entry : reportMap.entrySet()) {
-
-            String name = entry.getKey();
-            Report r = entry.getValue();
-            if (r.getName() != null) {
-                System.out.println("|" + (name + padding).substring(0, 37) + "|" + (r.getQuantity() + padding).substring(0, 16) + "|" + ("£" + r.getTotalPrice() / 100 + padding).substring(0, 10) + "|");
+     * @param out
+     */
+    private void logFinalAdjustmentReport(StringBuilder out) {
+        out.append("+------------------------+\n");
+        out.append("|Final Adjustment Report|\n");
+        out.append("+------------------------+\n");
+        out.append(HEADER);
+        int capacity = aggregator.capacity();
+        for (int id = 0; id < capacity; id++) {
+            if (aggregator.hasSales(id)) {
+                row(out, dictionary.name(id), aggregator.quantity(id), aggregator.value(id));
             }
         }
-        System.out.println("+-------------------------------------+----------------+----------+");
-        System.out.println();
-        System.out.println();
+        out.append(LINE).append("\n\n");
     }
 
     /**
-     * Adjustment logic
+     * The totals of the product before and after one adjustment
      *
-     * @param p
-     * @param reportMap
+     * @param out
+     * @param a
      */
-    private void adjust(Product p, Map<String, Report> reportMap) {
+    private void logAdjustment(StringBuilder out, Adjustment a) {
+        Product product = a.getProduct();
+        String name = dictionary.name(product.getProductId());
+        if (a.getCount() > 1) {
+            out.append("Before adjustments: ").append(name).append('\n');
+            logAdjust(out, name, a.getQuantity(), a.getBefore());
+            out.append("After ").append(a.getCount()).append(" adjustments: ").append(name).append('\n');
+            logAdjust(out, name, a.getQuantity(), a.getAfter());
+            return;
+        }
+        out.append("Before adjustment: ").append(name).append('\n');
+        logAdjust(out, name, a.getQuantity(), a.getBefore());
+        out.append("After adjustment: ").append(product.getName()).append(' ').append(product.getType().getEnumType()).append(' ').append(amount(product)).append("product\n");
+        logAdjust(out, name, a.getQuantity(), a.getAfter());
+    }
 
-        for (Map.Entry<String, Report> entry : reportMap.entrySet()) {
-            Report r = entry.getValue();
-            if (r.getName() != null && p.getName().equals(r.getName())) {
-                beforeAdjustment(r);
-                afterAdjustment(r, p);
-            }
+    /**
+     * Amount of the adjustment as written in messages, a Multiply factor with its fraction
+     */
+    private static String amount(Product adjustment) {
+        if (adjustment.getType() != ApplicationEnum.MULTIPLICATION)
+            return Long.toString(adjustment.getAdjustPrice());
+        return BigDecimal.valueOf(adjustment.getAdjustPrice()).divide(BigDecimal.valueOf(Product.FACTOR_SCALE)).stripTrailingZeros().toPlainString();
+    }
+
+    /**
+     * This is used to print the report
+     *
+     * @param out
+     * @param name
+     * @param quantity
+     * @param totalPrice
+     */
+    private void logAdjust(StringBuilder out, String name, int quantity, long totalPrice) {
+        out.append(HEADER);
+        row(out, name, quantity, totalPrice);
+        out.append(LINE).append('\n');
+    }
+
+    /**
+     * One table row of a report, rendered straight into the report buffer
+     */
+    private void row(StringBuilder out, String name, int quantity, long totalPrice) {
+        out.append('|');
+        int start = out.length();
+        out.append(name);
+        cell(out, start, NAME_WIDTH);
+        out.append('|');
+        start = out.length();
+        out.append(quantity);
+        cell(out, start, QUANTITY_WIDTH);
+        out.append('|');
+        start = out.length();
+        appendPence(out, totalPrice);
+        cell(out, start, TOTAL_WIDTH);
+        out.append("|\n");
+    }
+
+    /**
+     * Cut or pad the cell started at start to its width
+     */
+    private static void cell(StringBuilder out, int start, int width) {
+        int end = start + width;
+        if (out.length() > end) {
+            out.setLength(end);
+        }
+        while (out.length() < end) {
+            out.append(PAD);
         }
     }
 
     /**
-     * Before Adjustment logic
+     * Pence as pounds, e.g. 1205 as £12.05
      *
-     * @param r
+     * @param out
+     * @param pence
      */
-    private void beforeAdjustment(Report r) {
-        System.out.println("Before adjustment: " + r.getName());
-        logAdjust(r);
+    static void appendPence(StringBuilder out, long pence) {
+        long abs = Math.abs(pence);
+        long p = abs % 100;
+        out.append(pence < 0 ? "-£" : "£").append(abs / 100).append(p < 10 ? ".0" : ".").append(p);
     }
 
     /**
-     * After adjustment report
+     * Write out the pending reports and release the report sink
+     */
+    public void close() {
+        sink.close();
+    }
+
+    /**
+     * Dictionary the product ids of this receiver belong to
      *
-     * @param report
-     * @param product
+     * @return
      */
-    private void afterAdjustment(Report report, Product product) {
-        System.out.println("After adjustment: " + product.getName() + " " + product.getType().getEnumType() + " " + product.getAdjustPrice() + "product");
-        switch (product.getType()) {
-            case ADDITION:
-                report.setTotalPrice(report.getTotalPrice() + (report.getQuantity() * product.getAdjustPrice()));
-                logAdjust(report);
-                break;
-            case MULTIPLICATION:
-                report.setTotalPrice(report.getQuantity() * ((report.getTotalPrice() / report.getQuantity()) * product.getAdjustPrice()));
-                logAdjust(report);
-                break;
-            case SUBTRACTION:
-                report.setTotalPrice(report.getTotalPrice() - (report.getQuantity() * product.getAdjustPrice()));
-                logAdjust(report);
-                break;
-        }
+    @Override
+    public ProductDictionary getDictionary() {
+        return dictionary;
     }
 
     /**
-     * This is used to print the report
+     * Instrumentation of this receiver and of the connections feeding it
+     *
+     * @return
+     */
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Every message recorded since the history was set and not released, in order
+     *
+     * @return null when no history is kept
+     */
+    public SalesHistory getHistory() {
+        return history;
+    }
+
+    /**
+     * Keep every message recorded from now on in the history.
      *
-     * @param report
+     * @param history null to keep none
      */
-    private void logAdjust(Report report) {
-        System.out.println("+-------------------------------------+----------------+----------+");
-        System.out.println("|        NAME                         |	 QUANTITY      |   TOTAL  |");
-        System.out.println("+-------------------------------------+----------------+----------+");
-        System.out.println("|" + (report.getName() + padding).substring(0, 37) + "|" + (report.getQuantity() + padding).substring(0, 16) + "|" + ("£" + report.getTotalPrice() / 100 + padding).substring(0, 10) + "|");
-        System.out.println("+-------------------------------------+----------------+----------+");
-        System.out.println();
+    public void setHistory(SalesHistory history) {
+        this.history = history;
     }
 
     /**
-     * Main logic to populate the report
+     * Latest published copy of the running totals, with the top products by value and
+     * by quantity. It never waits for the connections recording messages.
      *
      * @return
      */
-    private Map<String, Report> populateReportMap() {
-
-        Map<String, Report> reportMap = new HashMap<String, Report>();
-        for (Product p : productList) {
-            if (p != null && p.getName() != null && p.getName().length() > 0 && p.getPrice() > 0) {
-                Report r = reportMap.get(p.getName());
-                if (r != null) {
-                    r.setQuantity(r.getQuantity() + p.getQuantity());
-                    r.setTotalPrice(r.getTotalPrice() + (r.getQuantity() * p.getPrice()));
-                } else {
-                    r = new Report(p.getName(), p.getQuantity(), (p.getQuantity() * p.getPrice()));
-                    reportMap.put(p.getName(), r);
-                }
-            }
-        }
-        return reportMap;
+    public SalesView view() {
+        return views.view();
+    }
+
+    /**
+     * Live sales per window of time
+     *
+     * @return
+     */
+    public SalesWindows getSalesWindows() {
+        return windows;
+    }
+
+    /**
+     * Gate of the intake, closed at the quota when flow control is enabled
+     *
+     * @return
+     */
+    public FlowControl getFlowControl() {
+        return flowControl;
     }
 
     /**
@@ -278,7 +846,7 @@ public class MessageReceiver {
      * @return
      */
     public int messageCount() {
-        return productList.size();
+        return (int) sequence.get();
     }
 
     /**
@@ -287,7 +855,11 @@ public class MessageReceiver {
      * @return
      */
     public int adjustmentCount() {
-        return adjustList.size();
+        long count = compactedCount.get();
+        for (Adjustment a : adjustList) {
+            count += a.getCount();
+        }
+        return (int) count;
     }
 
     /**
@@ -297,28 +869,16 @@ public class MessageReceiver {
      * @return
      */
     public int getQuantityByName(String productName) {
-        int qty = 0;
-        Map<String, Report> repMap = populateReportMap();
-        Report r = repMap.get(productName);
-        if (r != null && r.getName() != null) {
-            qty = r.getQuantity();
-        }
-        return qty;
+        return aggregator.quantity(dictionary.lookup(productName));
     }
 
     /**
-     * This is used to find total Sales price by the product name
+     * This is used to find total Sales price in pence by the product name
      *
      * @param productName
      * @return
      */
-    public float getTotalSalePriceByName(String productName) {
-        float sales = 0;
-        Map<String, Report> repMap = populateReportMap();
-        Report r = repMap.get(productName);
-        if (r != null && r.getName() != null) {
-            sales = r.getTotalPrice();
-        }
-        return sales;
+    public long getTotalSalePriceByName(String productName) {
+        return aggregator.value(dictionary.lookup(productName));
     }
 }
\ No newline at end of file
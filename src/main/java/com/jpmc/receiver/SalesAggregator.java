@@ -0,0 +1,294 @@
+package com.jpmc.receiver;
+
+import com.jpmc.domain.Product;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+
+/**
+ * Per product running totals shared by every connection. The counters are striped
+ * adders, so concurrent sales of the same product do not contend on one memory
+ * location, and the stripes are only summed when a report or query reads them.
+ * <p>
+ * Adjustments are applied to the totals as they arrive, in constant time, as the
+ * transform {@code value = factor * value + perUnit * quantity}, the product of a
+ * fractional factor rounded half up to whole pence. The lock of a product
+ * is striped like its counters: a sale read locks the stripe of its thread, and an
+ * adjustment write locks every stripe, so every sale is either wholly before or wholly
+ * after an adjustment of the same product while concurrent sales do not share a lock
+ * word. A message can be handed to the journal under the same lock, so the journal
+ * holds the sales and adjustments of a product in the order they were applied.
+ * <p>
+ * A product whose totals change is queued once until {@link #nextChanged()} takes it,
+ * so the {@link SalesView} published for queries is only updated for what changed.
+ *
+ * @author Stanly
+ */
+public class SalesAggregator {
+
+    //A power of two, about one stripe per processor
+    private static final int STRIPES = Integer.highestOneBit(Math.max(1, Math.min(64, Runtime.getRuntime().availableProcessors())) * 2 - 1);
+
+    private volatile ProductTotals[] totals = allocate(new ProductTotals[0], 16);
+    private final Queue<Integer> changed = new ConcurrentLinkedQueue<Integer>();
+
+    /**
+     * Add a sale to the running totals of the product.
+     *
+     * @param productId
+     * @param quantity
+     * @param value in pence
+     */
+    public void add(int productId, int quantity, long value) {
+        add(productId, quantity, value, null, null);
+    }
+
+    /**
+     * Add a sale to the running totals of its product, handing it to the journal under
+     * the lock of the product.
+     *
+     * @param sale    the sale message
+     * @param journal journals the message, null when there is none
+     */
+    public void add(Product sale, Consumer<Product> journal) {
+        add(sale.getProductId(), sale.getQuantity(), sale.getQuantity() * sale.getPrice(), sale, journal);
+    }
+
+    private void add(int productId, int quantity, long value, Product sale, Consumer<Product> journal) {
+        ProductTotals t = totals(productId);
+        StampedLock lock = t.stripes[(int) Thread.currentThread().getId() & (STRIPES - 1)];
+        long stamp = lock.readLock();
+        try {
+            if (journal != null)
+                journal.accept(sale);
+            t.quantity.add(quantity);
+            t.value.add(value);
+            //Under the lock, so an adjustment after this sale sees the product sold
+            if (!t.sold)
+                t.sold = true;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        changed(productId, t);
+    }
+
+    /**
+     * Apply an adjustment to every sale of the product recorded so far.
+     *
+     * @param adjustment the adjustment message
+     * @param factor     multiplier of the total value, in units of {@link Product#FACTOR_SCALE}
+     * @param perUnit    pence added to each unit sold
+     * @return the adjustment with the totals before and after it
+     */
+    public Adjustment adjust(Product adjustment, long factor, long perUnit) {
+        int productId = adjustment.getProductId();
+        if (!hasSales(productId))
+            return new Adjustment(adjustment, false, 0, 0, 0);
+        return adjust(adjustment, factor, perUnit, null);
+    }
+
+    /**
+     * Apply an adjustment to every sale of the product recorded so far, handing it to the
+     * journal under the lock of the product, so no sale of the product is applied and
+     * journaled in a different order around it.
+     *
+     * @param adjustment the adjustment message
+     * @param factor     multiplier of the total value, in units of {@link Product#FACTOR_SCALE}
+     * @param perUnit    pence added to each unit sold
+     * @param journal    journals the message, null when there is none
+     * @return the adjustment with the totals before and after it
+     */
+    public Adjustment adjust(Product adjustment, long factor, long perUnit, Consumer<Product> journal) {
+        int productId = adjustment.getProductId();
+        if (productId < 0) {
+            if (journal != null)
+                journal.accept(adjustment);
+            return new Adjustment(adjustment, false, 0, 0, 0);
+        }
+        ProductTotals t = totals(productId);
+        Adjustment applied;
+        long[] stamps = t.lockAll();
+        try {
+            if (journal != null)
+                journal.accept(adjustment);
+            if (!t.sold)
+                return new Adjustment(adjustment, false, 0, 0, 0);
+            long quantity = t.quantity.sum();
+            long before = t.value.sum();
+            long after = multiply(before, factor) + perUnit * quantity;
+            t.value.add(after - before);
+            applied = new Adjustment(adjustment, true, (int) quantity, before, after);
+        } finally {
+            t.unlockAll(stamps);
+        }
+        changed(productId, t);
+        return applied;
+    }
+
+    /**
+     * Value in pence times a factor in units of {@link Product#FACTOR_SCALE}, rounded half
+     * up to whole pence.
+     *
+     * @param value
+     * @param factor
+     * @return
+     */
+    static long multiply(long value, long factor) {
+        if (factor % Product.FACTOR_SCALE == 0)
+            return value * (factor / Product.FACTOR_SCALE);
+        return Math.floorDiv(value * factor + Product.FACTOR_SCALE / 2, Product.FACTOR_SCALE);
+    }
+
+    /**
+     * Apply the run of a {@link SalesBatch} to the totals of the product in one step,
+     * resolving the adjustments of the run against the totals it starts from.
+     *
+     * @param productId
+     * @param run
+     */
+    void apply(int productId, SalesBatch.Run run) {
+        ProductTotals t = totals(productId);
+        long[] stamps = t.lockAll();
+        try {
+            long quantity = t.quantity.sum();
+            long before = t.value.sum();
+            run.resolve(quantity, before, t.sold);
+            t.quantity.add(run.quantity);
+            t.value.add(run.factor * before + run.perUnit * quantity + run.value - before);
+            if (run.sold)
+                t.sold = true;
+        } finally {
+            t.unlockAll(stamps);
+        }
+        changed(productId, t);
+    }
+
+    /**
+     * Queue the product unless it is queued already. The flag is read after the totals
+     * are written and cleared before they are read, so a change is either seen by the
+     * reader that took the product or queues it again.
+     */
+    private void changed(int productId, ProductTotals t) {
+        if (!t.changed) {
+            t.changed = true;
+            changed.add(productId);
+        }
+    }
+
+    /**
+     * Take the next product whose totals changed since it was last taken.
+     *
+     * @return product id, -1 when none changed
+     */
+    int nextChanged() {
+        Integer id = changed.poll();
+        if (id == null)
+            return -1;
+        totals[id].changed = false;
+        return id;
+    }
+
+    boolean hasChanges() {
+        return !changed.isEmpty();
+    }
+
+    /**
+     * True once at least one sale of the product has been added.
+     *
+     * @param productId
+     * @return
+     */
+    public boolean hasSales(int productId) {
+        ProductTotals[] t = totals;
+        return productId >= 0 && productId < t.length && t[productId].sold;
+    }
+
+    public int quantity(int productId) {
+        ProductTotals[] t = totals;
+        return productId >= 0 && productId < t.length ? t[productId].quantity.intValue() : 0;
+    }
+
+    /**
+     * Total value of the product in pence
+     *
+     * @param productId
+     * @return
+     */
+    public long value(int productId) {
+        ProductTotals[] t = totals;
+        return productId >= 0 && productId < t.length ? t[productId].value.sum() : 0;
+    }
+
+    /**
+     * Upper bound (exclusive) of the product ids held.
+     *
+     * @return
+     */
+    public int capacity() {
+        return totals.length;
+    }
+
+    private ProductTotals totals(int productId) {
+        ProductTotals[] t = totals;
+        if (productId < t.length) {
+            return t[productId];
+        }
+        return grow(productId);
+    }
+
+    /**
+     * The array only grows when a new product id is seen. All slots are filled before
+     * the array is published, so writers never race to create a slot.
+     */
+    private synchronized ProductTotals grow(int productId) {
+        ProductTotals[] t = totals;
+        if (productId >= t.length) {
+            t = allocate(t, Math.max(t.length * 2, productId + 1));
+            totals = t;
+        }
+        return t[productId];
+    }
+
+    private static ProductTotals[] allocate(ProductTotals[] from, int capacity) {
+        ProductTotals[] t = new ProductTotals[capacity];
+        System.arraycopy(from, 0, t, 0, from.length);
+        for (int i = from.length; i < capacity; i++) {
+            t[i] = new ProductTotals();
+        }
+        return t;
+    }
+
+    private static final class ProductTotals {
+        private final LongAdder quantity = new LongAdder();
+        private final LongAdder value = new LongAdder();
+        private final StampedLock[] stripes = new StampedLock[STRIPES];
+        private volatile boolean sold = false;
+        private volatile boolean changed = false;
+
+        private ProductTotals() {
+            for (int i = 0; i < STRIPES; i++) {
+                stripes[i] = new StampedLock();
+            }
+        }
+
+        /**
+         * Write lock every stripe, always in the same order
+         */
+        private long[] lockAll() {
+            long[] stamps = new long[STRIPES];
+            for (int i = 0; i < STRIPES; i++) {
+                stamps[i] = stripes[i].writeLock();
+            }
+            return stamps;
+        }
+
+        private void unlockAll(long[] stamps) {
+            for (int i = STRIPES - 1; i >= 0; i--) {
+                stripes[i].unlockWrite(stamps[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.jpmc.receiver;
+
+import com.jpmc.domain.Product;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Combined effect of a run of consecutive messages, built without looking at the
+ * receiver so runs can be folded on separate threads and merged afterwards.
+ * <p>
+ * Sales and adjustments of a product compose into one transform of its totals,
+ * {@code value = factor * value + perUnit * quantity + sold value} and
+ * {@code quantity = quantity + sold quantity}, so a batch is merged in constant time per
+ * product whatever the number of messages. Batches must be merged in message order,
+ * as adjustments only apply to the sales before them.
+ * <p>
+ * A fractional Multiply factor rounds the totals it meets to whole pence, which does
+ * not compose, so it closes the runs folded so far into a stage and is applied on its
+ * own between that stage and the next.
+ *
+ * @author Stanly
+ */
+public final class SalesBatch {
+
+    private Run[] runs = new Run[16];
+    private final List<Stage> stages = new ArrayList<Stage>();
+    private final List<PendingAdjustment> adjustments = new ArrayList<PendingAdjustment>();
+    private long messageCount = 0;
+
+    /**
+     * Fold the next message of the run into the batch.
+     *
+     * @param p processed message
+     */
+    public void add(Product p) {
+        messageCount++;
+        int productId = p.getProductId();
+        switch (p.getType()) {
+            case ADDITION:
+                adjust(p, 1, p.getAdjustPrice());
+                break;
+            case MULTIPLICATION:
+                if (p.getAdjustPrice() % Product.FACTOR_SCALE == 0)
+                    adjust(p, p.getAdjustPrice() / Product.FACTOR_SCALE, 0);
+                else
+                    closeStage(p);
+                break;
+            case SUBTRACTION:
+                adjust(p, 1, -p.getAdjustPrice());
+                break;
+            default:
+                if (productId >= 0 && p.getPrice() > 0)
+                    run(productId).sale(p.getQuantity(), p.getQuantity() * p.getPrice());
+        }
+    }
+
+    /**
+     * Number of messages folded into the batch
+     *
+     * @return
+     */
+    public long messageCount() {
+        return messageCount;
+    }
+
+    private void adjust(Product p, long factor, long perUnit) {
+        int productId = p.getProductId();
+        Run run = productId >= 0 ? run(productId) : null;
+        adjustments.add(new PendingAdjustment(p, run, factor, perUnit));
+        if (run != null)
+            run.adjust(factor, perUnit);
+    }
+
+    private void closeStage(Product multiply) {
+        PendingAdjustment adjustment = new PendingAdjustment(multiply, null, 1, 0);
+        adjustments.add(adjustment);
+        stages.add(new Stage(runs, adjustment));
+        runs = new Run[16];
+    }
+
+    private Run run(int productId) {
+        if (productId >= runs.length)
+            runs = Arrays.copyOf(runs, Math.max(runs.length * 2, productId + 1));
+        Run run = runs[productId];
+        if (run == null) {
+            run = new Run();
+            runs[productId] = run;
+        }
+        return run;
+    }
+
+    /**
+     * Apply the batch to the totals and return its adjustments, in message order.
+     */
+    List<Adjustment> applyTo(SalesAggregator aggregator) {
+        for (Stage stage : stages) {
+            apply(aggregator, stage.runs);
+            Product multiply = stage.multiply.product;
+            stage.multiply.resolved = aggregator.adjust(multiply, multiply.getAdjustPrice(), 0);
+        }
+        apply(aggregator, runs);
+        List<Adjustment> applied = new ArrayList<Adjustment>(adjustments.size());
+        for (PendingAdjustment a : adjustments) {
+            applied.add(a.resolved != null ? a.resolved : new Adjustment(a.product, false, 0, 0, 0));
+        }
+        return applied;
+    }
+
+    private static void apply(SalesAggregator aggregator, Run[] runs) {
+        for (int id = 0; id < runs.length; id++) {
+            if (runs[id] != null)
+                aggregator.apply(id, runs[id]);
+        }
+    }
+
+    /**
+     * Runs folded before a fractional Multiply, and that Multiply.
+     */
+    private static final class Stage {
+        private final Run[] runs;
+        private final PendingAdjustment multiply;
+
+        private Stage(Run[] runs, PendingAdjustment multiply) {
+            this.runs = runs;
+            this.multiply = multiply;
+        }
+    }
+
+    /**
+     * Transform of the totals of one product over the batch, with the adjustments met.
+     */
+    static final class Run {
+        long factor = 1;
+        long perUnit = 0;
+        long value = 0;
+        long quantity = 0;
+        boolean sold = false;
+        final List<PendingAdjustment> adjustments = new ArrayList<PendingAdjustment>();
+
+        private void sale(int quantity, long value) {
+            this.quantity += quantity;
+            this.value += value;
+            sold = true;
+        }
+
+        private void adjust(long factor, long perUnit) {
+            this.perUnit = factor * this.perUnit + perUnit;
+            this.value = factor * this.value + perUnit * quantity;
+            this.factor = factor * this.factor;
+        }
+
+        /**
+         * Resolve the adjustments against the totals the batch starts from.
+         */
+        void resolve(long quantity, long value, boolean sold) {
+            for (PendingAdjustment a : adjustments) {
+                a.resolve(quantity, value, sold);
+            }
+        }
+    }
+
+    /**
+     * An adjustment with the transform of its product up to the adjustment, so its
+     * totals before and after are known once the batch is merged.
+     */
+    static final class PendingAdjustment {
+        private final Product product;
+        private final long factor;
+        private final long perUnit;
+        private final long runFactor;
+        private final long runPerUnit;
+        private final long runValue;
+        private final long runQuantity;
+        private final boolean runSold;
+        private Adjustment resolved = null;
+
+        private PendingAdjustment(Product product, Run run, long factor, long perUnit) {
+            this.product = product;
+            this.factor = factor;
+            this.perUnit = perUnit;
+            this.runFactor = run != null ? run.factor : 1;
+            this.runPerUnit = run != null ? run.perUnit : 0;
+            this.runValue = run != null ? run.value : 0;
+            this.runQuantity = run != null ? run.quantity : 0;
+            this.runSold = run != null && run.sold;
+            if (run != null)
+                run.adjustments.add(this);
+        }
+
+        private void resolve(long quantity, long value, boolean sold) {
+            if (!sold && !runSold) {
+                resolved = new Adjustment(product, false, 0, 0, 0);
+                return;
+            }
+            long q = quantity + runQuantity;
+            long before = runFactor * value + runPerUnit * quantity + runValue;
+            resolved = new Adjustment(product, true, (int) q, before, factor * before + perUnit * q);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.jpmc.receiver;
+
+import com.jpmc.domain.ProductDictionary;
+import com.jpmc.domain.Report;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Immutable copy of the running totals for queries, with the products ranked by value
+ * and by quantity. A new version is published once products changed, so dashboards
+ * polling it read plain arrays and never take a lock of the {@link SalesAggregator}.
+ * <p>
+ * Each product total is read on its own while sales go on, so a version may be a few
+ * sales behind for some products; the products changed since are in the next version.
+ *
+ * @author Stanly
+ */
+public final class SalesView {
+
+    private final long version;
+    private final ProductDictionary dictionary;
+    private final long[] quantity;
+    private final long[] value;
+    private final boolean[] sold;
+    private final int[] topByValue;
+    private final int[] topByQuantity;
+
+    SalesView(long version, ProductDictionary dictionary, long[] quantity, long[] value, boolean[] sold,
+              int[] topByValue, int[] topByQuantity) {
+        this.version = version;
+        this.dictionary = dictionary;
+        this.quantity = quantity;
+        this.value = value;
+        this.sold = sold;
+        this.topByValue = topByValue;
+        this.topByQuantity = topByQuantity;
+    }
+
+    /**
+     * Number of the version, increasing with every one published
+     *
+     * @return
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public int getQuantity(String productName) {
+        int id = dictionary.lookup(productName);
+        return id >= 0 && id < quantity.length ? (int) quantity[id] : 0;
+    }
+
+    /**
+     * Total value of the product in pence
+     *
+     * @param productName
+     * @return
+     */
+    public long getTotalPrice(String productName) {
+        int id = dictionary.lookup(productName);
+        return id >= 0 && id < value.length ? value[id] : 0;
+    }
+
+    /**
+     * Totals of every product sold, by product id
+     *
+     * @return
+     */
+    public List<Report> getProducts() {
+        List<Report> products = new ArrayList<Report>();
+        for (int id = 0; id < sold.length; id++) {
+            if (sold[id])
+                products.add(report(id));
+        }
+        return products;
+    }
+
+    /**
+     * The products of the highest total value, highest first
+     *
+     * @param n at most the ranking size the view was published with
+     * @return
+     */
+    public List<Report> topByValue(int n) {
+        return reports(topByValue, n);
+    }
+
+    /**
+     * The products of the highest quantity sold, highest first
+     *
+     * @param n at most the ranking size the view was published with
+     * @return
+     */
+    public List<Report> topByQuantity(int n) {
+        return reports(topByQuantity, n);
+    }
+
+    private List<Report> reports(int[] ids, int n) {
+        List<Report> reports = new ArrayList<Report>();
+        for (int i = 0; i < ids.length && i < n; i++) {
+            reports.add(report(ids[i]));
+        }
+        return reports;
+    }
+
+    private Report report(int id) {
+        return new Report(dictionary.name(id), (int) quantity[id], value[id]);
+    }
+}
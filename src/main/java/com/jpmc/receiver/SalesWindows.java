@@ -0,0 +1,284 @@
+package com.jpmc.receiver;
+
+import com.jpmc.domain.ProductDictionary;
+import com.jpmc.domain.Report;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Sales by product per fixed window of time, e.g. per second, over the last windows,
+ * e.g. the last minute. The windows are a ring of buckets; a sale goes to the bucket of
+ * its window, and a bucket still holding a window that fell out of the ring gets fresh
+ * counters when the first sale of its new window arrives. Nothing is rescanned, so
+ * reading the last windows costs the same whatever the traffic.
+ * <p>
+ * A tumbling report reads the last complete window, a sliding one sums the last n. The
+ * counters of a window are striped per product, like the totals of the
+ * {@link SalesAggregator}, so sales from any number of connections are recorded without
+ * a lock; a bucket is only locked to start its new window, once per window.
+ *
+ * @author Stanly
+ */
+public final class SalesWindows {
+
+    private final ProductDictionary dictionary;
+    private final long windowMillis;
+    private final Bucket[] ring;
+    private final LongSupplier clock;
+
+    /**
+     * @param dictionary   names of the product ids recorded
+     * @param windowMillis length of a window
+     * @param windows      number of windows kept, the longest sliding window
+     */
+    public SalesWindows(ProductDictionary dictionary, long windowMillis, int windows) {
+        this(dictionary, windowMillis, windows, new LongSupplier() {
+            @Override
+            public long getAsLong() {
+                return System.currentTimeMillis();
+            }
+        });
+    }
+
+    /**
+     * @param dictionary
+     * @param windowMillis
+     * @param windows
+     * @param clock        current time in milliseconds
+     */
+    public SalesWindows(ProductDictionary dictionary, long windowMillis, int windows, LongSupplier clock) {
+        if (windowMillis <= 0 || windows <= 0)
+            throw new IllegalArgumentException("Window length and count must be positive");
+        this.dictionary = dictionary;
+        this.windowMillis = windowMillis;
+        this.clock = clock;
+        //One more bucket than windows, the window in progress
+        this.ring = new Bucket[windows + 1];
+        for (int i = 0; i < ring.length; i++) {
+            ring[i] = new Bucket();
+        }
+    }
+
+    /**
+     * Add a sale to the window of the current time.
+     *
+     * @param productId
+     * @param quantity
+     * @param value     in pence
+     */
+    public void record(int productId, int quantity, long value) {
+        long window = clock.getAsLong() / windowMillis;
+        Bucket b = ring[(int) (window % ring.length)];
+        Counters c = b.counters;
+        if (c.window != window) {
+            //A sale timed just before the window turned, its bucket is already reused
+            if (c.window > window)
+                return;
+            c = b.start(window);
+            if (c.window != window)
+                return;
+        }
+        c.add(productId, quantity, value);
+    }
+
+    /**
+     * The last complete windows, oldest first. Windows without sales are included, empty.
+     *
+     * @param n number of windows, at most {@link #windows()}
+     * @return
+     */
+    public List<Window> last(int n) {
+        long current = clock.getAsLong() / windowMillis;
+        n = Math.min(n, windows());
+        List<Window> windows = new ArrayList<Window>(n);
+        for (long w = current - n; w < current; w++) {
+            Window window = new Window(w * windowMillis, (w + 1) * windowMillis);
+            copy(w, window);
+            windows.add(window);
+        }
+        return windows;
+    }
+
+    /**
+     * Sliding window: the sales of the last complete windows summed up.
+     *
+     * @param n number of windows, at most {@link #windows()}
+     * @return
+     */
+    public Window sum(int n) {
+        long current = clock.getAsLong() / windowMillis;
+        n = Math.min(n, windows());
+        Window window = new Window((current - n) * windowMillis, current * windowMillis);
+        for (long w = current - n; w < current; w++) {
+            copy(w, window);
+        }
+        return window;
+    }
+
+    /**
+     * Length of a window in milliseconds
+     *
+     * @return
+     */
+    public long windowMillis() {
+        return windowMillis;
+    }
+
+    /**
+     * Number of complete windows kept
+     *
+     * @return
+     */
+    public int windows() {
+        return ring.length - 1;
+    }
+
+    /**
+     * Add the sales of the window, when its bucket still holds it, to the result.
+     */
+    private void copy(long window, Window into) {
+        Counters c = ring[(int) (window % ring.length)].counters;
+        if (c.window != window)
+            return;
+        into.messages += c.messages.sum();
+        Cell[] cells = c.cells;
+        if (into.quantity.length < cells.length) {
+            into.quantity = Arrays.copyOf(into.quantity, cells.length);
+            into.value = Arrays.copyOf(into.value, cells.length);
+        }
+        for (int id = 0; id < cells.length; id++) {
+            Cell cell = cells[id];
+            if (cell != null) {
+                into.quantity[id] += cell.quantity.sum();
+                into.value[id] += cell.value.sum();
+            }
+        }
+    }
+
+    /**
+     * Sales of one window or of a run of windows.
+     */
+    public final class Window {
+
+        private final long start;
+        private final long end;
+        private long messages = 0;
+        private long[] quantity = new long[0];
+        private long[] value = new long[0];
+
+        private Window(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * Start time in milliseconds, inclusive
+         *
+         * @return
+         */
+        public long getStart() {
+            return start;
+        }
+
+        /**
+         * End time in milliseconds, exclusive
+         *
+         * @return
+         */
+        public long getEnd() {
+            return end;
+        }
+
+        /**
+         * Number of sales
+         *
+         * @return
+         */
+        public long getMessages() {
+            return messages;
+        }
+
+        /**
+         * Quantity and value sold of every product with sales in the window
+         *
+         * @return
+         */
+        public List<Report> getProducts() {
+            List<Report> products = new ArrayList<Report>();
+            for (int id = 0; id < quantity.length; id++) {
+                if (quantity[id] != 0 || value[id] != 0)
+                    products.add(new Report(dictionary.name(id), (int) quantity[id], value[id]));
+            }
+            return products;
+        }
+    }
+
+    /**
+     * Slot of the ring, holding the counters of its latest window.
+     */
+    private static final class Bucket {
+
+        private volatile Counters counters = new Counters(-1);
+
+        /**
+         * Fresh counters for the window, unless another sale already started it or a
+         * later one
+         */
+        private synchronized Counters start(long window) {
+            if (counters.window < window)
+                counters = new Counters(window);
+            return counters;
+        }
+    }
+
+    /**
+     * Sales of one window. A sale that read its counters a whole ring of windows ago,
+     * before the bucket moved on, is added to the old counters, which no one reads any
+     * more, as if it came after its window was dropped.
+     */
+    private static final class Counters {
+
+        private final long window;
+        private final LongAdder messages = new LongAdder();
+        //Grown under the lock of the counters, cells are added under it too
+        private volatile Cell[] cells = new Cell[16];
+
+        private Counters(long window) {
+            this.window = window;
+        }
+
+        private void add(int productId, int quantity, long value) {
+            Cell[] a = cells;
+            Cell cell = productId < a.length ? a[productId] : null;
+            if (cell == null)
+                cell = cell(productId);
+            messages.increment();
+            cell.quantity.add(quantity);
+            cell.value.add(value);
+        }
+
+        private synchronized Cell cell(int productId) {
+            Cell[] a = cells;
+            if (productId >= a.length) {
+                a = Arrays.copyOf(a, Math.max(productId + 1, a.length * 2));
+            }
+            if (a[productId] == null)
+                a[productId] = new Cell();
+            cells = a;
+            return a[productId];
+        }
+    }
+
+    /**
+     * Striped totals of one product in one window.
+     */
+    private static final class Cell {
+
+        private final LongAdder quantity = new LongAdder();
+        private final LongAdder value = new LongAdder();
+    }
+}
@@ -0,0 +1,133 @@
+package com.jpmc.receiver;
+
+import com.jpmc.domain.ProductDictionary;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Publishes the {@link SalesView} of a {@link SalesAggregator}. Only the products
+ * queued as changed are read again, and the rankings are kept as sorted sets updated
+ * per changed product, so a publish costs the changes and the copy of the totals,
+ * never a sort of every product.
+ * <p>
+ * Whoever asks for the view publishes when something changed and no other thread is
+ * publishing; otherwise it gets the latest version without waiting.
+ *
+ * @author Stanly
+ */
+final class ViewPublisher {
+
+    private static final Comparator<Ranked> HIGHEST_FIRST = new Comparator<Ranked>() {
+        @Override
+        public int compare(Ranked a, Ranked b) {
+            int c = Long.compare(b.key, a.key);
+            return c != 0 ? c : Integer.compare(a.id, b.id);
+        }
+    };
+
+    private final SalesAggregator aggregator;
+    private final ProductDictionary dictionary;
+    private final int topSize;
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile SalesView view;
+
+    //Owned by the thread holding the lock
+    private long version = 0;
+    private long[] quantity = new long[16];
+    private long[] value = new long[16];
+    private boolean[] sold = new boolean[16];
+    private Ranked[] byValueEntry = new Ranked[16];
+    private Ranked[] byQuantityEntry = new Ranked[16];
+    private final TreeSet<Ranked> byValue = new TreeSet<Ranked>(HIGHEST_FIRST);
+    private final TreeSet<Ranked> byQuantity = new TreeSet<Ranked>(HIGHEST_FIRST);
+
+    ViewPublisher(SalesAggregator aggregator, ProductDictionary dictionary, int topSize) {
+        this.aggregator = aggregator;
+        this.dictionary = dictionary;
+        this.topSize = topSize;
+        this.view = new SalesView(0, dictionary, new long[0], new long[0], new boolean[0], new int[0], new int[0]);
+    }
+
+    /**
+     * The latest view, published first when products changed and no one else is publishing.
+     *
+     * @return
+     */
+    SalesView view() {
+        if (aggregator.hasChanges() && lock.tryLock()) {
+            try {
+                publish();
+            } finally {
+                lock.unlock();
+            }
+        }
+        return view;
+    }
+
+    private void publish() {
+        //Products keep changing under load, read each at most once per version
+        int limit = aggregator.capacity();
+        int changes = 0;
+        int id;
+        while (changes < limit && (id = aggregator.nextChanged()) >= 0) {
+            changes++;
+            if (id >= quantity.length)
+                grow(id);
+            quantity[id] = aggregator.quantity(id);
+            value[id] = aggregator.value(id);
+            sold[id] = aggregator.hasSales(id);
+            if (sold[id]) {
+                byValueEntry[id] = rank(byValue, byValueEntry[id], id, value[id]);
+                byQuantityEntry[id] = rank(byQuantity, byQuantityEntry[id], id, quantity[id]);
+            }
+        }
+        if (changes == 0)
+            return;
+        int length = sold.length;
+        view = new SalesView(++version, dictionary, Arrays.copyOf(quantity, length), Arrays.copyOf(value, length),
+                Arrays.copyOf(sold, length), top(byValue), top(byQuantity));
+    }
+
+    private Ranked rank(TreeSet<Ranked> ranking, Ranked entry, int id, long key) {
+        if (entry != null) {
+            if (entry.key == key)
+                return entry;
+            ranking.remove(entry);
+        }
+        Ranked ranked = new Ranked(id, key);
+        ranking.add(ranked);
+        return ranked;
+    }
+
+    private int[] top(TreeSet<Ranked> ranking) {
+        int[] ids = new int[Math.min(topSize, ranking.size())];
+        Iterator<Ranked> it = ranking.iterator();
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = it.next().id;
+        }
+        return ids;
+    }
+
+    private void grow(int id) {
+        int length = Math.max(id + 1, quantity.length * 2);
+        quantity = Arrays.copyOf(quantity, length);
+        value = Arrays.copyOf(value, length);
+        sold = Arrays.copyOf(sold, length);
+        byValueEntry = Arrays.copyOf(byValueEntry, length);
+        byQuantityEntry = Arrays.copyOf(byQuantityEntry, length);
+    }
+
+    private static final class Ranked {
+        private final int id;
+        private final long key;
+
+        private Ranked(int id, long key) {
+            this.id = id;
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.jpmc.report;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Base of the sinks: keeps the pool of report buffers and writes each published report
+ * on the calling thread.
+ *
+ * @author Stanly
+ */
+public abstract class AbstractReportSink implements ReportSink {
+
+    private static final int BUFFER_SIZE = 4096;
+    private static final int MAX_POOLED = 16;
+    //Buffers grown beyond this (a huge report) are left to the garbage collector
+    private static final int MAX_POOLED_CAPACITY = 1 << 20;
+
+    private final Logger logger = Logger.getLogger(getClass().getName());
+    private final Queue<StringBuilder> pool = new ConcurrentLinkedQueue<StringBuilder>();
+
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+
+    @Override
+    public StringBuilder buffer() {
+        StringBuilder buffer = pool.poll();
+        return buffer != null ? buffer : new StringBuilder(BUFFER_SIZE);
+    }
+
+    @Override
+    public void publish(StringBuilder report) {
+        try {
+            write(report);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Report could not be written", e);
+        }
+        recycle(report);
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Write one complete report.
+     *
+     * @param report
+     * @throws IOException
+     */
+    protected abstract void write(CharSequence report) throws IOException;
+
+    /**
+     * Return a buffer to the pool once its report is written.
+     *
+     * @param buffer
+     */
+    protected void recycle(StringBuilder buffer) {
+        if (buffer.capacity() <= MAX_POOLED_CAPACITY && pool.size() < MAX_POOLED) {
+            buffer.setLength(0);
+            pool.offer(buffer);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.jpmc.report;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Writes the reports of another sink on a background thread, so the thread that
+ * triggered a report only renders it and never waits on the console or the disk.
+ *
+ * @author Stanly
+ */
+public class AsyncReportSink extends AbstractReportSink {
+
+    //Queued by close, the writer stops when it reaches it
+    private static final StringBuilder STOP = new StringBuilder(0);
+
+    private final AbstractReportSink delegate;
+    private final BlockingQueue<StringBuilder> pending = new LinkedBlockingQueue<StringBuilder>();
+    private final Thread writer;
+
+    public AsyncReportSink(AbstractReportSink delegate) {
+        this.delegate = delegate;
+        this.writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "report-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return delegate.isEnabled();
+    }
+
+    @Override
+    public void publish(StringBuilder report) {
+        pending.offer(report);
+    }
+
+    @Override
+    protected void write(CharSequence report) throws IOException {
+        delegate.write(report);
+    }
+
+    /**
+     * Wait until every report published so far is written, then close the delegate.
+     */
+    @Override
+    public void close() {
+        pending.offer(STOP);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        delegate.close();
+    }
+
+    private void writeLoop() {
+        while (true) {
+            StringBuilder report;
+            try {
+                report = pending.take();
+            } catch (InterruptedException e) {
+                continue;
+            }
+            if (report == STOP)
+                return;
+            super.publish(report);
+        }
+    }
+}
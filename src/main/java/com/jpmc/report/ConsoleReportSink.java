@@ -0,0 +1,19 @@
+package com.jpmc.report;
+
+import java.io.PrintStream;
+
+/**
+ * Prints the reports on the console.
+ *
+ * @author Stanly
+ */
+public class ConsoleReportSink extends AbstractReportSink {
+
+    @Override
+    protected void write(CharSequence report) {
+        //Looked up on every report, so a redirected System.out is honoured
+        PrintStream out = System.out;
+        out.append(report);
+        out.flush();
+    }
+}
@@ -0,0 +1,41 @@
+package com.jpmc.report;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Appends the reports to a file.
+ *
+ * @author Stanly
+ */
+public class FileReportSink extends AbstractReportSink {
+
+    private final Logger logger = Logger.getLogger(FileReportSink.class.getName());
+    private final Writer writer;
+
+    public FileReportSink(Path file) throws IOException {
+        this.writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE);
+    }
+
+    @Override
+    protected synchronized void write(CharSequence report) throws IOException {
+        writer.append(report);
+        writer.flush();
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            writer.close();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Report file could not be closed", e);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.jpmc.report;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the reports in memory, mainly for tests.
+ *
+ * @author Stanly
+ */
+public class MemoryReportSink extends AbstractReportSink {
+
+    private final List<String> reports = new ArrayList<String>();
+
+    @Override
+    protected synchronized void write(CharSequence report) {
+        reports.add(report.toString());
+    }
+
+    /**
+     * The reports written so far, oldest first
+     *
+     * @return
+     */
+    public synchronized List<String> getReports() {
+        return new ArrayList<String>(reports);
+    }
+}
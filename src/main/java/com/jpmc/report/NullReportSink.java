@@ -0,0 +1,18 @@
+package com.jpmc.report;
+
+/**
+ * Discards the reports. As it is disabled, the receiver does not even render them.
+ *
+ * @author Stanly
+ */
+public class NullReportSink extends AbstractReportSink {
+
+    @Override
+    public boolean isEnabled() {
+        return false;
+    }
+
+    @Override
+    protected void write(CharSequence report) {
+    }
+}
@@ -0,0 +1,37 @@
+package com.jpmc.report;
+
+/**
+ * Destination of the reports printed by the receiver. A report is rendered into a
+ * buffer taken from the sink and handed back with {@link #publish(StringBuilder)},
+ * so buffers are reused instead of building new strings for every report.
+ *
+ * @author Stanly
+ */
+public interface ReportSink {
+
+    /**
+     * False when nobody reads the reports, the receiver then skips rendering them.
+     *
+     * @return
+     */
+    boolean isEnabled();
+
+    /**
+     * Empty buffer to render one report into.
+     *
+     * @return
+     */
+    StringBuilder buffer();
+
+    /**
+     * Write a report. The sink owns the buffer afterwards and may reuse it.
+     *
+     * @param report
+     */
+    void publish(StringBuilder report);
+
+    /**
+     * Write out anything still pending and release the sink.
+     */
+    void close();
+}
@@ -0,0 +1,226 @@
+package com.jpmc.server;
+
+import com.jpmc.config.Configuration;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Sessions of the clients connecting with the {@link Handshake#SEQUENCED} handshake,
+ * by name. A session outlives its connections: a client reconnecting under the same
+ * name resends from the last sequence acknowledged, and the lines handled before the
+ * acknowledgement reached it are dropped as duplicates.
+ * <p>
+ * Each session remembers the sequence up to which every line was handled, plus a
+ * bitmap of the lines handled within a window above it, so lines may arrive out of
+ * order within the window. Lines beyond the window are neither handled nor
+ * acknowledged; the client sends them again after the acknowledgements catch up. The
+ * acknowledged sequence only covers lines already handed to the handler, and the
+ * session keeps the highest ticket they got, so an acknowledgement can wait for the
+ * handler to apply them.
+ * <p>
+ * A session neither opened nor sent a line for the idle time is forgotten, checked
+ * when new sessions are opened, so the names of clients gone for good do not stay in
+ * memory. A client reconnecting later starts a new session; the idle time is to outlast
+ * any reconnect delay of a client.
+ *
+ * @author Stanly
+ */
+public final class DeliverySessions {
+
+    public static final int ACCEPTED = 0;
+    public static final int DUPLICATE = 1;
+    public static final int AHEAD = 2;
+
+    private final ConcurrentMap<String, Session> sessions = new ConcurrentHashMap<String, Session>();
+    private final int window;
+    private final long idleMillis;
+    private volatile long nextSweep = 0;
+
+    public DeliverySessions() {
+        this(Configuration.get().getDeliveryDedupWindow(), Configuration.get().getDeliverySessionIdleMs());
+    }
+
+    /**
+     * @param window     lines remembered above the acknowledged sequence, rounded up to a
+     *                   multiple of 64 and a power of two
+     * @param idleMillis time after which an unused session is forgotten
+     */
+    public DeliverySessions(int window, long idleMillis) {
+        this.window = Integer.highestOneBit(Math.max(64, window) - 1) << 1;
+        this.idleMillis = idleMillis;
+    }
+
+    /**
+     * The session of the name, opened on first use
+     *
+     * @param name
+     * @return
+     */
+    public Session session(String name) {
+        long now = System.currentTimeMillis();
+        while (true) {
+            Session session = sessions.get(name);
+            if (session == null) {
+                sweep(now);
+                Session opened = new Session(window, now);
+                session = sessions.putIfAbsent(name, opened);
+                if (session == null)
+                    return opened;
+            }
+            //Unless it was forgotten meanwhile, then it is about to leave the map
+            if (session.use(now))
+                return session;
+        }
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    /**
+     * Forget the sessions idle for longer than the idle time, at most twice per idle time
+     */
+    private void sweep(long now) {
+        if (now < nextSweep)
+            return;
+        nextSweep = now + Math.max(1, idleMillis / 2);
+        for (Map.Entry<String, Session> e : sessions.entrySet()) {
+            if (e.getValue().forget(now - idleMillis))
+                sessions.remove(e.getKey(), e.getValue());
+        }
+    }
+
+    /**
+     * Sequence number a session line starts with, followed by a space
+     *
+     * @param line
+     * @return the sequence, -1 when the line has none
+     */
+    static long sequence(String line) {
+        int space = line.indexOf(' ');
+        if (space <= 0 || space > 18)
+            return -1;
+        long sequence = 0;
+        for (int i = 0; i < space; i++) {
+            char c = line.charAt(i);
+            if (c < '0' || c > '9')
+                return -1;
+            sequence = sequence * 10 + (c - '0');
+        }
+        return sequence > 0 ? sequence : -1;
+    }
+
+    /**
+     * The message of a session line with a sequence
+     *
+     * @param line
+     * @return
+     */
+    static String message(String line) {
+        return line.substring(line.indexOf(' ') + 1);
+    }
+
+    /**
+     * The lines handled of one client session
+     */
+    public static final class Session {
+
+        private final long[] handled;
+        private final long mask;
+        private long acknowledged = 0;
+        //Lines accepted but not handed over yet, and the acknowledged sequence when there were none
+        private int handing = 0;
+        private long settled = 0;
+        private long ticket = -1;
+        private long lastUsed;
+        private boolean forgotten = false;
+
+        private Session(int window, long now) {
+            this.handled = new long[window / 64];
+            this.mask = window - 1;
+            this.lastUsed = now;
+        }
+
+        /**
+         * Take the line of the sequence to handle, unless it was already. An accepted
+         * line is to be reported {@link #handed(long)} once handed to the handler.
+         *
+         * @param sequence
+         * @return {@link #ACCEPTED} when it is to be handled, {@link #DUPLICATE} or
+         * {@link #AHEAD} of the window
+         */
+        public synchronized int accept(long sequence) {
+            lastUsed = System.currentTimeMillis();
+            if (sequence <= acknowledged)
+                return DUPLICATE;
+            if (sequence - acknowledged > handled.length * 64L)
+                return AHEAD;
+            if (isHandled(sequence))
+                return DUPLICATE;
+            flip(sequence);
+            while (isHandled(acknowledged + 1)) {
+                acknowledged++;
+                flip(acknowledged);
+            }
+            handing++;
+            return ACCEPTED;
+        }
+
+        /**
+         * A line accepted was handed to the handler
+         *
+         * @param ticket ticket the handler gave the line
+         */
+        public synchronized void handed(long ticket) {
+            this.ticket = Math.max(this.ticket, ticket);
+            if (--handing == 0)
+                settled = acknowledged;
+        }
+
+        /**
+         * Sequence up to which every line of the session was taken and handed to the
+         * handler
+         *
+         * @return
+         */
+        public synchronized long acknowledged() {
+            return handing == 0 ? acknowledged : settled;
+        }
+
+        /**
+         * Highest ticket of the lines handed to the handler, read after
+         * {@link #acknowledged()} it covers every line acknowledged
+         *
+         * @return -1 before the first
+         */
+        public synchronized long ticket() {
+            return ticket;
+        }
+
+        private synchronized boolean use(long now) {
+            lastUsed = Math.max(lastUsed, now);
+            return !forgotten;
+        }
+
+        /**
+         * @return true when forgotten, unused since before the time
+         */
+        private synchronized boolean forget(long before) {
+            if (lastUsed < before)
+                forgotten = true;
+            return forgotten;
+        }
+
+        private boolean isHandled(long sequence) {
+            int bit = (int) (sequence & mask);
+            return (handled[bit >>> 6] & 1L << bit) != 0;
+        }
+
+        private void flip(long sequence) {
+            int bit = (int) (sequence & mask);
+            handled[bit >>> 6] ^= 1L << bit;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.jpmc.server;
+
+import com.jpmc.msg.BinaryMessageCodec;
+
+/**
+ * First byte a client may open its connection with to choose the protocol. Any other
+ * first byte starts a plain text connection, so text clients need no handshake.
+ *
+ * @author Stanly
+ */
+public final class Handshake {
+
+    /**
+     * Frames of the {@link BinaryMessageCodec}
+     */
+    public static final byte BINARY = BinaryMessageCodec.HANDSHAKE;
+    /**
+     * Text lines, each acknowledged with one {@link #ACK} byte once it is handled, in
+     * order, so a client can measure end to end latency
+     */
+    public static final byte ACKED_TEXT = 0x06;
+    public static final byte ACK = 0x06;
+    /**
+     * No messages: the server answers with its aggregate state in the
+     * {@link com.jpmc.snapshot.SnapshotFile} layout and closes the connection, used by the
+     * report coordinator of a partitioned cluster
+     */
+    public static final byte AGGREGATE_DUMP = 0x05;
+    /**
+     * Text lines of a {@link DeliverySessions delivery session}: the first line names the
+     * session, every other line is a sequence number, a space and the message. The server
+     * answers with cumulative {@link #SEQUENCE_ACK} frames, and drops the lines of the
+     * session it already handled, e.g. resent after a reconnect
+     */
+    public static final byte SEQUENCED = 0x11;
+    /**
+     * Followed by the 8 byte big-endian sequence number up to which every line of the
+     * session was handled
+     */
+    public static final byte SEQUENCE_ACK = 0x11;
+    public static final int SEQUENCE_ACK_LENGTH = 9;
+
+    private Handshake() {
+    }
+}
@@ -1,10 +1,38 @@
 package com.jpmc.server;
 
-import com.jpmc.domain.ApplicationEnum;
+import com.jpmc.config.Configuration;
+import com.jpmc.config.Settings;
+import com.jpmc.domain.Product;
+import com.jpmc.history.SalesHistory;
+import com.jpmc.journal.JournalReader;
+import com.jpmc.journal.SalesJournal;
+import com.jpmc.journal.SyncPolicy;
+import com.jpmc.metrics.MBeans;
+import com.jpmc.metrics.ServerMetrics;
+import com.jpmc.pipeline.MessagePipeline;
+import com.jpmc.pipeline.WaitStrategy;
+import com.jpmc.receiver.DuplicateFilter;
+import com.jpmc.receiver.FlowControl;
+import com.jpmc.receiver.MessageHandler;
 import com.jpmc.receiver.MessageReceiver;
+import com.jpmc.snapshot.Snapshot;
+import com.jpmc.snapshot.SnapshotFile;
+import com.jpmc.snapshot.Snapshotter;
 
 import java.io.IOException;
+import java.lang.reflect.Method;
 import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * This class acts Messaging Server listen to any client connected.
@@ -13,28 +41,159 @@ import java.net.ServerSocket;
  */
 public class MessageServer {
 
-    private final MessageReceiver receiver = new MessageReceiver();
-    private ServerSocket server = null;
+    private static final Logger logger = Logger.getLogger(MessageServer.class.getName());
+    private final MessageReceiver receiver;
+    private final ServerMode mode;
+    private final MessagePipeline pipeline;
+    private final MessageHandler handler;
+    //Outlive the connections, so a client reconnecting resumes its session
+    private final DeliverySessions sessions = new DeliverySessions();
+    private final Configuration.Listener reloaded = new Configuration.Listener() {
+        @Override
+        public void changed(Settings previous, Settings current) {
+            registerProducts(current);
+        }
+    };
+    private volatile ServerSocket server = null;
+    private volatile ExecutorService workerPool = null;
+    private volatile NioMessageServer nioServer = null;
+    private Path journalFile = null;
+    private SyncPolicy syncPolicy = null;
+    private volatile SalesJournal journal = null;
+    private Path snapshotFile = null;
+    private volatile Snapshotter snapshotter = null;
+    private volatile Configuration.Watcher watcher = null;
+    private int port = Configuration.get().getTcpPort();
+    private boolean flowControl = Configuration.get().isFlowControl();
+    private long configReload = 0;
+
+    public MessageServer() {
+        this(ServerMode.BLOCKING);
+    }
+
+    public MessageServer(ServerMode mode) {
+        this(mode, null);
+    }
+
+    /**
+     * @param mode
+     * @param waitStrategy wait strategy of the staged pipeline, null to process each
+     *                     message on the connection thread
+     */
+    public MessageServer(ServerMode mode, WaitStrategy waitStrategy) {
+        this(mode, waitStrategy, new MessageReceiver());
+    }
+
+    /**
+     * @param mode
+     * @param waitStrategy wait strategy of the staged pipeline, null to process each
+     *                     message on the connection thread
+     * @param receiver     receiver of the messages, with its report sink
+     */
+    public MessageServer(ServerMode mode, WaitStrategy waitStrategy, MessageReceiver receiver) {
+        this.mode = mode;
+        this.receiver = receiver;
+        this.pipeline = waitStrategy == null ? null : new MessagePipeline(receiver, waitStrategy);
+        this.handler = pipeline == null ? receiver : pipeline;
+    }
 
     /**
      * Messaging Server listen to any client connected.
+     * The optional first argument selects the {@link ServerMode}, the optional second
+     * one the {@link WaitStrategy} of the staged pipeline ("direct" for none), the
+     * optional third one the journal file and the optional fourth one the snapshot file.
+     * The system property {@code sales.config} names a configuration file, watched for
+     * changes.
      *
      * @param args
      * @throws Exception
      */
     public static void main(String[] args) throws Exception {
 
-        MessageReceiver rec = new MessageReceiver();
-        ServerSocket listener = new ServerSocket(9898);
-        try {
-            while (true) {
-                new MessageWorker(listener.accept(), rec).start();
-            }
-        } finally {
-            listener.close();
+        String config = System.getProperty(Configuration.FILE_PROPERTY);
+        if (config != null)
+            Configuration.load(Paths.get(config));
+        ServerMode mode = ServerMode.parse(args.length > 0 ? args[0] : null);
+        WaitStrategy waitStrategy = args.length > 1 && !"direct".equalsIgnoreCase(args[1]) ? WaitStrategy.parse(args[1]) : null;
+        MessageServer server = new MessageServer(mode, waitStrategy);
+        if (config != null)
+            server.setConfigReload(Configuration.get().getConfigReloadMs());
+        if (args.length > 2)
+            server.setJournal(Paths.get(args[2]), Configuration.get().getJournalSyncPolicy());
+        if (args.length > 3)
+            server.setSnapshot(Paths.get(args[3]));
+        server.startServer();
+    }
+
+    /**
+     * Products configured are known before any message names them; products removed
+     * from the configuration stay known, as their ids are in use.
+     */
+    private void registerProducts(Settings settings) {
+        for (String name : settings.getProducts()) {
+            receiver.getDictionary().register(name);
         }
     }
 
+    /**
+     * Journal the recorded messages to the file, and replay the file on start.
+     * Must be called before {@link #startServer()}.
+     *
+     * @param file
+     * @param policy
+     */
+    public void setJournal(Path file, SyncPolicy policy) {
+        this.journalFile = file;
+        this.syncPolicy = policy;
+    }
+
+    /**
+     * Snapshot the aggregate state to the file periodically, and start from the snapshot
+     * plus the journal after it. Needs a journal, must be called before {@link #startServer()}.
+     *
+     * @param file
+     */
+    public void setSnapshot(Path file) {
+        this.snapshotFile = file;
+    }
+
+    /**
+     * Listen on the port instead of the configured one, e.g. to run several
+     * partition nodes on one host. Must be called before {@link #startServer()}.
+     *
+     * @param port
+     */
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    /**
+     * Stop reading from the connections at the day's quota until {@link #resume()}, and
+     * while the staged pipeline is too far behind. Must be called before {@link #startServer()}.
+     *
+     * @param enabled
+     */
+    public void setFlowControl(boolean enabled) {
+        this.flowControl = enabled;
+    }
+
+    /**
+     * Reload the configuration file every interval it changed while the server runs.
+     * Must be called before {@link #startServer()}.
+     *
+     * @param interval milliseconds, 0 for never
+     */
+    public void setConfigReload(long interval) {
+        this.configReload = interval;
+    }
+
+    /**
+     * Start the next day's quota, the connections stopped at the quota read on.
+     */
+    public void resume() {
+        receiver.resume();
+    }
+
     /**
      * Start the server
      *
@@ -42,20 +201,145 @@ public class MessageServer {
      */
     public void startServer() throws IOException {
 
+        FlowControl flow = receiver.getFlowControl();
+        //Before the replay, which may already reach the quota
+        flow.setEnabled(flowControl);
+        MBeans.register(flow, FlowControl.OBJECT_NAME);
+        Settings settings = Configuration.get();
+        if (settings.isDedup())
+            receiver.setDuplicateFilter(new DuplicateFilter());
+        if (settings.isHistory())
+            receiver.setHistory(new SalesHistory());
+        registerProducts(settings);
+        Configuration.addListener(reloaded);
+        watcher = Configuration.watch(configReload);
+        if (journalFile != null)
+            openJournal();
+        if (pipeline != null)
+            pipeline.start();
+        ServerMetrics metrics = receiver.getMetrics();
+        metrics.register();
+        metrics.start(settings.getMetricsIntervalMs());
+        receiver.startWindowReports(settings.getWindowReportMs());
+        receiver.startRetention(settings.getRetentionMs());
+        if (mode == ServerMode.NIO) {
+            nioServer = new NioMessageServer(handler, port, metrics, flow, sessions);
+            nioServer.start();
+            return;
+        }
+
         try {
-            server = new ServerSocket(Integer.parseInt(ApplicationEnum.TCP_PORT.getEnumType()));
-        } catch (NumberFormatException | IOException e) {
-            e.printStackTrace();
+            server = new ServerSocket(port, Configuration.get().getTcpBacklog());
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Could not listen on port " + port, e);
+            return;
         }
+        Executor executor = connectionExecutor();
         try {
-            while (true) {
+            while (!server.isClosed()) {
+                Socket socket = null;
                 try {
-                    new MessageWorker(server.accept(), receiver).start();
+                    socket = server.accept();
+                    executor.execute(new MessageWorker(socket, handler, metrics, flow, sessions));
                 } catch (IOException e) {
+                } catch (RejectedExecutionException e) {
+                    //Server is stopping
+                    socket.close();
                 }
             }
         } finally {
             server.close();
+            if (workerPool != null)
+                workerPool.shutdownNow();
+        }
+    }
+
+    /**
+     * Rebuild the receiver from the latest snapshot and the journal after it, then journal
+     * to it.
+     *
+     * @throws IOException
+     */
+    private void openJournal() throws IOException {
+        JournalReader reader = new JournalReader(receiver.getDictionary());
+        Snapshot snapshot = snapshotFile != null ? loadSnapshot() : null;
+        if (snapshot != null) {
+            receiver.restore(snapshot);
+            reader.seek(snapshot.getJournalPosition(), snapshot.getJournalNames());
+        }
+        journal = SalesJournal.open(journalFile, receiver.getDictionary(), syncPolicy, reader, new Consumer<Product>() {
+            @Override
+            public void accept(Product p) {
+                receiver.restore(p);
+            }
+        });
+        receiver.setJournal(journal);
+        if (snapshotFile != null) {
+            snapshotter = new Snapshotter(journalFile, snapshotFile, Configuration.get().getSnapshotIntervalMs());
+            snapshotter.start(snapshot);
+        }
+    }
+
+    /**
+     * The snapshot to start from, null when there is none or it does not belong to the journal
+     *
+     * @return
+     */
+    private Snapshot loadSnapshot() {
+        try {
+            Snapshot snapshot = SnapshotFile.read(snapshotFile);
+            if (snapshot != null && (!Files.exists(journalFile) || snapshot.getJournalPosition() > Files.size(journalFile))) {
+                logger.log(Level.WARNING, "Snapshot is ahead of the journal, replaying the whole journal");
+                return null;
+            }
+            return snapshot;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Snapshot could not be read, replaying the whole journal", e);
+            return null;
+        }
+    }
+
+    /**
+     * Executor that runs one {@link MessageWorker} per accepted connection.
+     *
+     * @return
+     */
+    private Executor connectionExecutor() {
+
+        switch (mode) {
+            case POOLED:
+                workerPool = Executors.newFixedThreadPool(Configuration.get().getWorkerPoolSize());
+                return workerPool;
+            case VIRTUAL:
+                workerPool = virtualThreadExecutor();
+                return workerPool != null ? workerPool : threadPerConnection();
+            default:
+                return threadPerConnection();
+        }
+    }
+
+    private static Executor threadPerConnection() {
+        return new Executor() {
+            @Override
+            public void execute(Runnable worker) {
+                new Thread(worker).start();
+            }
+        };
+    }
+
+    /**
+     * Virtual thread per task executor. It is looked up reflectively so the server still
+     * runs on a Java 17 runtime, where it falls back to a platform thread per connection.
+     *
+     * @return executor or null when virtual threads are not available
+     */
+    private static ExecutorService virtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            logger.log(Level.WARNING, "Virtual threads need Java 21 or later, using a platform thread per connection");
+            return null;
         }
     }
 
@@ -63,12 +347,49 @@ public class MessageServer {
      * Stop the server
      */
     public void stopServer() {
+        Configuration.removeListener(reloaded);
+        Configuration.Watcher w = watcher;
+        watcher = null;
+        if (w != null)
+            w.stop();
+        receiver.getFlowControl().stop();
         try {
             if (server != null)
                 server.close();
         } catch (IOException e) {
             e.printStackTrace();
         }
+        if (nioServer != null)
+            nioServer.stop();
+        if (workerPool != null)
+            workerPool.shutdownNow();
+        if (pipeline != null)
+            pipeline.stop();
+        receiver.stopWindowReports();
+        receiver.stopRetention();
+        receiver.close();
+        if (journal != null) {
+            receiver.setJournal(null);
+            try {
+                journal.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (snapshotter != null)
+            snapshotter.stop();
+        receiver.getMetrics().stop();
+        receiver.getMetrics().unregister();
+        MBeans.unregister(FlowControl.OBJECT_NAME);
+    }
+
+    /**
+     * Staged pipeline in front of the receiver
+     *
+     * @return pipeline or null when messages are processed on the connection threads
+     */
+    public MessagePipeline getPipeline() {
+        return pipeline;
     }
 
     /**
@@ -86,6 +407,8 @@ public class MessageServer {
      * @return
      */
     public boolean isServerClosed() {
+        if (nioServer != null)
+            return nioServer.isClosed();
         if (server != null)
             return server.isClosed();
         else
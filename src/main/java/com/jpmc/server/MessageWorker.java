@@ -1,49 +1,347 @@
 package com.jpmc.server;
 
-import com.jpmc.receiver.MessageReceiver;
+import com.jpmc.config.Configuration;
+import com.jpmc.domain.Product;
+import com.jpmc.metrics.ConnectionMetrics;
+import com.jpmc.metrics.ServerMetrics;
+import com.jpmc.msg.BinaryMessageCodec;
+import com.jpmc.msg.RejectReason;
+import com.jpmc.receiver.FlowControl;
+import com.jpmc.receiver.MessageHandler;
+import com.jpmc.snapshot.Snapshot;
+import com.jpmc.snapshot.SnapshotFile;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Message worker class used to ge the message from server.
+ * It is run by the connection executor chosen through {@link ServerMode}. The first
+ * byte of the connection may be a {@link Handshake}, otherwise the client sends text lines
+ * and is greeted once that byte arrived.
+ * While the {@link FlowControl} gate is closed the worker stops reading, leaving the
+ * client's messages in the socket buffers.
+ * <p>
+ * Lines of a {@link DeliverySessions delivery session} are acknowledged cumulatively,
+ * once per {@code DELIVERY_ACK_BATCH} lines, once {@code DELIVERY_ACK_DELAY_US} went by
+ * since the first line not acknowledged, or when no more input is buffered. Like the
+ * lines of the acknowledged text protocol, they are acknowledged once the handler
+ * applied them.
  *
  * @author Stanly
  */
-public class MessageWorker extends Thread {
+public class MessageWorker implements Runnable {
+
+    private static final Logger logger = Logger.getLogger(MessageWorker.class.getName());
+    //Pause between two looks at the messages applied by the handler
+    private static final long APPLY_WAIT_NANOS = 50000;
 
     private final Socket socket;
-    private MessageReceiver receiver = null;
+    private MessageHandler handler = null;
+    private final ServerMetrics metrics;
+    private final FlowControl flowControl;
+    private final DeliverySessions sessions;
+    private ConnectionMetrics connection = null;
+
+    public MessageWorker(Socket socket, MessageHandler handler) {
+        this(socket, handler, null);
+    }
+
+    public MessageWorker(Socket socket, MessageHandler handler, ServerMetrics metrics) {
+        this(socket, handler, metrics, null);
+    }
+
+    /**
+     * @param socket
+     * @param handler
+     * @param metrics     metrics counting the traffic of the connection, null for none
+     * @param flowControl gate checked before every message, null for none
+     */
+    public MessageWorker(Socket socket, MessageHandler handler, ServerMetrics metrics, FlowControl flowControl) {
+        this(socket, handler, metrics, flowControl, null);
+    }
 
-    public MessageWorker(Socket socket, MessageReceiver receiver) {
+    /**
+     * @param socket
+     * @param handler
+     * @param metrics     metrics counting the traffic of the connection, null for none
+     * @param flowControl gate checked before every message, null for none
+     * @param sessions    delivery sessions shared by the connections, null for sessions
+     *                    of this connection only
+     */
+    public MessageWorker(Socket socket, MessageHandler handler, ServerMetrics metrics, FlowControl flowControl,
+                         DeliverySessions sessions) {
         this.socket = socket;
-        this.receiver = receiver;
+        this.handler = handler;
+        this.metrics = metrics;
+        this.flowControl = flowControl;
+        this.sessions = sessions;
     }
 
+    @Override
     public void run() {
         try {
 
-            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-            out.println("Enter a line with only a period to quit\n");
+            InputStream raw = socket.getInputStream();
+            if (metrics != null) {
+                connection = metrics.connectionOpened(String.valueOf(socket.getRemoteSocketAddress()));
+                raw = new CountingInputStream(raw, connection);
+            }
+            InputStream stream = new BufferedInputStream(raw);
 
+            stream.mark(1);
+            int first = stream.read();
+            if (first == Handshake.BINARY) {
+                readFrames(new DataInputStream(stream));
+                return;
+            }
+            if (first == Handshake.AGGREGATE_DUMP) {
+                dump();
+                return;
+            }
+            if (first != Handshake.ACKED_TEXT && first != Handshake.SEQUENCED) {
+                stream.reset();
+                PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                out.println("Enter a line with only a period to quit\n");
+            }
+            BufferedReader in = new BufferedReader(new InputStreamReader(stream));
+            if (first == Handshake.SEQUENCED) {
+                readSession(in);
+                return;
+            }
+            OutputStream acks = first == Handshake.ACKED_TEXT ? new BufferedOutputStream(socket.getOutputStream()) : null;
+            int owed = 0;
+            long ticket = -1;
             while (true) {
+                //Acknowledge a whole burst of lines with one write
+                if (owed > 0 && (!in.ready() || flowControl != null && !flowControl.isOpen())) {
+                    acknowledge(acks, owed, ticket);
+                    owed = 0;
+                }
+                if (!flowControl())
+                    break;
                 String input = in.readLine();
                 if (input == null) {
                     break;
                 }
-                receiver.receive(input);
+                ticket = Math.max(ticket, handler.handle(input));
+                if (connection != null)
+                    connection.addMessage();
+                if (acks != null)
+                    owed++;
             }
+            //The client may only have closed its output
+            if (owed > 0)
+                acknowledge(acks, owed, ticket);
         } catch (IOException e) {
 
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } finally {
+            if (metrics != null)
+                metrics.connectionClosed(connection);
             try {
                 socket.close();
             } catch (IOException e) {
             }
         }
     }
+
+    /**
+     * Binary protocol: decode every frame until the client closes the connection.
+     *
+     * @param in
+     * @throws IOException
+     */
+    private void readFrames(DataInputStream in) throws IOException, InterruptedException {
+        BinaryMessageCodec codec = new BinaryMessageCodec(handler.getDictionary());
+        byte[] frame = new byte[BinaryMessageCodec.MAX_LENGTH];
+        ByteBuffer buffer = ByteBuffer.wrap(frame);
+        while (true) {
+            if (!flowControl())
+                return;
+            int length;
+            try {
+                length = in.readUnsignedShort();
+            } catch (EOFException e) {
+                return;
+            }
+            if (length > frame.length) {
+                frame = new byte[length];
+                buffer = ByteBuffer.wrap(frame);
+            }
+            in.readFully(frame, 0, length);
+            Product p = codec.decode(buffer, 0, length);
+            if (p != null) {
+                if (metrics != null)
+                    metrics.valid();
+                handler.handle(p);
+            } else if (metrics != null) {
+                metrics.rejected(RejectReason.BAD_FRAME);
+            }
+            if (connection != null)
+                connection.addMessage();
+        }
+    }
+
+    /**
+     * Delivery session: the first line names the session, the others carry a sequence.
+     * Lines already handled in the session are dropped, but still acknowledged.
+     *
+     * @param in
+     * @throws IOException
+     */
+    private void readSession(BufferedReader in) throws IOException, InterruptedException {
+        String name = in.readLine();
+        if (name == null)
+            return;
+        DeliverySessions.Session session = (sessions != null ? sessions : new DeliverySessions()).session(name);
+        DataOutputStream acks = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        int batch = Configuration.get().getDeliveryAckBatch();
+        long delay = Configuration.get().getDeliveryAckDelayUs() * 1000;
+        int unacked = 0;
+        long since = 0;
+        while (true) {
+            if (unacked > 0 && flowControl != null && !flowControl.isOpen()) {
+                acknowledge(acks, session);
+                unacked = 0;
+            }
+            if (!flowControl())
+                break;
+            String line = in.readLine();
+            if (line == null)
+                break;
+            long sequence = DeliverySessions.sequence(line);
+            int taken = sequence < 0 ? DeliverySessions.DUPLICATE : session.accept(sequence);
+            if (taken == DeliverySessions.ACCEPTED) {
+                long ticket = -1;
+                try {
+                    ticket = handler.handle(DeliverySessions.message(line));
+                } finally {
+                    session.handed(ticket);
+                }
+            } else if (sequence < 0) {
+                if (metrics != null)
+                    metrics.rejected(RejectReason.NO_SEQUENCE);
+            } else if (taken == DeliverySessions.DUPLICATE) {
+                if (metrics != null)
+                    metrics.rejected(RejectReason.DUPLICATE);
+            } else {
+                logger.log(Level.WARNING, "Line " + sequence + " of session " + name + " beyond the deduplication window");
+            }
+            if (connection != null)
+                connection.addMessage();
+            if (unacked++ == 0)
+                since = System.nanoTime();
+            if (unacked >= batch || !in.ready() || System.nanoTime() - since >= delay) {
+                acknowledge(acks, session);
+                unacked = 0;
+            }
+        }
+        //The client may only have closed its output
+        if (unacked > 0)
+            acknowledge(acks, session);
+    }
+
+    private void acknowledge(DataOutputStream acks, DeliverySessions.Session session) throws IOException {
+        long sequence = session.acknowledged();
+        awaitApplied(session.ticket());
+        acks.writeByte(Handshake.SEQUENCE_ACK);
+        acks.writeLong(sequence);
+        acks.flush();
+    }
+
+    /**
+     * Acknowledge lines of the acknowledged text protocol once they are applied
+     *
+     * @param acks
+     * @param count  lines to acknowledge
+     * @param ticket highest ticket of the lines
+     * @throws IOException
+     */
+    private void acknowledge(OutputStream acks, int count, long ticket) throws IOException {
+        awaitApplied(ticket);
+        for (int i = 0; i < count; i++) {
+            acks.write(Handshake.ACK);
+        }
+        acks.flush();
+    }
+
+    /**
+     * Wait for the handler to apply the messages up to the ticket
+     *
+     * @param ticket
+     */
+    private void awaitApplied(long ticket) {
+        while (handler.applied() < ticket) {
+            LockSupport.parkNanos(APPLY_WAIT_NANOS);
+        }
+    }
+
+    /**
+     * Aggregate dump: write the state of the handler, the connection is closed after it.
+     *
+     * @throws IOException
+     */
+    private void dump() throws IOException {
+        Snapshot snapshot = handler.snapshot();
+        if (snapshot != null)
+            SnapshotFile.write(new BufferedOutputStream(socket.getOutputStream()), snapshot);
+    }
+
+    /**
+     * Wait at the flow control gate before reading the next message.
+     *
+     * @return false when the server is stopping
+     * @throws InterruptedException
+     */
+    private boolean flowControl() throws InterruptedException {
+        if (flowControl == null || flowControl.isOpen())
+            return true;
+        return flowControl.await();
+    }
+
+    /**
+     * Counts the bytes read from the socket.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private final ConnectionMetrics connection;
+
+        private CountingInputStream(InputStream in, ConnectionMetrics connection) {
+            super(in);
+            this.connection = connection;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0)
+                connection.addBytes(1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0)
+                connection.addBytes(n);
+            return n;
+        }
+    }
 }
\ No newline at end of file
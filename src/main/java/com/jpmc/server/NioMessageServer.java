@@ -0,0 +1,738 @@
+package com.jpmc.server;
+
+import com.jpmc.config.Configuration;
+import com.jpmc.domain.Product;
+import com.jpmc.metrics.ConnectionMetrics;
+import com.jpmc.metrics.ServerMetrics;
+import com.jpmc.msg.BinaryMessageCodec;
+import com.jpmc.msg.RejectReason;
+import com.jpmc.receiver.FlowControl;
+import com.jpmc.receiver.MessageHandler;
+import com.jpmc.snapshot.Snapshot;
+import com.jpmc.snapshot.SnapshotFile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Non-blocking message server. A small fixed number of selector event loops accept
+ * connections, read from the sockets and frame the bytes into lines which are then
+ * handed to the {@link MessageHandler}. The first byte of a connection may be a
+ * {@link Handshake}, a connection without one is greeted once that byte arrived.
+ * <p>
+ * While the {@link FlowControl} gate is closed a connection is parked: framing stops
+ * after the message that closed it, the unread rest of the read buffer is kept aside
+ * and the channel is no longer selected for reading, so the client's further messages
+ * wait in the socket buffers. The loops pick the parked connections up again when the
+ * gate opens.
+ * <p>
+ * Lines of a {@link DeliverySessions delivery session} are acknowledged cumulatively
+ * after each read of the socket, and within a read once {@code DELIVERY_ACK_BATCH}
+ * lines were framed or {@code DELIVERY_ACK_DELAY_US} went by. Acknowledgements wait for
+ * the handler to apply their lines; meanwhile the loop looks at them again every
+ * millisecond, and goes on reading.
+ *
+ * @author Stanly
+ */
+public class NioMessageServer {
+
+    private static final byte[] GREETING = "Enter a line with only a period to quit\n\n".getBytes();
+
+    private final Logger logger = Logger.getLogger(NioMessageServer.class.getName());
+    private final MessageHandler handler;
+    private final int port;
+    private final ServerMetrics metrics;
+    private final FlowControl flowControl;
+    private final DeliverySessions sessions;
+    private final Charset charset = Charset.defaultCharset();
+    private ServerSocketChannel serverChannel = null;
+    private EventLoop[] loops = null;
+    private CountDownLatch stopped = null;
+    private volatile boolean running = false;
+
+    public NioMessageServer(MessageHandler handler, int port) {
+        this(handler, port, null);
+    }
+
+    /**
+     * @param handler
+     * @param port
+     * @param metrics metrics counting the traffic of the connections, null for none
+     */
+    public NioMessageServer(MessageHandler handler, int port, ServerMetrics metrics) {
+        this(handler, port, metrics, null);
+    }
+
+    /**
+     * @param handler
+     * @param port
+     * @param metrics     metrics counting the traffic of the connections, null for none
+     * @param flowControl gate checked after every message, null for none
+     */
+    public NioMessageServer(MessageHandler handler, int port, ServerMetrics metrics, FlowControl flowControl) {
+        this(handler, port, metrics, flowControl, new DeliverySessions());
+    }
+
+    /**
+     * @param handler
+     * @param port
+     * @param metrics     metrics counting the traffic of the connections, null for none
+     * @param flowControl gate checked after every message, null for none
+     * @param sessions    delivery sessions, which may be shared with another server
+     */
+    public NioMessageServer(MessageHandler handler, int port, ServerMetrics metrics, FlowControl flowControl,
+                            DeliverySessions sessions) {
+        this.handler = handler;
+        this.port = port;
+        this.metrics = metrics;
+        this.flowControl = flowControl;
+        this.sessions = sessions;
+    }
+
+    /**
+     * Open the listening channel and run the event loops. The first loop also accepts
+     * connections and runs on the calling thread, so this blocks until {@link #stop()}.
+     *
+     * @throws IOException
+     */
+    public void start() throws IOException {
+
+        int loopCount = Configuration.get().getNioEventLoops();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.configureBlocking(false);
+        serverChannel.bind(new InetSocketAddress(port), Configuration.get().getTcpBacklog());
+
+        loops = new EventLoop[loopCount];
+        for (int i = 0; i < loopCount; i++) {
+            loops[i] = new EventLoop(Selector.open());
+        }
+        serverChannel.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+        stopped = new CountDownLatch(loopCount);
+        running = true;
+
+        for (int i = 1; i < loopCount; i++) {
+            Thread t = new Thread(loops[i], "nio-event-loop-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+        loops[0].run();
+    }
+
+    /**
+     * Stop all event loops and close the listening channel. The listening socket is
+     * only released once its selector is closed, so this waits for the loops to exit.
+     */
+    public void stop() {
+        running = false;
+        try {
+            if (serverChannel != null)
+                serverChannel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (loops != null) {
+            for (EventLoop loop : loops) {
+                loop.selector.wakeup();
+            }
+        }
+        if (stopped != null) {
+            try {
+                stopped.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Server close logic
+     *
+     * @return
+     */
+    public boolean isClosed() {
+        return serverChannel == null || !serverChannel.isOpen();
+    }
+
+    private boolean gateClosed() {
+        return flowControl != null && !flowControl.isOpen();
+    }
+
+    /**
+     * Single selector thread owning a subset of the connections.
+     */
+    private final class EventLoop implements Runnable {
+
+        private final Selector selector;
+        private final Queue<SocketChannel> pending = new ConcurrentLinkedQueue<SocketChannel>();
+        //Connections with acknowledgements waiting for their lines to be applied
+        private List<SelectionKey> unapplied = new ArrayList<SelectionKey>();
+        private List<SelectionKey> retried = new ArrayList<SelectionKey>();
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(Configuration.get().getNioReadBufferSize());
+        private final ByteBuffer ackBuffer = ByteBuffer.allocateDirect(1024);
+        private final Runnable gateOpened = new Runnable() {
+            @Override
+            public void run() {
+                resumed = true;
+                selector.wakeup();
+            }
+        };
+        private volatile boolean resumed = false;
+        private int nextLoop = 0;
+
+        private EventLoop(Selector selector) {
+            this.selector = selector;
+            while (ackBuffer.hasRemaining()) {
+                ackBuffer.put(Handshake.ACK);
+            }
+        }
+
+        @Override
+        public void run() {
+            if (flowControl != null)
+                flowControl.addListener(gateOpened);
+            try {
+                while (running) {
+                    selector.select(unapplied.isEmpty() ? 0 : 1);
+                    registerPending();
+                    if (resumed) {
+                        resumed = false;
+                        resumeParked();
+                    }
+                    if (!unapplied.isEmpty())
+                        retryUnapplied();
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept();
+                            continue;
+                        }
+                        if (key.isWritable())
+                            writeAcks(key);
+                        if (key.isValid() && key.isReadable())
+                            read(key);
+                    }
+                }
+            } catch (IOException e) {
+                if (running)
+                    logger.log(Level.WARNING, "Event loop stopped", e);
+            } finally {
+                if (flowControl != null)
+                    flowControl.removeListener(gateOpened);
+                closeAll();
+                stopped.countDown();
+            }
+        }
+
+        /**
+         * Accept every pending connection and spread them across the loops round robin.
+         *
+         * @throws IOException
+         */
+        private void accept() throws IOException {
+            SocketChannel channel;
+            while ((channel = serverChannel.accept()) != null) {
+                channel.configureBlocking(false);
+                EventLoop target = loops[nextLoop];
+                nextLoop = (nextLoop + 1) % loops.length;
+                target.pending.add(channel);
+                if (target != this)
+                    target.selector.wakeup();
+            }
+            registerPending();
+        }
+
+        private void registerPending() {
+            SocketChannel channel;
+            while ((channel = pending.poll()) != null) {
+                try {
+                    ConnectionMetrics connection = metrics != null ? metrics.connectionOpened(String.valueOf(channel.getRemoteAddress())) : null;
+                    channel.register(selector, SelectionKey.OP_READ, new LineFramer(connection));
+                } catch (IOException e) {
+                    close(channel);
+                }
+            }
+        }
+
+        private void read(SelectionKey key) {
+            SocketChannel channel = (SocketChannel) key.channel();
+            LineFramer framer = (LineFramer) key.attachment();
+            //A new connection is read up to its handshake, which may ask for the dump
+            if (gateClosed() && !framer.first) {
+                //Closed by another connection
+                readBuffer.flip();
+                framer.park(readBuffer);
+                readBuffer.clear();
+                writeAcks(key);
+                return;
+            }
+            try {
+                int n;
+                while ((n = channel.read(readBuffer)) > 0) {
+                    if (framer.connection != null)
+                        framer.connection.addBytes(n);
+                    readBuffer.flip();
+                    framer.frame(readBuffer);
+                    if (framer.closing) {
+                        readBuffer.clear();
+                        break;
+                    }
+                    if (framer.ackDue())
+                        writeAcks(key);
+                    if (gateClosed()) {
+                        framer.park(readBuffer);
+                        readBuffer.clear();
+                        break;
+                    }
+                    readBuffer.clear();
+                }
+                if (n < 0) {
+                    framer.finish();
+                    //The client may only have closed its output, it still reads the acknowledgements
+                    framer.closing = true;
+                    writeAcks(key);
+                } else if (framer.greeting != null || framer.pendingAcks > 0 || framer.unacked > 0 || framer.parked
+                        || framer.closing) {
+                    writeAcks(key);
+                }
+            } catch (IOException e) {
+                readBuffer.clear();
+                key.cancel();
+                close(channel);
+            }
+        }
+
+        /**
+         * Write the greeting, the acknowledgements of the lines applied, or the aggregate
+         * dump, waiting for the socket to be writable again when its send buffer is full.
+         * A connection at end of stream is closed once they are all written.
+         */
+        private void writeAcks(SelectionKey key) {
+            SocketChannel channel = (SocketChannel) key.channel();
+            LineFramer framer = (LineFramer) key.attachment();
+            try {
+                if (framer.greeting != null) {
+                    channel.write(framer.greeting);
+                    if (!framer.greeting.hasRemaining())
+                        framer.greeting = null;
+                }
+                if (framer.dump != null)
+                    channel.write(framer.dump);
+                framer.settleAcks();
+                while (framer.appliedAcks > 0) {
+                    ackBuffer.clear();
+                    ackBuffer.limit((int) Math.min(framer.appliedAcks, ackBuffer.capacity()));
+                    int n = channel.write(ackBuffer);
+                    framer.appliedAcks -= n;
+                    if (n == 0)
+                        break;
+                }
+                if (framer.session != null) {
+                    ByteBuffer ack = framer.sequenceAck;
+                    if (!ack.hasRemaining() && framer.sequenceDue && handler.applied() >= framer.dueTicket) {
+                        ack.clear();
+                        ack.put(Handshake.SEQUENCE_ACK).putLong(framer.dueSequence).flip();
+                        framer.sequenceDue = false;
+                    }
+                    channel.write(ack);
+                }
+                boolean blocked = framer.greeting != null || framer.appliedAcks > 0
+                        || framer.dump != null && framer.dump.hasRemaining() || framer.sequenceAck.hasRemaining();
+                boolean waiting = framer.dueAcks > 0 || framer.sequenceDue;
+                if (framer.closing && !blocked && !waiting) {
+                    key.cancel();
+                    close(channel);
+                } else {
+                    int ops = framer.closing || framer.parked ? 0 : SelectionKey.OP_READ;
+                    key.interestOps(blocked ? ops | SelectionKey.OP_WRITE : ops);
+                    if (waiting && !framer.unapplied) {
+                        framer.unapplied = true;
+                        unapplied.add(key);
+                    }
+                }
+            } catch (IOException e) {
+                key.cancel();
+                close(channel);
+            }
+        }
+
+        /**
+         * The gate opened: frame what every parked connection had left over and select
+         * them for reading again, until the gate closes anew.
+         */
+        private void resumeParked() {
+            for (SelectionKey key : selector.keys()) {
+                if (gateClosed())
+                    return;
+                if (!key.isValid() || !(key.attachment() instanceof LineFramer))
+                    continue;
+                LineFramer framer = (LineFramer) key.attachment();
+                if (!framer.parked)
+                    continue;
+                framer.parked = false;
+                ByteBuffer stash = framer.stash;
+                framer.frame(stash);
+                if (gateClosed())
+                    framer.parked = true;
+                else
+                    stash.clear();
+                writeAcks(key);
+            }
+        }
+
+        /**
+         * Look again at the acknowledgements waiting for their lines to be applied
+         */
+        private void retryUnapplied() {
+            List<SelectionKey> keys = unapplied;
+            unapplied = retried;
+            retried = keys;
+            for (SelectionKey key : keys) {
+                ((LineFramer) key.attachment()).unapplied = false;
+                if (key.isValid())
+                    writeAcks(key);
+            }
+            keys.clear();
+        }
+
+        private void closeAll() {
+            for (SelectionKey key : selector.keys()) {
+                if (key.channel() instanceof SocketChannel)
+                    close((SocketChannel) key.channel());
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+            }
+        }
+
+        private void close(SocketChannel channel) {
+            SelectionKey key = channel.keyFor(selector);
+            if (metrics != null && key != null && key.attachment() instanceof LineFramer)
+                metrics.connectionClosed(((LineFramer) key.attachment()).connection);
+            try {
+                channel.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    /**
+     * Per connection line framing. Bytes are accumulated until a line feed, a trailing
+     * carriage return is dropped, and over-long lines are discarded. A connection opening
+     * with the binary handshake byte is handed to a {@link FrameDecoder} instead, one
+     * opening with the acknowledged text handshake counts the acknowledgements owed, one
+     * opening with the sequenced handshake takes its lines through its delivery session
+     * and one opening with the aggregate dump handshake gets the dump and is closed. Any
+     * other connection is greeted.
+     * <p>
+     * The acknowledgements owed are settled in rounds: those owed when a round starts
+     * wait for the handler to apply the highest ticket they cover, so they are written
+     * even while the connection goes on sending lines.
+     */
+    private final class LineFramer {
+
+        private final int maxLength = Configuration.get().getMaxMessageLength();
+        private final int ackBatch = Configuration.get().getDeliveryAckBatch();
+        private final long ackDelay = Configuration.get().getDeliveryAckDelayUs() * 1000;
+        private byte[] line = new byte[128];
+        private int length = 0;
+        private boolean discarding = false;
+        private boolean first = true;
+        private FrameDecoder binary = null;
+        private final ConnectionMetrics connection;
+        private ByteBuffer greeting = null;
+        private boolean acked = false;
+        //Acknowledgements owed and the highest ticket of their lines, then the ones of the
+        //round waiting for their lines to be applied, then the ones ready to be written
+        private long pendingAcks = 0;
+        private long ticket = -1;
+        private long dueAcks = 0;
+        private long dueTicket = -1;
+        private long appliedAcks = 0;
+        private boolean sequenced = false;
+        private DeliverySessions.Session session = null;
+        private final ByteBuffer sequenceAck = ByteBuffer.allocate(Handshake.SEQUENCE_ACK_LENGTH).flip();
+        //Session lines framed since the last acknowledgement, and when the first of them was
+        private int unacked = 0;
+        private long unackedSince = 0;
+        //Sequence of the session acknowledgement waiting for its lines to be applied
+        private boolean sequenceDue = false;
+        private long dueSequence = 0;
+        //Listed among the connections of the loop waiting for lines to be applied
+        private boolean unapplied = false;
+        private boolean closing = false;
+        private boolean parked = false;
+        //Bytes read but not framed when the connection was parked
+        private ByteBuffer stash = null;
+        private ByteBuffer dump = null;
+
+        private LineFramer(ConnectionMetrics connection) {
+            this.connection = connection;
+        }
+
+        /**
+         * Stop reading, keeping the rest of the buffer for when the gate opens.
+         *
+         * @param buffer
+         */
+        private void park(ByteBuffer buffer) {
+            if (stash == null)
+                stash = ByteBuffer.allocate(buffer.capacity());
+            stash.clear();
+            stash.put(buffer);
+            stash.flip();
+            parked = true;
+        }
+
+        private void frame(ByteBuffer buffer) {
+            if (first && buffer.hasRemaining()) {
+                first = false;
+                byte handshake = buffer.get(buffer.position());
+                if (handshake == Handshake.BINARY) {
+                    buffer.get();
+                    binary = new FrameDecoder(connection);
+                } else if (handshake == Handshake.ACKED_TEXT) {
+                    buffer.get();
+                    acked = true;
+                } else if (handshake == Handshake.SEQUENCED) {
+                    buffer.get();
+                    sequenced = true;
+                } else if (handshake == Handshake.AGGREGATE_DUMP) {
+                    buffer.position(buffer.limit());
+                    dump = dump();
+                    closing = true;
+                    return;
+                } else {
+                    greeting = ByteBuffer.wrap(GREETING);
+                }
+            }
+            if (gateClosed())
+                return;
+            if (binary != null) {
+                binary.frame(buffer);
+                return;
+            }
+            while (buffer.hasRemaining()) {
+                byte b = buffer.get();
+                if (b == '\n') {
+                    boolean emitted = !discarding;
+                    if (emitted)
+                        emit();
+                    length = 0;
+                    discarding = false;
+                    if (emitted && gateClosed())
+                        return;
+                } else if (!discarding) {
+                    if (length == maxLength) {
+                        logger.log(Level.WARNING, "Message longer than " + maxLength + " bytes discarded");
+                        discarding = true;
+                    } else {
+                        if (length == line.length)
+                            line = Arrays.copyOf(line, Math.min(maxLength, line.length * 2));
+                        line[length++] = b;
+                    }
+                }
+            }
+        }
+
+        /**
+         * The aggregate state of the handler in the snapshot layout, taken on the event
+         * loop as the dump is rare and small next to the message traffic.
+         */
+        private ByteBuffer dump() {
+            Snapshot snapshot = handler.snapshot();
+            if (snapshot == null)
+                return null;
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try {
+                SnapshotFile.write(out, snapshot);
+            } catch (IOException e) {
+                //Not thrown by a byte array stream
+                throw new IllegalStateException(e);
+            }
+            return ByteBuffer.wrap(out.toByteArray());
+        }
+
+        /**
+         * End of stream, a last line without a line feed is still a message.
+         */
+        private void finish() {
+            if (binary != null)
+                return;
+            if (length > 0 && !discarding)
+                emit();
+            length = 0;
+        }
+
+        private boolean ackDue() {
+            return unacked >= ackBatch || unacked > 0 && System.nanoTime() - unackedSince >= ackDelay;
+        }
+
+        /**
+         * Start a round with the acknowledgements owed when the last one is over, and
+         * release them for writing once the handler applied their lines.
+         */
+        private void settleAcks() {
+            long applied = handler.applied();
+            if (dueAcks > 0 && applied >= dueTicket) {
+                appliedAcks += dueAcks;
+                dueAcks = 0;
+            }
+            if (dueAcks == 0 && pendingAcks > 0) {
+                dueAcks = pendingAcks;
+                dueTicket = ticket;
+                pendingAcks = 0;
+                if (applied >= dueTicket) {
+                    appliedAcks += dueAcks;
+                    dueAcks = 0;
+                }
+            }
+            if (!sequenceDue && unacked > 0) {
+                dueSequence = session.acknowledged();
+                dueTicket = session.ticket();
+                sequenceDue = true;
+                unacked = 0;
+            }
+        }
+
+        private void emit() {
+            int end = length;
+            if (end > 0 && line[end - 1] == '\r')
+                end--;
+            if (sequenced) {
+                emitSessionLine(new String(line, 0, end, charset));
+                return;
+            }
+            long handed = handler.handle(new String(line, 0, end, charset));
+            if (connection != null)
+                connection.addMessage();
+            if (acked) {
+                pendingAcks++;
+                ticket = Math.max(ticket, handed);
+            }
+        }
+
+        /**
+         * The first line names the session, the others are handled unless the session
+         * already took their sequence. Every one of them is acknowledged.
+         */
+        private void emitSessionLine(String text) {
+            if (session == null) {
+                session = sessions.session(text);
+                return;
+            }
+            long sequence = DeliverySessions.sequence(text);
+            int taken = sequence < 0 ? DeliverySessions.DUPLICATE : session.accept(sequence);
+            if (taken == DeliverySessions.ACCEPTED) {
+                long handed = -1;
+                try {
+                    handed = handler.handle(DeliverySessions.message(text));
+                } finally {
+                    session.handed(handed);
+                }
+            } else if (sequence < 0) {
+                if (metrics != null)
+                    metrics.rejected(RejectReason.NO_SEQUENCE);
+            } else if (taken == DeliverySessions.DUPLICATE) {
+                if (metrics != null)
+                    metrics.rejected(RejectReason.DUPLICATE);
+            } else {
+                logger.log(Level.WARNING, "Line " + sequence + " of a session beyond the deduplication window");
+            }
+            if (connection != null)
+                connection.addMessage();
+            if (unacked++ == 0)
+                unackedSince = System.nanoTime();
+        }
+    }
+
+    /**
+     * Per connection binary framing. A frame wholly inside the read buffer is decoded in
+     * place, only a frame split across reads is copied.
+     */
+    private final class FrameDecoder {
+
+        private final BinaryMessageCodec codec = new BinaryMessageCodec(handler.getDictionary());
+        private final ConnectionMetrics connection;
+        private byte[] pending = new byte[BinaryMessageCodec.PREFIX + BinaryMessageCodec.MAX_LENGTH];
+        private ByteBuffer pendingBuffer = ByteBuffer.wrap(pending);
+        private int length = 0;
+
+        private FrameDecoder(ConnectionMetrics connection) {
+            this.connection = connection;
+        }
+
+        private void frame(ByteBuffer buffer) {
+            while (buffer.hasRemaining()) {
+                if (length == 0) {
+                    int remaining = buffer.remaining();
+                    if (remaining >= BinaryMessageCodec.PREFIX) {
+                        int pos = buffer.position();
+                        int frameLength = buffer.getShort(pos) & 0xffff;
+                        if (remaining >= BinaryMessageCodec.PREFIX + frameLength) {
+                            emit(buffer, pos + BinaryMessageCodec.PREFIX, frameLength);
+                            buffer.position(pos + BinaryMessageCodec.PREFIX + frameLength);
+                            if (gateClosed())
+                                return;
+                            continue;
+                        }
+                    }
+                }
+                //Split frame: collect it
+                if (length < BinaryMessageCodec.PREFIX) {
+                    pending[length++] = buffer.get();
+                    continue;
+                }
+                int frameLength = pendingBuffer.getShort(0) & 0xffff;
+                if (BinaryMessageCodec.PREFIX + frameLength > pending.length) {
+                    pending = Arrays.copyOf(pending, BinaryMessageCodec.PREFIX + frameLength);
+                    pendingBuffer = ByteBuffer.wrap(pending);
+                }
+                int n = Math.min(BinaryMessageCodec.PREFIX + frameLength - length, buffer.remaining());
+                buffer.get(pending, length, n);
+                length += n;
+                if (length == BinaryMessageCodec.PREFIX + frameLength) {
+                    emit(pendingBuffer, BinaryMessageCodec.PREFIX, frameLength);
+                    length = 0;
+                    if (gateClosed())
+                        return;
+                }
+            }
+        }
+
+        private void emit(ByteBuffer buffer, int offset, int frameLength) {
+            Product p = codec.decode(buffer, offset, frameLength);
+            if (p != null) {
+                if (metrics != null)
+                    metrics.valid();
+                handler.handle(p);
+            } else if (metrics != null) {
+                metrics.rejected(RejectReason.BAD_FRAME);
+            }
+            if (connection != null)
+                connection.addMessage();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.jpmc.server;
+
+/**
+ * Connection handling strategy used by {@link MessageServer}.
+ *
+ * @author Stanly
+ */
+public enum ServerMode {
+
+    /**
+     * One blocking {@link MessageWorker} on a new platform thread per accepted socket.
+     */
+    BLOCKING,
+    /**
+     * Blocking {@link MessageWorker}s on a bounded pool of platform threads.
+     */
+    POOLED,
+    /**
+     * Blocking {@link MessageWorker}s, one virtual thread per accepted socket.
+     */
+    VIRTUAL,
+    /**
+     * A fixed number of java.nio selector event loops shared by all connections.
+     */
+    NIO;
+
+    /**
+     * Resolve the mode from a startup argument, defaulting to {@link #BLOCKING}.
+     *
+     * @param value
+     * @return
+     */
+    public static ServerMode parse(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return BLOCKING;
+        }
+        return ServerMode.valueOf(value.trim().toUpperCase());
+    }
+}
@@ -0,0 +1,107 @@
+package com.jpmc.snapshot;
+
+import com.jpmc.domain.Report;
+import com.jpmc.receiver.Adjustment;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The aggregate state of a receiver at one position of the journal: running totals,
+ * adjustment history, message count, pause flag and the start of the current quota.
+ *
+ * @author Stanly
+ */
+public class Snapshot {
+
+    private long journalPosition;
+    private Map<Integer, String> journalNames = new LinkedHashMap<Integer, String>();
+    private long messageCount;
+    private boolean paused;
+    private long quotaStart;
+    private List<Report> products = new ArrayList<Report>();
+    private List<Adjustment> adjustments = new ArrayList<Adjustment>();
+
+    /**
+     * Position of the journal the state includes every record before.
+     *
+     * @return
+     */
+    public long getJournalPosition() {
+        return journalPosition;
+    }
+
+    public void setJournalPosition(long journalPosition) {
+        this.journalPosition = journalPosition;
+    }
+
+    /**
+     * Names of the products journaled before the position, by their id in the journal.
+     *
+     * @return
+     */
+    public Map<Integer, String> getJournalNames() {
+        return journalNames;
+    }
+
+    public void setJournalNames(Map<Integer, String> journalNames) {
+        this.journalNames = journalNames;
+    }
+
+    public long getMessageCount() {
+        return messageCount;
+    }
+
+    public void setMessageCount(long messageCount) {
+        this.messageCount = messageCount;
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    public void setPaused(boolean paused) {
+        this.paused = paused;
+    }
+
+    /**
+     * Message count the current quota started from, moved on by each resume
+     *
+     * @return
+     */
+    public long getQuotaStart() {
+        return quotaStart;
+    }
+
+    public void setQuotaStart(long quotaStart) {
+        this.quotaStart = quotaStart;
+    }
+
+    /**
+     * Running totals of every product sold
+     *
+     * @return
+     */
+    public List<Report> getProducts() {
+        return products;
+    }
+
+    public void setProducts(List<Report> products) {
+        this.products = products;
+    }
+
+    /**
+     * Adjustment history, oldest first
+     *
+     * @return
+     */
+    public List<Adjustment> getAdjustments() {
+        return adjustments;
+    }
+
+    public void setAdjustments(List<Adjustment> adjustments) {
+        this.adjustments = adjustments;
+    }
+}
@@ -0,0 +1,183 @@
+package com.jpmc.snapshot;
+
+import com.jpmc.domain.ApplicationEnum;
+import com.jpmc.domain.Product;
+import com.jpmc.domain.Report;
+import com.jpmc.receiver.Adjustment;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Versioned binary snapshot file. A snapshot is written to a temporary file which then
+ * replaces the previous one, so a crash while writing leaves the previous snapshot.
+ * <p>
+ * Layout: magic, version, journal position, journal names, message count, pause flag,
+ * quota start, products, adjustments with the count each stands for and a CRC32C of everything
+ * before it. The same layout is sent over a connection as the aggregate dump of a
+ * partition node. Snapshots of version 1, without counts, of versions 1 and 2, with
+ * whole Multiply factors, and of versions 1 to 3, without quota start, are still read.
+ *
+ * @author Stanly
+ */
+public final class SnapshotFile {
+
+    private static final int MAGIC = 0x534d5053;
+    private static final int VERSION = 4;
+
+    private SnapshotFile() {
+    }
+
+    /**
+     * Replace the snapshot file
+     *
+     * @param file
+     * @param snapshot
+     * @throws IOException
+     */
+    public static void write(Path file, Snapshot snapshot) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        OutputStream stream = new BufferedOutputStream(Files.newOutputStream(temp));
+        try {
+            write(stream, snapshot);
+        } finally {
+            stream.close();
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Write the snapshot to the stream and flush it
+     *
+     * @param stream
+     * @param snapshot
+     * @throws IOException
+     */
+    public static void write(OutputStream stream, Snapshot snapshot) throws IOException {
+        CRC32C crc = new CRC32C();
+        DataOutputStream out = new DataOutputStream(new CheckedOutputStream(stream, crc));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(snapshot.getJournalPosition());
+        out.writeInt(snapshot.getJournalNames().size());
+        for (Map.Entry<Integer, String> e : snapshot.getJournalNames().entrySet()) {
+            out.writeInt(e.getKey());
+            out.writeUTF(e.getValue());
+        }
+        out.writeLong(snapshot.getMessageCount());
+        out.writeBoolean(snapshot.isPaused());
+        out.writeLong(snapshot.getQuotaStart());
+        out.writeInt(snapshot.getProducts().size());
+        for (Report r : snapshot.getProducts()) {
+            out.writeUTF(r.getName());
+            out.writeInt(r.getQuantity());
+            out.writeLong(r.getTotalPrice());
+        }
+        out.writeInt(snapshot.getAdjustments().size());
+        for (Adjustment a : snapshot.getAdjustments()) {
+            Product p = a.getProduct();
+            out.writeUTF(p.getName() == null ? "" : p.getName());
+            out.writeUTF(p.getType().name());
+            out.writeLong(p.getAdjustPrice());
+            out.writeBoolean(a.isApplied());
+            out.writeInt(a.getQuantity());
+            out.writeLong(a.getBefore());
+            out.writeLong(a.getAfter());
+            out.writeInt(a.getCount());
+        }
+        out.flush();
+        DataOutputStream trailer = new DataOutputStream(stream);
+        trailer.writeLong(crc.getValue());
+        trailer.flush();
+    }
+
+    /**
+     * Read the snapshot file
+     *
+     * @param file
+     * @return the snapshot, null when there is none
+     * @throws IOException when the file is not a complete snapshot of this or an earlier version
+     */
+    public static Snapshot read(Path file) throws IOException {
+        InputStream stream;
+        try {
+            stream = new BufferedInputStream(Files.newInputStream(file));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        try {
+            return read(stream);
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Read one snapshot from the stream
+     *
+     * @param stream
+     * @return
+     * @throws IOException when the stream does not hold a complete snapshot of this or an earlier version
+     */
+    public static Snapshot read(InputStream stream) throws IOException {
+        CRC32C crc = new CRC32C();
+        DataInputStream in = new DataInputStream(new CheckedInputStream(stream, crc));
+        int magic = in.readInt();
+        int version = in.readInt();
+        if (magic != MAGIC || version < 1 || version > VERSION)
+            throw new IOException("Not a snapshot of version 1 to " + VERSION);
+        Snapshot snapshot = new Snapshot();
+        snapshot.setJournalPosition(in.readLong());
+        int names = in.readInt();
+        for (int i = 0; i < names; i++) {
+            int id = in.readInt();
+            snapshot.getJournalNames().put(id, in.readUTF());
+        }
+        snapshot.setMessageCount(in.readLong());
+        snapshot.setPaused(in.readBoolean());
+        //Before version 4 the quota starts at 0, as no resume was kept
+        if (version >= 4)
+            snapshot.setQuotaStart(in.readLong());
+        int products = in.readInt();
+        for (int i = 0; i < products; i++) {
+            String name = in.readUTF();
+            int quantity = in.readInt();
+            snapshot.getProducts().add(new Report(name, quantity, in.readLong()));
+        }
+        int adjustments = in.readInt();
+        for (int i = 0; i < adjustments; i++) {
+            Product p = new Product();
+            String name = in.readUTF();
+            p.setName(name.isEmpty() ? null : name);
+            p.setType(ApplicationEnum.valueOf(in.readUTF()));
+            p.setAdjustPrice(in.readLong());
+            //Before version 3 a Multiply factor is whole
+            if (version < 3 && p.getType() == ApplicationEnum.MULTIPLICATION)
+                p.setAdjustPrice(p.getAdjustPrice() * Product.FACTOR_SCALE);
+            boolean applied = in.readBoolean();
+            int quantity = in.readInt();
+            long before = in.readLong();
+            long after = in.readLong();
+            //Version 1 has no compacted adjustments
+            int count = version >= 2 ? in.readInt() : 1;
+            snapshot.getAdjustments().add(new Adjustment(p, applied, quantity, before, after, count));
+        }
+        long expected = crc.getValue();
+        if (new DataInputStream(stream).readLong() != expected)
+            throw new IOException("Snapshot checksum does not match");
+        return snapshot;
+    }
+}
@@ -0,0 +1,148 @@
+package com.jpmc.snapshot;
+
+import com.jpmc.config.Configuration;
+import com.jpmc.domain.ProductDictionary;
+import com.jpmc.journal.JournalReader;
+import com.jpmc.receiver.MessageReceiver;
+import com.jpmc.report.NullReportSink;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Takes periodic snapshots without stopping ingest. The live receiver is never read:
+ * a shadow receiver follows the journal on a background thread, so its state is always
+ * exactly the state at the journal position it has reached, and that state is written.
+ * The shadow keeps no history, and with retention its adjustments are compacted before
+ * each snapshot as the live receiver's are, so following the journal does not grow the
+ * heap.
+ *
+ * @author Stanly
+ */
+public class Snapshotter {
+
+    private static final Logger logger = Logger.getLogger(Snapshotter.class.getName());
+    private final Path journalFile;
+    private final Path snapshotFile;
+    private final long interval;
+    private final int retainAdjustments;
+    private final MessageReceiver shadow = new MessageReceiver(new ProductDictionary(), new NullReportSink());
+    private final JournalReader reader = new JournalReader(shadow.getDictionary());
+    private FileChannel channel = null;
+    private Thread thread = null;
+    //Woken on stop. Not interrupting the thread, that would close the journal channel
+    private final Object wakeup = new Object();
+    private volatile boolean running = false;
+
+    /**
+     * @param journalFile
+     * @param snapshotFile
+     * @param interval milliseconds between two snapshots
+     */
+    public Snapshotter(Path journalFile, Path snapshotFile, long interval) {
+        this(journalFile, snapshotFile, interval, Configuration.get().getRetentionMs() > 0
+                ? Configuration.get().getRetainAdjustments() : -1);
+    }
+
+    /**
+     * @param journalFile
+     * @param snapshotFile
+     * @param interval          milliseconds between two snapshots
+     * @param retainAdjustments recent adjustments kept one by one, the older compacted; -1 to keep all
+     */
+    public Snapshotter(Path journalFile, Path snapshotFile, long interval, int retainAdjustments) {
+        this.journalFile = journalFile;
+        this.snapshotFile = snapshotFile;
+        this.interval = interval;
+        this.retainAdjustments = retainAdjustments;
+    }
+
+    /**
+     * Start following the journal.
+     *
+     * @param from snapshot the live receiver was restored from, null when it replayed the whole journal
+     * @throws IOException
+     */
+    public synchronized void start(Snapshot from) throws IOException {
+        if (from != null) {
+            shadow.restore(from);
+            reader.seek(from.getJournalPosition(), from.getJournalNames());
+        }
+        channel = FileChannel.open(journalFile, StandardOpenOption.READ);
+        running = true;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (running) {
+                    synchronized (wakeup) {
+                        try {
+                            if (running)
+                                wakeup.wait(interval);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                    if (!running)
+                        return;
+                    try {
+                        snapshot();
+                    } catch (IOException e) {
+                        logger.log(Level.WARNING, "Snapshot could not be written", e);
+                    }
+                }
+            }
+        }, "snapshotter");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Catch up with the journal and write a snapshot when anything new was journaled.
+     *
+     * @return true when a snapshot was written
+     * @throws IOException
+     */
+    public synchronized boolean snapshot() throws IOException {
+        if (reader.read(channel, shadow::restore) == 0 && snapshotFile.toFile().exists())
+            return false;
+        if (retainAdjustments >= 0)
+            shadow.compact(0, retainAdjustments);
+        Snapshot snapshot = shadow.snapshot();
+        snapshot.setJournalPosition(reader.getPosition());
+        snapshot.setJournalNames(reader.getNames());
+        SnapshotFile.write(snapshotFile, snapshot);
+        return true;
+    }
+
+    /**
+     * Stop following the journal, after a last snapshot.
+     */
+    public void stop() {
+        running = false;
+        synchronized (wakeup) {
+            wakeup.notifyAll();
+        }
+        if (thread != null) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            if (channel == null)
+                return;
+            try {
+                snapshot();
+                channel.close();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Last snapshot could not be written", e);
+            }
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.jpmc;
+
+import com.jpmc.domain.ApplicationEnum;
+import com.jpmc.domain.Product;
+import com.jpmc.domain.ProductDictionary;
+import com.jpmc.msg.BinaryMessageCodec;
+import com.jpmc.receiver.MessageReceiver;
+import com.jpmc.report.NullReportSink;
+import com.jpmc.server.MessageServer;
+import com.jpmc.server.ServerMode;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Binary clients next to text clients on the same port.
+ *
+ * @author Stanly
+ */
+public class BinaryProtocolTest {
+
+    private MessageServer server = null;
+    private Thread thread = null;
+
+    @After
+    public void stop() throws InterruptedException {
+        if (server != null) {
+            server.stopServer();
+            thread.interrupt();
+            thread.join(10000);
+            server = null;
+            thread = null;
+        }
+    }
+
+    @Test
+    public void testDecodeFrames() {
+        MessageReceiver receiver = new MessageReceiver(new ProductDictionary(), new NullReportSink());
+        BinaryMessageCodec codec = new BinaryMessageCodec(receiver.getDictionary());
+        send(receiver, codec, BinaryMessageCodec.encode(BinaryMessageCodec.SALE, 20, 10, "apple"));
+        send(receiver, codec, BinaryMessageCodec.encode(BinaryMessageCodec.ADD, 0, 20, "apple"));
+        send(receiver, codec, BinaryMessageCodec.encode(BinaryMessageCodec.SALE, 1, 50, "pomme de reinette é"));
+
+        assertEquals("Messages", 3, receiver.messageCount());
+        assertEquals("Apple Quantity", 20, receiver.getQuantityByName("apple"));
+        assertEquals("Apple Total", 600, receiver.getTotalSalePriceByName("apple"));
+        assertEquals("Reinette Total", 50, receiver.getTotalSalePriceByName("pomme de reinette é"));
+
+        byte[] bad = BinaryMessageCodec.encode((byte) 9, 1, 10, "apple");
+        assertNull("Unknown type", codec.decode(ByteBuffer.wrap(bad), BinaryMessageCodec.PREFIX, bad.length - BinaryMessageCodec.PREFIX));
+        byte[] negative = BinaryMessageCodec.encode(BinaryMessageCodec.SALE, 1, -10, "apple");
+        assertNull("Negative price", codec.decode(ByteBuffer.wrap(negative), BinaryMessageCodec.PREFIX, negative.length - BinaryMessageCodec.PREFIX));
+    }
+
+    @Test
+    public void testPooledMixedClients() throws Exception {
+        assertMixedClients(ServerMode.POOLED);
+    }
+
+    @Test
+    public void testNioMixedClients() throws Exception {
+        assertMixedClients(ServerMode.NIO);
+    }
+
+    private void send(MessageReceiver receiver, BinaryMessageCodec codec, byte[] frame) {
+        Product p = codec.decode(ByteBuffer.wrap(frame), BinaryMessageCodec.PREFIX, frame.length - BinaryMessageCodec.PREFIX);
+        receiver.handle(p);
+    }
+
+    private void assertMixedClients(ServerMode mode) throws Exception {
+        startServer(mode);
+
+        Socket binary = connect();
+        Socket split = connect();
+        Socket text = connect();
+
+        OutputStream out = binary.getOutputStream();
+        out.write(BinaryMessageCodec.HANDSHAKE);
+        for (int i = 0; i < 10; i++) {
+            out.write(BinaryMessageCodec.encode(BinaryMessageCodec.SALE, 2, 10, "apple"));
+        }
+        out.flush();
+
+        //Frames arriving a byte at a time are put back together
+        OutputStream splitOut = split.getOutputStream();
+        splitOut.write(BinaryMessageCodec.HANDSHAKE);
+        splitOut.flush();
+        for (int i = 0; i < 5; i++) {
+            for (byte b : BinaryMessageCodec.encode(BinaryMessageCodec.SALE, 1, 25, "banana")) {
+                splitOut.write(b);
+                splitOut.flush();
+            }
+        }
+
+        OutputStream textOut = text.getOutputStream();
+        for (int i = 0; i < 5; i++) {
+            textOut.write("1 sales of apples at 10p each\n".getBytes());
+        }
+        textOut.flush();
+
+        binary.close();
+        split.close();
+        text.close();
+
+        MessageReceiver receiver = server.getMessageReceiver();
+        long deadline = System.currentTimeMillis() + 30000;
+        while (receiver.messageCount() < 20 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals("Messages", 20, receiver.messageCount());
+        assertEquals("Apple Quantity", 25, receiver.getQuantityByName("apple"));
+        assertEquals("Apple Total", 250, receiver.getTotalSalePriceByName("apple"));
+        assertEquals("Banana Total", 125, receiver.getTotalSalePriceByName("banana"));
+    }
+
+    private Socket connect() throws Exception {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (true) {
+            try {
+                return new Socket(ApplicationEnum.TCP_HOST.getEnumType(), Integer.parseInt(ApplicationEnum.TCP_PORT.getEnumType()));
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline)
+                    throw e;
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    private void startServer(ServerMode mode) {
+        server = new MessageServer(mode);
+        thread = new Thread() {
+            public void run() {
+                try {
+                    server.startServer();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        thread.start();
+    }
+}
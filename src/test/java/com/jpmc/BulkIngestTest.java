@@ -0,0 +1,162 @@
+package com.jpmc;
+
+import com.jpmc.domain.ProductDictionary;
+import com.jpmc.domain.Report;
+import com.jpmc.ingest.BulkIngest;
+import com.jpmc.receiver.Adjustment;
+import com.jpmc.receiver.MessageReceiver;
+import com.jpmc.report.NullReportSink;
+import com.jpmc.snapshot.Snapshot;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Bulk file ingest gives the same state as receiving the lines one after the other.
+ *
+ * @author Stanly
+ */
+public class BulkIngestTest {
+
+    private static final String[] PRODUCTS = {"apples", "oranges", "mangos", "pears", "plums"};
+
+    //Held so the level set below is not lost with a collected logger
+    private static final Logger logger = Logger.getLogger("com.jpmc");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Level level = null;
+
+    @Before
+    public void quiet() {
+        //The line by line receiver logs every message
+        level = logger.getLevel();
+        logger.setLevel(Level.SEVERE);
+    }
+
+    @After
+    public void restore() {
+        logger.setLevel(level);
+    }
+
+    @Test
+    public void testInput50InSmallChunks() throws IOException {
+        assertSameAsSequential(Paths.get("src/test/resources/input50.txt"), 64);
+    }
+
+    @Test
+    public void testGeneratedFile() throws IOException {
+        Path file = folder.newFile("bulk.txt").toPath();
+        Random random = new Random(42);
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < 200000; i++) {
+                String product = PRODUCTS[random.nextInt(PRODUCTS.length)];
+                int kind = random.nextInt(100);
+                if (kind < 60) {
+                    out.write((1 + random.nextInt(20)) + " sales of " + product + " at " + (1 + random.nextInt(90)) + "p each");
+                } else if (kind < 90) {
+                    out.write(product.substring(0, product.length() - 1) + " at " + (1 + random.nextInt(90)) + "p");
+                } else if (kind < 95) {
+                    out.write("Add " + random.nextInt(5) + "p " + product);
+                } else if (kind < 98) {
+                    out.write("Subtract " + random.nextInt(3) + "p " + product);
+                } else if (kind < 99) {
+                    out.write("Multiply 1p " + product);
+                } else {
+                    out.write("not a message");
+                }
+                out.write(i % 7 == 0 ? "\r\n" : "\n");
+            }
+        }
+        assertSameAsSequential(file, 1 << 16);
+    }
+
+    @Test
+    public void testFractionalFactors() throws IOException {
+        Path file = folder.newFile("factors.txt").toPath();
+        Random random = new Random(7);
+        String[] factors = {"1.5", "0.75", "1.05", "2"};
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < 20000; i++) {
+                String product = PRODUCTS[random.nextInt(PRODUCTS.length)];
+                int kind = random.nextInt(100);
+                if (kind < 80) {
+                    out.write((1 + random.nextInt(20)) + " sales of " + product + " at " + (1 + random.nextInt(90)) + "p each");
+                } else if (kind < 90) {
+                    out.write("Add " + random.nextInt(5) + "p " + product);
+                } else {
+                    out.write("Multiply " + factors[random.nextInt(factors.length)] + " " + product);
+                }
+                out.write('\n');
+            }
+        }
+        assertSameAsSequential(file, 4096);
+    }
+
+    @Test
+    public void testIdPrefixedLines() throws IOException {
+        Path file = folder.newFile("ids.txt").toPath();
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < 1000; i++) {
+                out.write("#batch-" + i + " " + (1 + i % 5) + " sales of " + PRODUCTS[i % PRODUCTS.length] + " at 10p each\n");
+                if (i % 100 == 0)
+                    out.write("#adjust-" + i + " Add 1p apples\n");
+            }
+        }
+        assertSameAsSequential(file, 4096);
+    }
+
+    private void assertSameAsSequential(Path file, long chunkSize) throws IOException {
+        MessageReceiver expected = new MessageReceiver(new ProductDictionary(), new NullReportSink());
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            expected.receive(line);
+        }
+
+        MessageReceiver actual = new MessageReceiver(new ProductDictionary(), new NullReportSink());
+        long messages = new BulkIngest(actual, new ForkJoinPool(4), chunkSize).ingest(file);
+
+        assertEquals("Messages", expected.messageCount(), messages);
+        assertEquals("Message Count", expected.messageCount(), actual.messageCount());
+        Snapshot want = expected.snapshot();
+        Snapshot got = actual.snapshot();
+        assertEquals("Totals", totals(want), totals(got));
+        List<Adjustment> wantAdjustments = want.getAdjustments();
+        List<Adjustment> gotAdjustments = got.getAdjustments();
+        assertEquals("Adjustments", wantAdjustments.size(), gotAdjustments.size());
+        for (int i = 0; i < wantAdjustments.size(); i++) {
+            Adjustment w = wantAdjustments.get(i);
+            Adjustment g = gotAdjustments.get(i);
+            assertEquals("Adjusted Product " + i, w.getProduct().getName(), g.getProduct().getName());
+            assertEquals("Applied " + i, w.isApplied(), g.isApplied());
+            assertEquals("Quantity " + i, w.getQuantity(), g.getQuantity());
+            assertEquals("Before " + i, w.getBefore(), g.getBefore());
+            assertEquals("After " + i, w.getAfter(), g.getAfter());
+        }
+    }
+
+    private static TreeMap<String, String> totals(Snapshot snapshot) {
+        TreeMap<String, String> totals = new TreeMap<String, String>();
+        for (Report r : snapshot.getProducts()) {
+            totals.put(r.getName(), r.getQuantity() + " " + r.getTotalPrice());
+        }
+        return totals;
+    }
+}
@@ -0,0 +1,301 @@
+package com.jpmc;
+
+import com.jpmc.cluster.Cluster;
+import com.jpmc.cluster.PartitionRouter;
+import com.jpmc.cluster.ReportCoordinator;
+import com.jpmc.domain.ApplicationEnum;
+import com.jpmc.domain.Product;
+import com.jpmc.domain.ProductDictionary;
+import com.jpmc.domain.Report;
+import com.jpmc.receiver.MessageReceiver;
+import com.jpmc.report.MemoryReportSink;
+import com.jpmc.report.NullReportSink;
+import com.jpmc.server.Handshake;
+import com.jpmc.server.MessageServer;
+import com.jpmc.server.NioMessageServer;
+import com.jpmc.server.ServerMode;
+import com.jpmc.snapshot.Snapshot;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Messages routed to three partition nodes give, merged by the coordinator, the totals
+ * of a single node receiving them all.
+ *
+ * @author Stanly
+ */
+public class ClusterTest {
+
+    private static final String[] PRODUCTS = {"apples", "oranges", "mangos", "pears", "plums", "kiwis", "limes", "figs"};
+    private static final ServerMode[] MODES = {ServerMode.POOLED, ServerMode.NIO, ServerMode.POOLED};
+    private static final int BASE_PORT = Integer.parseInt(ApplicationEnum.TCP_PORT.getEnumType()) + 1;
+    private static final int ROUTER_PORT = BASE_PORT + MODES.length;
+
+    //Held so the level set below is not lost with a collected logger
+    private static final Logger logger = Logger.getLogger("com.jpmc");
+
+    private Level level = null;
+    private final List<MessageServer> nodes = new ArrayList<MessageServer>();
+    private final List<Thread> threads = new ArrayList<Thread>();
+    private final List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>();
+    private PartitionRouter router = null;
+    private NioMessageServer front = null;
+
+    @Before
+    public void start() throws Exception {
+        level = logger.getLevel();
+        logger.setLevel(Level.SEVERE);
+        for (int i = 0; i < MODES.length; i++) {
+            final MessageServer node = Cluster.node(MODES[i], BASE_PORT + i);
+            Thread thread = new Thread() {
+                public void run() {
+                    try {
+                        node.startServer();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            };
+            thread.start();
+            nodes.add(node);
+            threads.add(thread);
+            addresses.add(new InetSocketAddress(ApplicationEnum.TCP_HOST.getEnumType(), BASE_PORT + i));
+        }
+        long deadline = System.currentTimeMillis() + 10000;
+        while (true) {
+            try {
+                router = new PartitionRouter(addresses);
+                return;
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline)
+                    throw e;
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    @After
+    public void stop() throws InterruptedException {
+        if (front != null)
+            front.stop();
+        for (MessageServer node : nodes) {
+            node.stopServer();
+        }
+        for (Thread thread : threads) {
+            thread.interrupt();
+            thread.join(10000);
+        }
+        logger.setLevel(level);
+    }
+
+    @Test
+    public void testRoutedTotalsEqualSingleNode() throws Exception {
+        List<String> lines = lines(3000, new Random(7));
+        MessageReceiver single = new MessageReceiver(new ProductDictionary(ApplicationEnum.MSG_VALID_TYPE.getEnumType().split(",")), new NullReportSink());
+        for (String line : lines) {
+            single.receive(line);
+        }
+
+        startFront();
+        sendAcked(lines);
+        router.close();
+
+        Snapshot cluster = new ReportCoordinator(addresses, new NullReportSink()).gather();
+        assertEquals("Messages", single.messageCount(), cluster.getMessageCount());
+        assertEquals("Adjustments", single.adjustmentCount(), cluster.getAdjustments().size());
+        assertEquals("Totals", totals(single.snapshot()), totals(cluster));
+        assertPartitioned();
+    }
+
+    @Test
+    public void testBinaryMessagesRouted() throws Exception {
+        MessageReceiver single = new MessageReceiver(new ProductDictionary(), new NullReportSink());
+        Random random = new Random(3);
+        for (int i = 0; i < 500; i++) {
+            Product p = new Product();
+            String name = PRODUCTS[random.nextInt(PRODUCTS.length)].replaceAll("s$", "");
+            p.setName(name);
+            p.setProductId(single.getDictionary().register(name));
+            p.setType(ApplicationEnum.RECORD);
+            p.setQuantity(1 + random.nextInt(5));
+            p.setPrice(1 + random.nextInt(50));
+            single.apply(p);
+            router.handle(p);
+        }
+        router.close();
+
+        Snapshot cluster = new ReportCoordinator(addresses, new NullReportSink()).gather();
+        assertEquals(500, cluster.getMessageCount());
+        assertEquals(totals(single.snapshot()), totals(cluster));
+        assertPartitioned();
+    }
+
+    @Test
+    public void testCoordinatorReports() throws Exception {
+        for (String line : lines(60, new Random(11))) {
+            router.handle(line);
+        }
+        router.close();
+
+        MemoryReportSink sink = new MemoryReportSink();
+        ReportCoordinator coordinator = new ReportCoordinator(addresses, sink);
+        coordinator.poll();
+        List<String> reports = sink.getReports();
+        assertEquals("Log and adjustment report", 2, reports.size());
+        assertTrue(reports.get(0).contains("log report"));
+        assertTrue(reports.get(1).contains("adjustment log report"));
+
+        coordinator.poll();
+        assertEquals("Nothing new to report", 2, sink.getReports().size());
+    }
+
+    @Test
+    public void testTextAndBinaryKeepTheirOrder() throws Exception {
+        MessageReceiver single = new MessageReceiver(new ProductDictionary(), new NullReportSink());
+        for (int i = 0; i < 200; i++) {
+            String line = (1 + i % 3) + " sales of apples at " + (10 + i % 7) + "p each";
+            single.receive(line);
+            router.handle(line);
+            Product p = new Product();
+            p.setName("apple");
+            p.setProductId(single.getDictionary().register("apple"));
+            p.setType(i % 2 == 0 ? ApplicationEnum.MULTIPLICATION : ApplicationEnum.ADDITION);
+            p.setAdjustPrice(i % 2 == 1 ? 3 : i % 4 == 0 ? 15000 : 5000);
+            single.apply(p);
+            router.handle(p);
+        }
+        router.close();
+
+        Snapshot cluster = new ReportCoordinator(addresses, new NullReportSink()).gather();
+        assertEquals(400, cluster.getMessageCount());
+        assertEquals(totals(single.snapshot()), totals(cluster));
+    }
+
+    @Test
+    public void testNodeLeavesTheQuotaToTheCoordinator() throws Exception {
+        for (int i = 0; i < 60; i++) {
+            router.handle("1 sales of apples at 10p each");
+        }
+        router.close();
+
+        for (InetSocketAddress node : addresses) {
+            assertFalse("Past its quota, not paused", ReportCoordinator.fetch(node).isPaused());
+        }
+        MemoryReportSink sink = new MemoryReportSink();
+        new ReportCoordinator(addresses, sink).poll();
+        assertTrue(sink.getReports().get(sink.getReports().size() - 1).contains("adjustment log report"));
+    }
+
+    /**
+     * Every product is held by the node owning its partition only
+     */
+    private void assertPartitioned() throws IOException {
+        for (int i = 0; i < addresses.size(); i++) {
+            for (Report r : ReportCoordinator.fetch(addresses.get(i)).getProducts()) {
+                assertEquals(r.getName(), i, PartitionRouter.partition(r.getName(), addresses.size()));
+            }
+        }
+    }
+
+    private void startFront() {
+        front = new NioMessageServer(router, ROUTER_PORT);
+        Thread thread = new Thread() {
+            public void run() {
+                try {
+                    front.start();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Send the lines to the router, returning once all are acknowledged, so all are queued to the nodes
+     */
+    private void sendAcked(List<String> lines) throws Exception {
+        Socket socket = null;
+        long deadline = System.currentTimeMillis() + 10000;
+        while (socket == null) {
+            try {
+                socket = new Socket(ApplicationEnum.TCP_HOST.getEnumType(), ROUTER_PORT);
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline)
+                    throw e;
+                Thread.sleep(50);
+            }
+        }
+        try {
+            OutputStream out = socket.getOutputStream();
+            StringBuilder text = new StringBuilder();
+            for (String line : lines) {
+                text.append(line).append('\n');
+            }
+            out.write(Handshake.ACKED_TEXT);
+            out.write(text.toString().getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            socket.shutdownOutput();
+            InputStream in = socket.getInputStream();
+            int acks = 0;
+            int b;
+            while ((b = in.read()) >= 0) {
+                if (b == Handshake.ACK)
+                    acks++;
+            }
+            assertEquals("Acknowledged", lines.size(), acks);
+        } finally {
+            socket.close();
+        }
+    }
+
+    private static Map<String, String> totals(Snapshot snapshot) {
+        Map<String, String> totals = new TreeMap<String, String>();
+        for (Report r : snapshot.getProducts()) {
+            totals.put(r.getName(), r.getQuantity() + " " + r.getTotalPrice());
+        }
+        return totals;
+    }
+
+    private static List<String> lines(int count, Random random) {
+        List<String> lines = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            String product = PRODUCTS[random.nextInt(PRODUCTS.length)];
+            int kind = random.nextInt(100);
+            if (kind < 50) {
+                lines.add((1 + random.nextInt(20)) + " sales of " + product + " at " + (1 + random.nextInt(99)) + "p each");
+            } else if (kind < 70) {
+                lines.add(product.substring(0, product.length() - 1) + " at " + (1 + random.nextInt(99)) + "p");
+            } else if (kind < 80) {
+                lines.add("Add " + (1 + random.nextInt(9)) + "p " + product);
+            } else if (kind < 90) {
+                lines.add("Subtract " + (1 + random.nextInt(9)) + "p " + product);
+            } else if (kind < 97) {
+                lines.add("Multiply " + (1 + random.nextInt(2)) + "p " + product);
+            } else {
+                lines.add("not a sale");
+            }
+        }
+        return lines;
+    }
+}
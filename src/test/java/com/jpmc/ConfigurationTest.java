@@ -0,0 +1,184 @@
+package com.jpmc;
+
+import com.jpmc.config.Configuration;
+import com.jpmc.config.Settings;
+import com.jpmc.domain.ProductDictionary;
+import com.jpmc.journal.SyncPolicy;
+import com.jpmc.receiver.FlowControl;
+import com.jpmc.receiver.MessageReceiver;
+import com.jpmc.report.MemoryReportSink;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Settings are parsed once into typed fields, and a reload of the file applies to the
+ * running receiver unless it holds an invalid value.
+ *
+ * @author Stanly
+ */
+public class ConfigurationTest {
+
+    //Held so the level set below is not lost with a collected logger
+    private static final Logger logger = Logger.getLogger("com.jpmc");
+
+    private Level level = null;
+    private Path file = null;
+
+    @Before
+    public void quiet() throws Exception {
+        level = logger.getLevel();
+        logger.setLevel(Level.SEVERE);
+        file = Files.createTempFile("sales", ".properties");
+    }
+
+    @After
+    public void restore() throws Exception {
+        Configuration.apply(new Properties());
+        logger.setLevel(level);
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void testParse() {
+        Properties properties = new Properties();
+        properties.setProperty("TCP_PORT", "7000");
+        properties.setProperty("MSG_VALID_TYPE", "plum, pear,,");
+        Settings settings = Settings.parse(properties);
+        assertEquals(7000, settings.getTcpPort());
+        assertEquals("Default", 10, settings.getReportEvery());
+        assertEquals("[plum, pear]", settings.getProducts().toString());
+
+        properties.setProperty("WORKER_POOL_SIZE", "many");
+        try {
+            Settings.parse(properties);
+            fail("Not a number");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("WORKER_POOL_SIZE"));
+        }
+    }
+
+    @Test
+    public void testParseEveryTunable() {
+        Settings settings = Settings.defaults();
+        assertEquals(SyncPolicy.GROUP, settings.getJournalSyncPolicy());
+        assertFalse(settings.isDedup());
+        assertEquals("0 turns the window report off", 0, settings.getWindowReportMs());
+        assertEquals(0.0001, settings.getDedupFalsePositive(), 0);
+
+        Properties properties = new Properties();
+        properties.setProperty("JOURNAL_SYNC_POLICY", "always");
+        properties.setProperty("DEDUP", "TRUE");
+        properties.setProperty("ROUTER_QUEUE_SIZE", "128");
+        settings = Settings.parse(properties);
+        assertEquals(SyncPolicy.ALWAYS, settings.getJournalSyncPolicy());
+        assertTrue(settings.isDedup());
+        assertEquals(128, settings.getRouterQueueSize());
+
+        assertRefused("HISTORY", "yes");
+        assertRefused("DEDUP_FALSE_POSITIVE", "1");
+        assertRefused("JOURNAL_SYNC_POLICY", "sometimes");
+        assertRefused("RETENTION_MS", "-1");
+        assertRefused("SNAPSHOT_INTERVAL_MS", "0");
+    }
+
+    @Test(timeout = 10000)
+    public void testWatchersStopOnTheirOwn() throws Exception {
+        write("LOG_REPORT_PER_MESSAGE_RECEIVED=5\n");
+        Configuration.load(file);
+        Configuration.Watcher stopped = Configuration.watch(10);
+        Configuration.Watcher watching = Configuration.watch(10);
+        try {
+            stopped.stop();
+            assertFalse(stopped.isWatching());
+            assertTrue("The other watcher runs on", watching.isWatching());
+
+            write("LOG_REPORT_PER_MESSAGE_RECEIVED=7\n");
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() + 60000));
+            while (Configuration.get().getReportEvery() != 7) {
+                Thread.sleep(10);
+            }
+        } finally {
+            watching.stop();
+        }
+        assertFalse(watching.isWatching());
+        assertEquals("Never", null, Configuration.watch(0));
+    }
+
+    @Test
+    public void testReloadReportInterval() throws Exception {
+        write("LOG_REPORT_PER_MESSAGE_RECEIVED=5\n");
+        Configuration.load(file);
+        MemoryReportSink sink = new MemoryReportSink();
+        MessageReceiver receiver = new MessageReceiver(new ProductDictionary(), sink);
+        for (int i = 0; i < 10; i++) {
+            receiver.receive("1 sales of apples at 10p each");
+        }
+        assertEquals(2, sink.getReports().size());
+        assertTrue(sink.getReports().get(0).startsWith("After 5 messages received"));
+
+        write("LOG_REPORT_PER_MESSAGE_RECEIVED=-1\n");
+        assertFalse("Invalid, refused", Configuration.reload());
+        assertEquals(5, Configuration.get().getReportEvery());
+
+        write("LOG_REPORT_PER_MESSAGE_RECEIVED=20\n");
+        assertTrue(Configuration.reload());
+        for (int i = 0; i < 10; i++) {
+            receiver.receive("1 sales of apples at 10p each");
+        }
+        assertEquals("Reported at 20 only", 3, sink.getReports().size());
+    }
+
+    @Test
+    public void testReloadQuota() throws Exception {
+        MessageReceiver receiver = new MessageReceiver(new ProductDictionary(), new MemoryReportSink());
+        FlowControl flow = receiver.getFlowControl();
+        flow.setEnabled(true);
+        for (int i = 0; i < 30; i++) {
+            receiver.receive("1 sales of apples at 10p each");
+        }
+        assertTrue(flow.isOpen());
+
+        Properties properties = new Properties();
+        properties.setProperty("MAX_MESSAGES_TO_PAUSE_PROCESSING", "20");
+        Configuration.apply(properties);
+        receiver.receive("1 sales of apples at 10p each");
+        assertTrue("Already past the new quota", flow.isStoppedAtQuota());
+
+        receiver.resume();
+        for (int i = 0; i < 19; i++) {
+            receiver.receive("1 sales of apples at 10p each");
+        }
+        assertTrue(flow.isOpen());
+        receiver.receive("1 sales of apples at 10p each");
+        assertTrue(flow.isStoppedAtQuota());
+    }
+
+    private static void assertRefused(String key, String value) {
+        Properties properties = new Properties();
+        properties.setProperty(key, value);
+        try {
+            Settings.parse(properties);
+            fail(key + "=" + value);
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith(key));
+        }
+    }
+
+    private void write(String properties) throws Exception {
+        Files.write(file, properties.getBytes(StandardCharsets.ISO_8859_1));
+    }
+}
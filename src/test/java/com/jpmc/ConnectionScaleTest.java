@@ -0,0 +1,127 @@
+package com.jpmc;
+
+import com.jpmc.domain.ApplicationEnum;
+import com.jpmc.pipeline.WaitStrategy;
+import com.jpmc.server.MessageServer;
+import com.jpmc.server.ServerMode;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Opens thousands of concurrent client connections against each connection handling mode.
+ *
+ * @author Stanly
+ */
+public class ConnectionScaleTest {
+
+    private static final int CONNECTIONS = 2000;
+
+    private MessageServer server = null;
+    private Thread thread = null;
+
+    @After
+    public void stop() throws InterruptedException {
+        if (server != null) {
+            server.stopServer();
+            thread.interrupt();
+            thread.join(10000);
+            server = null;
+            thread = null;
+        }
+    }
+
+    @Test
+    public void testVirtualThreadConnections() throws Exception {
+        //On Java 17 the server falls back to a platform thread per connection
+        Assume.assumeTrue("Virtual threads need Java 21 or later", virtualThreads());
+        assertAllConnectionsProcessed(ServerMode.VIRTUAL);
+    }
+
+    @Test
+    public void testPooledConnections() throws Exception {
+        assertAllConnectionsProcessed(ServerMode.POOLED);
+    }
+
+    @Test
+    public void testNioConnections() throws Exception {
+        assertAllConnectionsProcessed(ServerMode.NIO);
+    }
+
+    @Test
+    public void testPipelinedConnections() throws Exception {
+        assertAllConnectionsProcessed(ServerMode.NIO, WaitStrategy.PARK);
+        assertEquals("Pipeline Depth", 0, server.getPipeline().depth());
+    }
+
+    private void assertAllConnectionsProcessed(ServerMode mode) throws Exception {
+        assertAllConnectionsProcessed(mode, null);
+    }
+
+    private void assertAllConnectionsProcessed(ServerMode mode, WaitStrategy waitStrategy) throws Exception {
+        startServer(mode, waitStrategy);
+
+        Socket[] sockets = new Socket[CONNECTIONS];
+        for (int i = 0; i < CONNECTIONS; i++) {
+            sockets[i] = connect();
+        }
+        byte[] msg = "1 sales of apples at 10p each\n".getBytes();
+        for (Socket socket : sockets) {
+            OutputStream out = socket.getOutputStream();
+            out.write(msg);
+            out.flush();
+        }
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+
+        long deadline = System.currentTimeMillis() + 60000;
+        while (server.getMessageReceiver().messageCount() < CONNECTIONS && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals("Messages", CONNECTIONS, server.getMessageReceiver().messageCount());
+        assertEquals("Apple Quantity", CONNECTIONS, server.getMessageReceiver().getQuantityByName("apple"));
+    }
+
+    private Socket connect() throws Exception {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (true) {
+            try {
+                return new Socket(ApplicationEnum.TCP_HOST.getEnumType(), Integer.parseInt(ApplicationEnum.TCP_PORT.getEnumType()));
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline)
+                    throw e;
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    private void startServer(ServerMode mode, WaitStrategy waitStrategy) {
+        server = new MessageServer(mode, waitStrategy);
+        thread = new Thread() {
+            public void run() {
+                try {
+                    server.startServer();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        thread.start();
+    }
+
+    private static boolean virtualThreads() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package com.jpmc;
+
+import com.jpmc.domain.ApplicationEnum;
+import com.jpmc.pipeline.MessagePipeline;
+import com.jpmc.pipeline.WaitStrategy;
+import com.jpmc.receiver.MessageReceiver;
+import com.jpmc.server.DeliverySessions;
+import com.jpmc.server.Handshake;
+import com.jpmc.server.MessageServer;
+import com.jpmc.server.MessageWorker;
+import com.jpmc.server.NioMessageServer;
+import com.jpmc.server.ServerMode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Lines of a delivery session are acknowledged cumulatively, and the lines resent after
+ * a reconnect are handled once. Acknowledged lines are applied, not only read.
+ *
+ * @author Stanly
+ */
+public class DeliveryTest {
+
+    //Held so the level set below is not lost with a collected logger
+    private static final Logger logger = Logger.getLogger("com.jpmc");
+
+    private Level level = null;
+    private MessageServer server = null;
+    private Thread thread = null;
+
+    @Before
+    public void quiet() {
+        level = logger.getLevel();
+        logger.setLevel(Level.SEVERE);
+    }
+
+    @After
+    public void stop() throws InterruptedException {
+        logger.setLevel(level);
+        if (server != null) {
+            server.stopServer();
+            thread.interrupt();
+            thread.join(10000);
+            server = null;
+            thread = null;
+        }
+    }
+
+    @Test
+    public void testDeduplicationWindow() {
+        DeliverySessions.Session session = new DeliverySessions(64, 60000).session("till-1");
+        assertEquals(DeliverySessions.ACCEPTED, session.accept(1));
+        assertEquals("Not handed over yet", 0, session.acknowledged());
+        session.handed(0);
+        assertEquals(DeliverySessions.ACCEPTED, session.accept(3));
+        session.handed(1);
+        assertEquals("Waiting for 2", 1, session.acknowledged());
+        assertEquals(DeliverySessions.DUPLICATE, session.accept(3));
+        assertEquals(DeliverySessions.AHEAD, session.accept(66));
+        assertEquals(DeliverySessions.ACCEPTED, session.accept(2));
+        session.handed(2);
+        assertEquals(3, session.acknowledged());
+        assertEquals(2, session.ticket());
+        assertEquals(DeliverySessions.DUPLICATE, session.accept(2));
+        assertEquals("The window moved on", DeliverySessions.ACCEPTED, session.accept(66));
+    }
+
+    @Test
+    public void testIdleSessionsForgotten() throws Exception {
+        DeliverySessions sessions = new DeliverySessions(64, 10);
+        sessions.session("till-1").accept(1);
+        Thread.sleep(50);
+        sessions.session("till-2").accept(1);
+        assertEquals("Only the new session", 1, sessions.size());
+        assertEquals("Started afresh", 0, sessions.session("till-1").acknowledged());
+    }
+
+    @Test
+    public void testPooledResendAfterReconnect() throws Exception {
+        assertResendHandledOnce(ServerMode.POOLED);
+    }
+
+    @Test
+    public void testNioResendAfterReconnect() throws Exception {
+        assertResendHandledOnce(ServerMode.NIO);
+    }
+
+    @Test(timeout = 20000)
+    public void testPooledAcknowledgesOnceApplied() throws Exception {
+        final MessageReceiver receiver = new MessageReceiver();
+        final MessagePipeline pipeline = new MessagePipeline(receiver, WaitStrategy.PARK, 64, 64);
+        try (final ServerSocket listener = new ServerSocket(0)) {
+            Thread worker = new Thread() {
+                public void run() {
+                    try {
+                        new MessageWorker(listener.accept(), pipeline).run();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            };
+            worker.start();
+            try (Socket socket = new Socket(ApplicationEnum.TCP_HOST.getEnumType(), listener.getLocalPort())) {
+                assertAcknowledgedOnceApplied(socket, pipeline, receiver);
+            }
+            worker.join(10000);
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void testNioAcknowledgesOnceApplied() throws Exception {
+        MessageReceiver receiver = new MessageReceiver();
+        MessagePipeline pipeline = new MessagePipeline(receiver, WaitStrategy.PARK, 64, 64);
+        final NioMessageServer nio = new NioMessageServer(pipeline, Integer.parseInt(ApplicationEnum.TCP_PORT.getEnumType()));
+        Thread loop = new Thread() {
+            public void run() {
+                try {
+                    nio.start();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        loop.start();
+        try (Socket socket = connect()) {
+            assertAcknowledgedOnceApplied(socket, pipeline, receiver);
+        } finally {
+            nio.stop();
+            loop.join(10000);
+        }
+    }
+
+    /**
+     * Nothing is acknowledged, nor greeted, while the stages of the pipeline are not
+     * running, and every line acknowledged is applied.
+     */
+    private static void assertAcknowledgedOnceApplied(Socket socket, MessagePipeline pipeline, MessageReceiver receiver)
+            throws Exception {
+        OutputStream out = socket.getOutputStream();
+        StringBuilder lines = new StringBuilder();
+        lines.append((char) Handshake.ACKED_TEXT);
+        for (int i = 0; i < 10; i++) {
+            lines.append("1 sales of apples at 10p each\n");
+        }
+        out.write(lines.toString().getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        InputStream in = socket.getInputStream();
+        Thread.sleep(300);
+        assertEquals("Not acknowledged before it is applied", 0, in.available());
+
+        pipeline.start();
+        try {
+            for (int i = 0; i < 10; i++) {
+                assertEquals(Handshake.ACK, in.read());
+            }
+            assertEquals(10, receiver.messageCount());
+        } finally {
+            pipeline.stop();
+        }
+    }
+
+    private void assertResendHandledOnce(ServerMode mode) throws Exception {
+        server = new MessageServer(mode);
+        thread = new Thread() {
+            public void run() {
+                try {
+                    server.startServer();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        thread.start();
+
+        assertEquals(20, send(1, 20));
+        //The client did not see the acknowledgement of 11 to 20 and sends them again
+        assertEquals(30, send(11, 30));
+        MessageReceiver receiver = server.getMessageReceiver();
+        assertEquals(30, receiver.messageCount());
+        assertEquals(30, receiver.getQuantityByName("apple"));
+    }
+
+    /**
+     * Send the lines of the session and read the acknowledgements until the last
+     *
+     * @return the last sequence acknowledged
+     */
+    private static long send(int from, int to) throws Exception {
+        try (Socket socket = connect()) {
+            OutputStream out = socket.getOutputStream();
+            StringBuilder lines = new StringBuilder();
+            lines.append((char) Handshake.SEQUENCED).append("till-1\n");
+            for (int i = from; i <= to; i++) {
+                lines.append(i).append(" 1 sales of apples at 10p each\n");
+            }
+            out.write(lines.toString().getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            long acknowledged = 0;
+            while (acknowledged < to) {
+                assertEquals(Handshake.SEQUENCE_ACK, in.readByte());
+                acknowledged = in.readLong();
+            }
+            return acknowledged;
+        }
+    }
+
+    private static Socket connect() throws Exception {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (true) {
+            try {
+                return new Socket(ApplicationEnum.TCP_HOST.getEnumType(), Integer.parseInt(ApplicationEnum.TCP_PORT.getEnumType()));
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline)
+                    throw e;
+                Thread.sleep(50);
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.jpmc;
+
+import com.jpmc.domain.ProductDictionary;
+import com.jpmc.receiver.DuplicateFilter;
+import com.jpmc.receiver.MessageReceiver;
+import com.jpmc.report.NullReportSink;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Messages resent with the same id are recorded once, in fixed memory.
+ *
+ * @author Stanly
+ */
+public class DuplicateFilterTest {
+
+    //Held so the level set below is not lost with a collected logger
+    private static final Logger logger = Logger.getLogger("com.jpmc");
+
+    private Level level = null;
+
+    @Before
+    public void quiet() {
+        level = logger.getLevel();
+        logger.setLevel(Level.SEVERE);
+    }
+
+    @After
+    public void restore() {
+        logger.setLevel(level);
+    }
+
+    @Test
+    public void testDuplicatesBeyondTheRecentIds() {
+        DuplicateFilter filter = new DuplicateFilter(10000, 0.001, 2);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(filter.add(id(i)));
+        }
+        int duplicates = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (!filter.add(id(i)))
+                duplicates++;
+        }
+        assertEquals("Found by the Bloom filter", 1000, duplicates);
+    }
+
+    @Test
+    public void testGenerations() {
+        DuplicateFilter filter = new DuplicateFilter(1000, 0.01, 2);
+        long memory = filter.memoryBytes();
+        int falsePositives = 0;
+        for (int i = 0; i < 3000; i++) {
+            if (!filter.add(id(i)))
+                falsePositives++;
+        }
+        assertTrue("False positives " + falsePositives, falsePositives < 60);
+        assertEquals(memory, filter.memoryBytes());
+        assertFalse("Previous generation", filter.add(id(1500)));
+        assertFalse("Current generation", filter.add(id(2500)));
+        int remembered = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (!filter.add(id(i)))
+                remembered++;
+        }
+        assertTrue("Two generations ago is forgotten, " + remembered, remembered < 100);
+    }
+
+    @Test
+    public void testReceiverDropsResentMessages() {
+        MessageReceiver receiver = new MessageReceiver(new ProductDictionary(), new NullReportSink());
+        receiver.setDuplicateFilter(new DuplicateFilter(1000, 0.001, 64));
+        receiver.receive("#batch-1.1 3 sales of apples at 10p each");
+        receiver.receive("#batch-1.2 Add 5p apples");
+        //The retry of the whole batch
+        receiver.receive("#batch-1.1 3 sales of apples at 10p each");
+        receiver.receive("#batch-1.2 Add 5p apples");
+        receiver.receive("#batch-2.1 3 sales of apples at 10p each");
+        receiver.receive("3 sales of apples at 10p each");
+        receiver.receive("3 sales of apples at 10p each");
+
+        assertEquals(5, receiver.messageCount());
+        assertEquals(12, receiver.getQuantityByName("apple"));
+        assertEquals(1, receiver.adjustmentCount());
+        assertEquals(2, receiver.getMetrics().getRejectedDuplicate());
+        assertEquals("Duplicates are not counted valid", 5, receiver.getMetrics().getMessagesValid());
+    }
+
+    private static long id(int i) {
+        String id = "message-" + i;
+        return DuplicateFilter.hash(id, 0, id.length());
+    }
+}
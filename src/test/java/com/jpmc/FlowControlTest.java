@@ -0,0 +1,224 @@
+package com.jpmc;
+
+import com.jpmc.domain.ApplicationEnum;
+import com.jpmc.pipeline.MessagePipeline;
+import com.jpmc.pipeline.WaitStrategy;
+import com.jpmc.receiver.FlowControl;
+import com.jpmc.receiver.MessageReceiver;
+import com.jpmc.server.MessageServer;
+import com.jpmc.server.ServerMode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * With flow control the server stops reading at the day's quota and reads on after a
+ * resume, and the staged pipeline closes the gate while too many messages are in flight.
+ *
+ * @author Stanly
+ */
+public class FlowControlTest {
+
+    private static final int QUOTA = 50;
+    private static final int MESSAGES = 120;
+
+    //Held so the level set below is not lost with a collected logger
+    private static final Logger logger = Logger.getLogger("com.jpmc");
+
+    private Level level = null;
+    private MessageServer server = null;
+    private Thread thread = null;
+
+    @Before
+    public void quiet() {
+        level = logger.getLevel();
+        logger.setLevel(Level.SEVERE);
+    }
+
+    @After
+    public void stop() throws InterruptedException {
+        logger.setLevel(level);
+        if (server != null) {
+            server.stopServer();
+            thread.interrupt();
+            thread.join(10000);
+            server = null;
+            thread = null;
+        }
+    }
+
+    @Test
+    public void testGateClosesAtQuota() {
+        MessageReceiver receiver = new MessageReceiver();
+        FlowControl flow = receiver.getFlowControl();
+        flow.setEnabled(true);
+        for (int i = 0; i < QUOTA - 1; i++) {
+            receiver.receive("apple at 10p");
+        }
+        assertTrue("Open below the quota", flow.isOpen());
+        receiver.receive("apple at 10p");
+        assertTrue("Closed at the quota", flow.isStoppedAtQuota());
+
+        receiver.resume();
+        assertTrue("Open after resume", flow.isOpen());
+        for (int i = 0; i < QUOTA; i++) {
+            receiver.receive("apple at 10p");
+        }
+        assertTrue("Closed at the next quota", flow.isStoppedAtQuota());
+    }
+
+    @Test
+    public void testGateNeverClosesWhenDisabled() {
+        MessageReceiver receiver = new MessageReceiver();
+        for (int i = 0; i < MESSAGES; i++) {
+            receiver.receive("apple at 10p");
+        }
+        assertTrue(receiver.getFlowControl().isOpen());
+        assertEquals(MESSAGES, receiver.messageCount());
+    }
+
+    @Test
+    public void testPooledStopsReadingAtQuota() throws Exception {
+        assertStopsAtQuota(ServerMode.POOLED);
+    }
+
+    @Test
+    public void testNioStopsReadingAtQuota() throws Exception {
+        assertStopsAtQuota(ServerMode.NIO);
+    }
+
+    @Test
+    public void testPipelineInFlightLimit() throws Exception {
+        MessageReceiver receiver = new MessageReceiver();
+        FlowControl flow = receiver.getFlowControl();
+        flow.setEnabled(true);
+        MessagePipeline pipeline = new MessagePipeline(receiver, WaitStrategy.PARK, 64, 16);
+        for (int i = 0; i < 15; i++) {
+            pipeline.handle("apple at 10p");
+        }
+        assertFalse("Below the limit", flow.isInFlightLimited());
+        pipeline.handle("apple at 10p");
+        assertTrue("At the limit", flow.isInFlightLimited());
+
+        pipeline.start();
+        waitFor(flow, true);
+        pipeline.stop();
+        assertEquals(16, receiver.messageCount());
+    }
+
+    @Test
+    public void testPipelineReopensOnceDrained() throws Exception {
+        MessageReceiver receiver = new MessageReceiver();
+        final FlowControl flow = receiver.getFlowControl();
+        flow.setEnabled(true);
+        final MessagePipeline pipeline = new MessagePipeline(receiver, WaitStrategy.YIELD, 8, 2);
+        pipeline.start();
+        Thread[] publishers = new Thread[4];
+        for (int t = 0; t < publishers.length; t++) {
+            publishers[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < 5000; i++) {
+                        pipeline.handle("apple at 10p");
+                    }
+                }
+            };
+            publishers[t].start();
+        }
+        for (Thread publisher : publishers) {
+            publisher.join();
+        }
+        pipeline.stop();
+        assertEquals(0, pipeline.depth());
+        assertFalse("Drained, the in-flight gate is open", flow.isInFlightLimited());
+    }
+
+    @Test(timeout = 10000)
+    public void testPublishAfterStopRejected() {
+        MessageReceiver receiver = new MessageReceiver();
+        MessagePipeline pipeline = new MessagePipeline(receiver, WaitStrategy.YIELD, 8, 8);
+        pipeline.start();
+        pipeline.stop();
+        for (int i = 0; i < 100; i++) {
+            pipeline.handle("apple at 10p");
+        }
+        assertEquals(100, receiver.getMetrics().getRejectedStopped());
+        assertEquals(0, receiver.messageCount());
+    }
+
+    private void assertStopsAtQuota(ServerMode mode) throws Exception {
+        server = new MessageServer(mode);
+        server.setFlowControl(true);
+        thread = new Thread() {
+            public void run() {
+                try {
+                    server.startServer();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        thread.start();
+
+        MessageReceiver receiver = server.getMessageReceiver();
+        try (Socket socket = connect()) {
+            OutputStream out = socket.getOutputStream();
+            StringBuilder lines = new StringBuilder();
+            for (int i = 0; i < MESSAGES; i++) {
+                lines.append("apple at 10p\n");
+            }
+            out.write(lines.toString().getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+
+            assertSettlesAt(receiver, QUOTA);
+            assertTrue(receiver.getFlowControl().isStoppedAtQuota());
+            server.resume();
+            assertSettlesAt(receiver, 2 * QUOTA);
+            server.resume();
+            assertSettlesAt(receiver, MESSAGES);
+        }
+    }
+
+    /**
+     * Wait for the count, then check no further message is read.
+     */
+    private static void assertSettlesAt(MessageReceiver receiver, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (receiver.messageCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(200);
+        assertEquals(count, receiver.messageCount());
+    }
+
+    private static void waitFor(FlowControl flow, boolean open) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (flow.isOpen() != open && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(open, flow.isOpen());
+    }
+
+    private static Socket connect() throws Exception {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (true) {
+            try {
+                return new Socket(ApplicationEnum.TCP_HOST.getEnumType(), Integer.parseInt(ApplicationEnum.TCP_PORT.getEnumType()));
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline)
+                    throw e;
+                Thread.sleep(50);
+            }
+        }
+    }
+}
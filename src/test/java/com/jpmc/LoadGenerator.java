@@ -0,0 +1,320 @@
+package com.jpmc;
+
+import com.jpmc.domain.ApplicationEnum;
+import com.jpmc.metrics.LatencyHistogram;
+import com.jpmc.server.Handshake;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load generator driving the server over many connections at once, unlike
+ * {@link TCPMsgClient} which flushes one line at a time over one socket.
+ * <p>
+ * Every connection sends batches of lines drawn from a pre-generated mix of sales,
+ * multi-sales and adjustments over a configurable number of synthetic products, paced
+ * to its share of the target rate. In ack mode the connection opens with the
+ * {@link Handshake#ACKED_TEXT} handshake and a reader thread matches every
+ * acknowledgement to the send time of its line, recording the end to end latency in a
+ * {@link LatencyHistogram}. When paced, latency is measured from the time a line was
+ * due to be sent rather than when it was, so a stalled server is not hidden by the
+ * generator waiting for it.
+ * <p>
+ * Options are given as key=value arguments, e.g.
+ * {@code connections=16 rate=200000 seconds=10 mix=30,60,10 products=1000 batch=64 ack=true}
+ *
+ * @author Stanly
+ */
+public class LoadGenerator {
+
+    private static final int LINES = 4096;
+    //Lines in flight per connection before the sender waits for acknowledgements
+    private static final int WINDOW = 1 << 16;
+
+    private final String host;
+    private final int port;
+    private int connections = 8;
+    private long rate = 0;
+    private double seconds = 10;
+    private long messages = 0;
+    private int salePercent = 30;
+    private int multiSalePercent = 60;
+    private int products = 100;
+    private int batch = 64;
+    private boolean ack = true;
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong acked = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+
+    public LoadGenerator() {
+        this(ApplicationEnum.TCP_HOST.getEnumType(), Integer.parseInt(ApplicationEnum.TCP_PORT.getEnumType()));
+    }
+
+    public LoadGenerator(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadGenerator generator = new LoadGenerator();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0)
+                throw new IllegalArgumentException("Expected key=value: " + arg);
+            generator.set(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        System.out.println(generator.run());
+    }
+
+    /**
+     * Set an option by name, as given on the command line.
+     *
+     * @param key
+     * @param value
+     */
+    public void set(String key, String value) {
+        switch (key) {
+            case "connections":
+                connections = Integer.parseInt(value);
+                break;
+            case "rate":
+                rate = Long.parseLong(value);
+                break;
+            case "seconds":
+                seconds = Double.parseDouble(value);
+                break;
+            case "messages":
+                messages = Long.parseLong(value);
+                break;
+            case "mix":
+                String[] mix = value.split(",");
+                salePercent = Integer.parseInt(mix[0].trim());
+                multiSalePercent = Integer.parseInt(mix[1].trim());
+                break;
+            case "products":
+                products = Integer.parseInt(value);
+                break;
+            case "batch":
+                batch = Integer.parseInt(value);
+                break;
+            case "ack":
+                ack = Boolean.parseBoolean(value);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown option " + key);
+        }
+    }
+
+    /**
+     * Send until the duration has passed or, when set, the message count is reached,
+     * then wait for the outstanding acknowledgements.
+     *
+     * @return summary of the run
+     * @throws Exception
+     */
+    public String run() throws Exception {
+        long perConnection = messages > 0 ? (messages + connections - 1) / connections : Long.MAX_VALUE;
+        long deadline = messages > 0 ? Long.MAX_VALUE : System.nanoTime() + (long) (seconds * 1e9);
+        Connection[] all = new Connection[connections];
+        for (int i = 0; i < connections; i++) {
+            long quota = messages > 0 ? Math.min(perConnection, Math.max(0, messages - i * perConnection)) : Long.MAX_VALUE;
+            all[i] = new Connection(i, quota, deadline);
+        }
+        long start = System.nanoTime();
+        for (Connection c : all) {
+            c.start();
+        }
+        for (Connection c : all) {
+            c.join();
+        }
+        long elapsed = System.nanoTime() - start;
+        if (ack) {
+            for (Connection c : all) {
+                c.awaitAcks(30000);
+            }
+        }
+        long ackElapsed = System.nanoTime() - start;
+        for (Connection c : all) {
+            c.close();
+        }
+        return summary(elapsed, ackElapsed);
+    }
+
+    public long getSent() {
+        return sent.get();
+    }
+
+    public long getAcked() {
+        return acked.get();
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    private String summary(long elapsed, long ackElapsed) {
+        double secs = elapsed / 1e9;
+        StringBuilder out = new StringBuilder();
+        out.append("connections=").append(connections).append(" batch=").append(batch)
+                .append(" target rate=").append(rate > 0 ? rate + "/s" : "unbounded").append('\n');
+        out.append("sent=").append(sent.get()).append(" in ").append(String.format("%.2f", secs)).append("s, ")
+                .append(Math.round(sent.get() / secs)).append(" messages/s, ")
+                .append(String.format("%.1f", bytes.get() / secs / (1 << 20))).append(" MB/s\n");
+        if (ack) {
+            out.append("acked=").append(acked.get()).append(" in ").append(String.format("%.2f", ackElapsed / 1e9)).append("s\n");
+            out.append("latency ").append(latency.summary()).append('\n');
+        }
+        return out.toString();
+    }
+
+    /**
+     * Pre-generated message lines following the mix.
+     */
+    private byte[][] lines(Random random) {
+        byte[][] lines = new byte[LINES][];
+        for (int i = 0; i < LINES; i++) {
+            String product = "product" + random.nextInt(products);
+            int kind = random.nextInt(100);
+            String line;
+            if (kind < salePercent) {
+                line = product + " at " + (1 + random.nextInt(99)) + "p";
+            } else if (kind < salePercent + multiSalePercent) {
+                line = (1 + random.nextInt(20)) + " sales of " + product + "s at " + (1 + random.nextInt(99)) + "p each";
+            } else {
+                //Multiply by 1, repeated doubling would overflow the totals in a long run
+                String[] operations = {"Add 2p ", "Subtract 1p ", "Multiply 1p "};
+                line = operations[random.nextInt(3)] + product + "s";
+            }
+            lines[i] = (line + "\n").getBytes(StandardCharsets.US_ASCII);
+        }
+        return lines;
+    }
+
+    /**
+     * One client connection: a sender thread and, in ack mode, a reader of the acknowledgements.
+     */
+    private final class Connection extends Thread {
+
+        private final long quota;
+        private final long deadline;
+        private final byte[][] lines;
+        private final long[] sendTimes = new long[WINDOW];
+        private final Socket socket;
+        private volatile long count = 0;
+        //Lines whose send time is stored, written before they are sent
+        private volatile long stamped = 0;
+        private volatile long ackCount = 0;
+        private Thread reader = null;
+
+        private Connection(int index, long quota, long deadline) throws IOException {
+            super("load-" + index);
+            this.quota = quota;
+            this.deadline = deadline;
+            this.lines = lines(new Random(index));
+            this.socket = new Socket(host, port);
+            this.socket.setTcpNoDelay(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                OutputStream out = socket.getOutputStream();
+                if (ack) {
+                    out.write(Handshake.ACKED_TEXT);
+                    reader = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            readAcks();
+                        }
+                    }, getName() + "-acks");
+                    reader.setDaemon(true);
+                    reader.start();
+                }
+                send(out);
+                out.flush();
+                socket.shutdownOutput();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        private void send(OutputStream out) throws IOException {
+            int longest = 0;
+            for (byte[] line : lines) {
+                longest = Math.max(longest, line.length);
+            }
+            byte[] buffer = new byte[batch * longest];
+            double interval = rate > 0 ? 1e9 * connections / rate : 0;
+            long start = System.nanoTime();
+            int next = 0;
+            while (count < quota && System.nanoTime() < deadline) {
+                int n = (int) Math.min(batch, quota - count);
+                long due = start + (long) (count * interval);
+                long now = System.nanoTime();
+                if (due > now)
+                    LockSupport.parkNanos(due - now);
+                while (ack && count + n - ackCount > WINDOW) {
+                    LockSupport.parkNanos(10000);
+                }
+                int length = 0;
+                for (int i = 0; i < n; i++) {
+                    byte[] line = lines[next];
+                    next = (next + 1) & (LINES - 1);
+                    System.arraycopy(line, 0, buffer, length, line.length);
+                    length += line.length;
+                    //Paced lines are due at their slot, not when the generator got to them
+                    sendTimes[(int) ((count + i) & (WINDOW - 1))] = interval > 0 ? start + (long) ((count + i) * interval) : System.nanoTime();
+                }
+                stamped = count + n;
+                out.write(buffer, 0, length);
+                bytes.addAndGet(length);
+                count += n;
+                sent.addAndGet(n);
+            }
+        }
+
+        private void readAcks() {
+            byte[] buffer = new byte[8192];
+            try {
+                InputStream in = socket.getInputStream();
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    long now = System.nanoTime();
+                    long next = ackCount;
+                    //Makes the send times stored before visible
+                    long limit = stamped;
+                    for (int i = 0; i < n; i++) {
+                        //Not an acknowledgement
+                        if (buffer[i] != Handshake.ACK || next >= limit)
+                            continue;
+                        latency.record(now - sendTimes[(int) (next & (WINDOW - 1))]);
+                        next++;
+                    }
+                    acked.addAndGet(next - ackCount);
+                    ackCount = next;
+                }
+            } catch (IOException e) {
+                //Closed
+            }
+        }
+
+        private void awaitAcks(long millis) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + millis;
+            while (ackCount < count && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+        }
+
+        private void close() throws IOException {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.jpmc;
+
+import com.jpmc.server.MessageServer;
+import com.jpmc.server.ServerMode;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Every line sent by the load generator in ack mode is acknowledged and timed.
+ *
+ * @author Stanly
+ */
+public class LoadGeneratorTest {
+
+    private static final int MESSAGES = 20000;
+
+    private MessageServer server = null;
+    private Thread thread = null;
+
+    @After
+    public void stop() throws InterruptedException {
+        if (server != null) {
+            server.stopServer();
+            thread.interrupt();
+            thread.join(10000);
+            server = null;
+            thread = null;
+        }
+    }
+
+    @Test
+    public void testPooledAcks() throws Exception {
+        assertAllAcknowledged(ServerMode.POOLED);
+    }
+
+    @Test
+    public void testNioAcks() throws Exception {
+        assertAllAcknowledged(ServerMode.NIO);
+    }
+
+    private void assertAllAcknowledged(ServerMode mode) throws Exception {
+        startServer(mode);
+        LoadGenerator generator = new LoadGenerator();
+        generator.set("connections", "4");
+        generator.set("messages", String.valueOf(MESSAGES));
+        generator.set("batch", "32");
+        generator.set("products", "50");
+        connect(generator);
+
+        assertEquals("Sent", MESSAGES, generator.getSent());
+        assertEquals("Acked", MESSAGES, generator.getAcked());
+        assertEquals("Timed", MESSAGES, generator.getLatency().count());
+        assertEquals("Received", MESSAGES, server.getMessageReceiver().getMetrics().getMessagesReceived());
+        assertEquals("Messages", MESSAGES, server.getMessageReceiver().messageCount());
+    }
+
+    private void connect(LoadGenerator generator) throws Exception {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (true) {
+            try {
+                generator.run();
+                return;
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline)
+                    throw e;
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    private void startServer(ServerMode mode) {
+        server = new MessageServer(mode);
+        thread = new Thread() {
+            public void run() {
+                try {
+                    server.startServer();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        thread.start();
+    }
+}
@@ -0,0 +1,333 @@
+package com.jpmc;
+
+import com.jpmc.domain.ApplicationEnum;
+import com.jpmc.domain.Product;
+import com.jpmc.domain.ProductDictionary;
+import com.jpmc.msg.Message;
+import com.jpmc.msg.MessageImpl;
+import com.jpmc.msg.MessageParser;
+import com.jpmc.receiver.MessageReceiver;
+import com.jpmc.report.NullReportSink;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.StringTokenizer;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the hand written parser against the original regex and tokenizer based logic
+ * for the known products, and the registration of new products.
+ *
+ * @author Stanly
+ */
+public class MessageParserTest {
+
+    private static final String[] EDGE_CASES = {
+            "5 sales of apples at 1.5p each",
+            "1e2 sales of oranges at 3e1p",
+            "5 sales of oranges at 2.49p each",
+            "Multiply 1.5p apples",
+            "Multiply 0.333p oranges",
+            "12 sales of apples at 10xp each",
+            "Multiply 2xx mangos",
+            "Subtract   5p    oranges",
+            "-3 sales of apples at 0x10p each",
+            "apple_pie at 10p apples"
+    };
+
+    @Test
+    public void testResourceFilesMatchLegacyParser() throws IOException {
+        File[] files = new File("src/test/resources").listFiles();
+        for (File file : files) {
+            for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+                assertSameProduct(line);
+            }
+        }
+    }
+
+    @Test
+    public void testEdgeCasesMatchLegacyParser() {
+        for (String line : EDGE_CASES) {
+            assertSameProduct(line);
+        }
+    }
+
+    @Test
+    public void testNewProductsGetIds() {
+        ProductDictionary dictionary = new ProductDictionary("apple", "mango");
+        Product p = assertProduct("20 sales of bananas at 30p each", dictionary, ApplicationEnum.RECORD, "banana");
+        assertEquals(2, p.getProductId());
+        assertEquals(20, p.getQuantity());
+        assertEquals(30, p.getPrice());
+        assertEquals(2, dictionary.lookup("banana"));
+        assertEquals(2, dictionary.lookup("bananas"));
+
+        assertProduct("7 sales of mango at 12p each", dictionary, ApplicationEnum.RECORD, "mango");
+        assertProduct("3 sales of cherries at 5p each", dictionary, ApplicationEnum.RECORD, "cherry");
+        assertProduct("Multiply 2p peaches", dictionary, ApplicationEnum.MULTIPLICATION, "peach");
+        assertEquals(1, assertProduct("Add 1.25 apples", dictionary, ApplicationEnum.ADDITION, "apple").getAdjustPrice());
+        assertProduct("grape at 10p", dictionary, ApplicationEnum.LOG, null);
+        assertEquals(5, dictionary.size());
+    }
+
+    @Test
+    public void testFractionalFactor() {
+        ProductDictionary dictionary = new ProductDictionary("apple");
+        assertEquals(15000, assertProduct("Multiply 1.5 apples", dictionary, ApplicationEnum.MULTIPLICATION, "apple").getAdjustPrice());
+        assertEquals(2500, assertProduct("Multiply 0.25x apples", dictionary, ApplicationEnum.MULTIPLICATION, "apple").getAdjustPrice());
+        assertEquals(20000, assertProduct("Multiply 2.0 apples", dictionary, ApplicationEnum.MULTIPLICATION, "apple").getAdjustPrice());
+        assertEquals(30000, assertProduct("Multiply 3x apples", dictionary, ApplicationEnum.MULTIPLICATION, "apple").getAdjustPrice());
+        assertEquals("Rounded half up", 10001, assertProduct("Multiply 1.00005 apples", dictionary, ApplicationEnum.MULTIPLICATION, "apple").getAdjustPrice());
+        assertEquals("Pence are rounded", 2, assertProduct("Add 1.5p apples", dictionary, ApplicationEnum.ADDITION, "apple").getAdjustPrice());
+
+        MessageReceiver receiver = new MessageReceiver(dictionary, new NullReportSink());
+        receiver.receive("3 sales of apples at 5p each");
+        receiver.receive("Multiply 1.5 apples");
+        assertEquals("22.5p rounded half up", 23, receiver.getTotalSalePriceByName("apple"));
+        receiver.receive("Multiply 0.5 apples");
+        assertEquals(12, receiver.getTotalSalePriceByName("apple"));
+    }
+
+    @Test
+    public void testOperationIsAWholeWord() {
+        ProductDictionary dictionary = new ProductDictionary("apple");
+        assertProduct("Additionally apple at 10p", dictionary, ApplicationEnum.LOG, null);
+        assertProduct("Subtraction apple at 10p", dictionary, ApplicationEnum.LOG, null);
+        assertProduct("Add 5p apples", dictionary, ApplicationEnum.ADDITION, "apple");
+        assertEquals(1, dictionary.size());
+    }
+
+    @Test
+    public void testMalformedMessagesRegisterNothing() {
+        ProductDictionary dictionary = new ProductDictionary("apple");
+        assertFalse(MessageParser.isValid("Add gizmos now", dictionary));
+        assertFalse(MessageParser.isValid("3 sales of gizmos", dictionary));
+        Product p = new Product();
+        MessageParser.parse("Add gizmos now", p, dictionary);
+        assertEquals(-1, p.getProductId());
+        MessageParser.parse("3 sales of gizmos", p = new Product(), dictionary);
+        assertEquals(-1, p.getProductId());
+        assertEquals("Nothing registered", 1, dictionary.size());
+
+        assertProduct("Add apples 5p", dictionary, ApplicationEnum.ADDITION, "apple");
+        assertProduct("Add 5p gizmos", dictionary, ApplicationEnum.ADDITION, "gizmo");
+        assertEquals(2, dictionary.size());
+    }
+
+    @Test
+    public void testIdPrefixSkipped() {
+        ProductDictionary dictionary = new ProductDictionary("apple");
+        Product p = assertProduct("#batch-1.1 3 sales of apples at 10p each", dictionary, ApplicationEnum.RECORD, "apple");
+        assertEquals(3, p.getQuantity());
+        assertEquals(10, p.getPrice());
+        assertProduct("#7 Add 5p apples", dictionary, ApplicationEnum.ADDITION, "apple");
+        assertTrue(MessageParser.isValid("#7 apple at 10p", dictionary));
+        assertEquals(10, MessageParser.idEnd("#batch-1.1 apple at 10p"));
+        assertEquals("No id", 0, MessageParser.idEnd("# apple at 10p"));
+        assertEquals(0, MessageParser.idEnd("apple at 10p"));
+    }
+
+    @Test
+    public void testDictionaryGrowsUpToItsLimit() {
+        ProductDictionary dictionary = new ProductDictionary(1000);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, dictionary.register("product" + i));
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, dictionary.lookup("product" + i));
+            assertEquals("product" + i, dictionary.name(i));
+        }
+        assertEquals("Full", -1, dictionary.register("kiwi"));
+        assertEquals("Known products still resolve", 7, dictionary.register("product7"));
+        assertEquals(1000, dictionary.size());
+        assertEquals(-1, assertProduct("3 sales of kiwis at 5p each", dictionary, ApplicationEnum.RECORD, null).getProductId());
+    }
+
+    private Product assertProduct(String line, ProductDictionary dictionary, ApplicationEnum type, String name) {
+        Message message = new MessageImpl(line, dictionary);
+        assertTrue(line, message.validateMessage());
+        Product p = message.buildMessage();
+        assertEquals(line, type, p.getType());
+        assertEquals(line, name, p.getName());
+        return p;
+    }
+
+    private void assertSameProduct(String line) {
+        LegacyMessage legacy = new LegacyMessage(line);
+        if (!legacy.validateMessage()) {
+            return;
+        }
+        Message message = new MessageImpl(line);
+        assertTrue(line, message.validateMessage());
+        LegacyProduct expected = legacy.buildMessage();
+        Product actual = message.buildMessage();
+        assertEquals(line, expected.getType(), actual.getType());
+        assertEquals(line, expected.getName(), actual.getName());
+        assertEquals(line, expected.getQuantity(), actual.getQuantity());
+        //Money is rounded to whole pence and factors to FACTOR_SCALE
+        assertEquals(line, expected.getPrice(), actual.getPrice(), 0.5f);
+        if (actual.getType() == ApplicationEnum.MULTIPLICATION)
+            assertEquals(line, expected.getAdjustPrice(), actual.getAdjustPrice() / (double) Product.FACTOR_SCALE, 0.5 / Product.FACTOR_SCALE);
+        else
+            assertEquals(line, expected.getAdjustPrice(), actual.getAdjustPrice(), 0.5f);
+    }
+
+    /**
+     * The original MessageImpl logic, kept as the reference behaviour.
+     */
+    private static final class LegacyMessage {
+
+        private final String msg;
+        private final List<String> listOfMsgType = Arrays.asList(ApplicationEnum.MSG_VALID_TYPE.getEnumType().split(","));
+
+        private LegacyMessage(String msg) {
+            this.msg = msg;
+        }
+
+        private boolean validateMessage() {
+            return msg != null && msg.length() >= Integer.parseInt(ApplicationEnum.MIN_MSG_LENGTH.getEnumType()) && isValid();
+        }
+
+        private LegacyProduct buildMessage() {
+            LegacyProduct p = new LegacyProduct();
+            if (msg.startsWith(ApplicationEnum.ADDITION.getEnumType())) {
+                p.setType(ApplicationEnum.ADDITION);
+                adjustProduct(p);
+            } else if (msg.startsWith(ApplicationEnum.MULTIPLICATION.getEnumType())) {
+                p.setType(ApplicationEnum.MULTIPLICATION);
+                adjustProduct(p);
+            } else if (msg.startsWith(ApplicationEnum.SUBTRACTION.getEnumType())) {
+                p.setType(ApplicationEnum.SUBTRACTION);
+                adjustProduct(p);
+            } else if (Character.isDigit(msg.charAt(0))) {
+                p.setType(ApplicationEnum.RECORD);
+                recordSales(p);
+            } else if (isValid()) {
+                p.setType(ApplicationEnum.LOG);
+            } else {
+                p.setType(ApplicationEnum.PROCESS);
+            }
+            return p;
+        }
+
+        private void recordSales(LegacyProduct p) {
+            StringTokenizer token = new StringTokenizer(msg, " ");
+            while (token.hasMoreTokens()) {
+                String s = token.nextToken();
+                if (isQty(s)) {
+                    p.setQuantity(Integer.parseInt(s));
+                } else if (listOfMsgType.contains(s)) {
+                    p.setName(s.substring(0, s.length() - 1));
+                } else if (Character.isDigit(s.charAt(0))) {
+                    float price = 0;
+                    try {
+                        price = Float.parseFloat(s.substring(0, s.length() - 1));
+                    } catch (Exception e) {
+                    }
+                    p.setPrice(price);
+                }
+            }
+        }
+
+        private boolean isQty(String s) {
+            try {
+                Integer.parseInt(s);
+                return true;
+            } catch (NumberFormatException er) {
+                return false;
+            }
+        }
+
+        private boolean isValid() {
+            for (String s : listOfMsgType) {
+                if (Pattern.compile("\\b" + s + "\\b").matcher(msg).find()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void adjustProduct(LegacyProduct p) {
+            StringTokenizer token = new StringTokenizer(msg, " ");
+            token.nextToken();
+            while (token.hasMoreTokens()) {
+                String s = token.nextToken();
+                if (Character.isDigit(s.charAt(0))) {
+                    try {
+                        p.setAdjustPrice(Float.parseFloat(s));
+                        break;
+                    } catch (NumberFormatException e) {
+                        try {
+                            p.setAdjustPrice(Float.parseFloat(s.substring(0, s.length() - 1)));
+                        } catch (NumberFormatException ne) {
+                            p.setAdjustPrice(p.getType() == ApplicationEnum.MULTIPLICATION ? 1 : 0);
+                        }
+                    }
+                } else {
+                    p.setName(s.substring(0, s.length() - 1));
+                }
+            }
+        }
+    }
+
+    /**
+     * The original float Product the reference behaviour fills.
+     */
+    private static final class LegacyProduct {
+
+        private String name;
+        private float price;
+        private int quantity;
+        private ApplicationEnum type;
+        private float adjustPrice;
+
+        String getName() {
+            return name;
+        }
+
+        void setName(String name) {
+            this.name = name;
+        }
+
+        float getPrice() {
+            return price;
+        }
+
+        void setPrice(float price) {
+            this.price = price;
+        }
+
+        int getQuantity() {
+            return quantity;
+        }
+
+        void setQuantity(int quantity) {
+            this.quantity = quantity;
+        }
+
+        ApplicationEnum getType() {
+            return type;
+        }
+
+        void setType(ApplicationEnum type) {
+            this.type = type;
+        }
+
+        float getAdjustPrice() {
+            return adjustPrice;
+        }
+
+        void setAdjustPrice(float adjustPrice) {
+            this.adjustPrice = adjustPrice;
+        }
+    }
+}
@@ -38,25 +38,25 @@ public class MessageProcessTest {
 
     @Test
     public void testInput10Msg() throws IOException, InterruptedException {
-        pushMessageToServer("src/test/resources/input10.txt");
+        pushMessageToServer("src/test/resources/Input10.txt");
         assertEquals("Orange Quantity", 20, server.getMessageReceiver().getQuantityByName("orange"));
     }
 
     @Test
     public void testInput5Msg() throws IOException, InterruptedException {
-        pushMessageToServer("src/test/resources/input5.txt");
+        pushMessageToServer("src/test/resources/Input5.txt");
         assertEquals("Mango Quantity", 11, server.getMessageReceiver().getQuantityByName("mango"));
     }
 
     @Test
     public void testInput0ReportableMsg() throws IOException, InterruptedException {
-        pushMessageToServer("src/test/resources/input0ReportableMsg.txt");
+        pushMessageToServer("src/test/resources/Input0ReportableMsg.txt");
         assertEquals(0f, server.getMessageReceiver().getTotalSalePriceByName("apple"), 0f);
     }
 
     @Test
     public void testInputInvalideMsg() throws IOException, InterruptedException {
-        pushMessageToServer("src/test/resources/inputInvalidMsg.txt");
+        pushMessageToServer("src/test/resources/InputInvalidMsg.txt");
         assertEquals("Orange Sales", 0f, server.getMessageReceiver().getTotalSalePriceByName("orange"), 0f);
     }
 
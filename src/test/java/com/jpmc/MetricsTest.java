@@ -0,0 +1,86 @@
+package com.jpmc;
+
+import com.jpmc.domain.ProductDictionary;
+import com.jpmc.metrics.LatencyHistogram;
+import com.jpmc.metrics.ServerMetrics;
+import com.jpmc.msg.RejectReason;
+import com.jpmc.receiver.MessageReceiver;
+import com.jpmc.report.MemoryReportSink;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Latency histogram accuracy and the counters of the receiver.
+ *
+ * @author Stanly
+ */
+public class MetricsTest {
+
+    @Test
+    public void testHistogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long v = 1; v <= 100000; v++) {
+            histogram.record(v * 1000);
+        }
+        assertEquals("Count", 100000, histogram.count());
+        assertEquals("Max", 100000000, histogram.max());
+        assertWithin("p50", 50000000, histogram.percentile(50));
+        assertWithin("p99", 99000000, histogram.percentile(99));
+        assertWithin("p99.9", 99900000, histogram.percentile(99.9));
+        assertEquals("p100", 100000000, histogram.percentile(100));
+        assertWithin("Mean", 50000500, (long) histogram.mean());
+
+        LatencyHistogram small = new LatencyHistogram();
+        small.record(3);
+        small.record(63);
+        small.record(-5);
+        assertEquals("Exact below 64", 3, small.percentile(50));
+        assertEquals("Max", 63, small.percentile(100));
+        small.record(Long.MAX_VALUE);
+        assertEquals("Top bucket", Long.MAX_VALUE, small.percentile(100));
+    }
+
+    @Test
+    public void testReceiverCounters() throws Exception {
+        MessageReceiver receiver = new MessageReceiver(new ProductDictionary("apple"), new MemoryReportSink());
+        for (int i = 0; i < 10; i++) {
+            receiver.receive("2 sales of apples at 10p each");
+        }
+        receiver.receive(null);
+        receiver.receive("short");
+        receiver.receive("nothing to see here");
+        ServerMetrics metrics = receiver.getMetrics();
+
+        assertEquals("Received", 13, metrics.getMessagesReceived());
+        assertEquals("Valid", 10, metrics.getMessagesValid());
+        assertEquals("Rejected", 3, metrics.getMessagesRejected());
+        assertEquals("Null", 1, metrics.getRejected(RejectReason.NULL_MESSAGE));
+        assertEquals("Too Short", 1, metrics.getRejected(RejectReason.TOO_SHORT));
+        assertEquals("Unknown Form", 1, metrics.getRejected(RejectReason.UNKNOWN_FORM));
+        assertEquals("Parse Timings", 13, metrics.getParseHistogram().count());
+        assertEquals("Aggregate Timings", 10, metrics.getAggregateHistogram().count());
+        assertEquals("Report Timings", 1, metrics.getReportHistogram().count());
+        assertEquals("Paused", false, metrics.isPaused());
+
+        metrics.register();
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(ServerMetrics.OBJECT_NAME);
+            assertEquals("JMX Valid", 10L, server.getAttribute(name, "MessagesValid"));
+            assertEquals("JMX Connections", 0, server.getAttribute(name, "ActiveConnections"));
+            assertTrue("Dump", ((String) server.invoke(name, "dump", null, null)).contains("UNKNOWN_FORM=1"));
+        } finally {
+            metrics.unregister();
+        }
+    }
+
+    private static void assertWithin(String message, long expected, long actual) {
+        assertTrue(message + " expected about " + expected + " but was " + actual, Math.abs(actual - expected) <= expected * 0.04);
+    }
+}
@@ -0,0 +1,89 @@
+package com.jpmc;
+
+import com.jpmc.domain.ProductDictionary;
+import com.jpmc.receiver.MessageReceiver;
+import com.jpmc.report.AsyncReportSink;
+import com.jpmc.report.MemoryReportSink;
+import com.jpmc.report.NullReportSink;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Reports written by the receiver to the report sinks.
+ *
+ * @author Stanly
+ */
+public class ReportSinkTest {
+
+    @Test
+    public void testReportEveryTenthMessage() {
+        MemoryReportSink sink = new MemoryReportSink();
+        MessageReceiver receiver = new MessageReceiver(ProductDictionary.getDefault(), sink);
+        receiveSales(receiver, 25);
+
+        List<String> reports = sink.getReports();
+        assertEquals("Reports", 2, reports.size());
+        assertTrue(reports.get(0).startsWith("After 10 messages received"));
+        assertTrue(reports.get(1).contains("|20\0"));
+        assertTrue(reports.get(1).contains("|£2.00\0"));
+    }
+
+    @Test
+    public void testAdjustmentsApplyToEarlierSales() {
+        MessageReceiver receiver = new MessageReceiver(ProductDictionary.getDefault(), new NullReportSink());
+        receiver.receive("10 sales of apples at 10p each");
+        receiver.receive("Multiply 2p apples");
+        receiver.receive("5 sales of apples at 10p each");
+        receiver.receive("Subtract 5p apples");
+        receiver.receive("Add 1p mangoes");
+        //(100 * 2 + 50) - 15 * 5
+        assertEquals("Apple Sales", 175, receiver.getTotalSalePriceByName("apple"));
+        assertEquals("Mango Sales", 0, receiver.getTotalSalePriceByName("mango"));
+        assertEquals("Adjustments", 3, receiver.adjustmentCount());
+    }
+
+    @Test
+    public void testAdjustmentReport() {
+        MemoryReportSink sink = new MemoryReportSink();
+        MessageReceiver receiver = new MessageReceiver(ProductDictionary.getDefault(), sink);
+        receiveSales(receiver, 20);
+        receiver.receive("Add 20p apples");
+        receiveSales(receiver, 29);
+
+        List<String> reports = sink.getReports();
+        String adjustment = reports.get(reports.size() - 1);
+        assertTrue(adjustment.startsWith("After 50 messages received, the adjustment log report"));
+        //20 apples at 10p, plus 20p each
+        assertTrue(adjustment.contains("|£2.00\0"));
+        assertTrue(adjustment.contains("|£6.00\0"));
+        //and 29 apples at 10p sold afterwards
+        assertTrue(adjustment.contains("|£8.90\0"));
+    }
+
+    @Test
+    public void testAsyncSinkWritesEveryReport() {
+        MemoryReportSink memory = new MemoryReportSink();
+        MessageReceiver receiver = new MessageReceiver(ProductDictionary.getDefault(), new AsyncReportSink(memory));
+        receiveSales(receiver, 40);
+        receiver.close();
+        assertEquals("Reports", 4, memory.getReports().size());
+    }
+
+    @Test
+    public void testNullSinkStillCounts() {
+        MessageReceiver receiver = new MessageReceiver(ProductDictionary.getDefault(), new NullReportSink());
+        receiveSales(receiver, 60);
+        assertEquals("Messages", 60, receiver.messageCount());
+        assertEquals("Apple Quantity", 60, receiver.getQuantityByName("apple"));
+    }
+
+    private static void receiveSales(MessageReceiver receiver, int count) {
+        for (int i = 0; i < count; i++) {
+            receiver.receive("1 sales of apples at 10p each");
+        }
+    }
+}
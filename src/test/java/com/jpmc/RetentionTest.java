@@ -0,0 +1,103 @@
+package com.jpmc;
+
+import com.jpmc.domain.ApplicationEnum;
+import com.jpmc.domain.Product;
+import com.jpmc.domain.ProductDictionary;
+import com.jpmc.history.SalesHistory;
+import com.jpmc.receiver.Adjustment;
+import com.jpmc.receiver.MessageReceiver;
+import com.jpmc.report.MemoryReportSink;
+import com.jpmc.snapshot.Snapshot;
+import com.jpmc.snapshot.SnapshotFile;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Retention releases old history segments and compacts old adjustments per product,
+ * without changing the totals or the count of adjustments.
+ *
+ * @author Stanly
+ */
+public class RetentionTest {
+
+    @Test
+    public void testReleaseWholeSegments() {
+        SalesHistory history = new SalesHistory(4);
+        for (int i = 0; i < 10; i++) {
+            Product p = new Product();
+            p.setProductId(i % 2);
+            p.setType(ApplicationEnum.RECORD);
+            p.setQuantity(1);
+            p.setPrice(i);
+            history.append(p);
+        }
+        assertEquals("Only the first segment is before record 6", 4, history.release(6));
+        assertEquals(4, history.first());
+        assertEquals(0, history.release(7));
+        assertEquals(10, history.size());
+
+        final List<Long> amounts = new ArrayList<Long>();
+        history.scan(new SalesHistory.RecordVisitor() {
+            @Override
+            public void visit(long index, int productId, ApplicationEnum type, int quantity, long amount) {
+                amounts.add(amount);
+            }
+        });
+        assertEquals("[4, 5, 6, 7, 8, 9]", amounts.toString());
+
+        amounts.clear();
+        history.scanProduct(1, new SalesHistory.RecordVisitor() {
+            @Override
+            public void visit(long index, int productId, ApplicationEnum type, int quantity, long amount) {
+                amounts.add(amount);
+            }
+        });
+        assertEquals("Stops at the released records", "[9, 7, 5]", amounts.toString());
+
+        Product p = new Product();
+        p.setType(ApplicationEnum.LOG);
+        history.append(p);
+        assertEquals(11, history.size());
+    }
+
+    @Test
+    public void testCompactAdjustments() throws Exception {
+        MemoryReportSink sink = new MemoryReportSink();
+        MessageReceiver receiver = new MessageReceiver(new ProductDictionary(), sink);
+        receiver.receive("10 sales of apples at 10p each");
+        receiver.receive("Add 5p apples");
+        receiver.receive("Multiply 2p apples");
+        receiver.receive("Add 1p pears");
+        receiver.receive("Subtract 1p apples");
+
+        assertEquals("Nothing to release yet", 0, receiver.compact(0, 1));
+        assertEquals("Compacted adjustments still count", 4, receiver.adjustmentCount());
+        assertEquals(290, receiver.getTotalSalePriceByName("apple"));
+
+        Snapshot snapshot = receiver.snapshot();
+        List<Adjustment> adjustments = snapshot.getAdjustments();
+        assertEquals("A summary of apples, pears dropped, and the last one", 2, adjustments.size());
+        Adjustment summary = adjustments.get(0);
+        assertEquals(2, summary.getCount());
+        assertEquals(100, summary.getBefore());
+        assertEquals(300, summary.getAfter());
+        assertEquals(1, adjustments.get(1).getCount());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        SnapshotFile.write(bytes, snapshot);
+        Snapshot read = SnapshotFile.read(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(2, read.getAdjustments().get(0).getCount());
+
+        receiver.logReports(false, true);
+        String report = sink.getReports().get(sink.getReports().size() - 1);
+        assertTrue(report, report.contains("After 2 adjustments: "));
+        assertTrue(report, report.contains("After adjustment: apple Subtract 1product"));
+    }
+}
@@ -0,0 +1,140 @@
+package com.jpmc;
+
+import com.jpmc.domain.ApplicationEnum;
+import com.jpmc.domain.Product;
+import com.jpmc.domain.ProductDictionary;
+import com.jpmc.history.SalesHistory;
+import com.jpmc.receiver.MessageReceiver;
+import com.jpmc.report.NullReportSink;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * The history keeps every record in order across segments, and per product newest first.
+ *
+ * @author Stanly
+ */
+public class SalesHistoryTest {
+
+    @Test
+    public void testScanAcrossSegments() {
+        SalesHistory history = new SalesHistory(4);
+        for (int i = 0; i < 10; i++) {
+            history.append(sale(i % 3, i + 1, 10 * i));
+        }
+        history.append(adjustment(1, ApplicationEnum.ADDITION, 5));
+
+        final List<String> records = new ArrayList<String>();
+        history.scan(new SalesHistory.RecordVisitor() {
+            @Override
+            public void visit(long index, int productId, ApplicationEnum type, int quantity, long amount) {
+                records.add(index + ":" + productId + " " + type + " " + quantity + " " + amount);
+            }
+        });
+        assertEquals(11, history.size());
+        assertEquals(11, records.size());
+        assertEquals("0:0 RECORD 1 0", records.get(0));
+        assertEquals("9:0 RECORD 10 90", records.get(9));
+        assertEquals("10:1 ADDITION 0 5", records.get(10));
+        assertEquals("Three segments of four records", 3 * 4 * 26, history.memoryBytes());
+    }
+
+    @Test
+    public void testScanProductNewestFirst() {
+        SalesHistory history = new SalesHistory(4);
+        for (int i = 0; i < 10; i++) {
+            history.append(sale(i % 3, i + 1, 10));
+        }
+        Product none = new Product();
+        none.setType(ApplicationEnum.LOG);
+        history.append(none);
+
+        final List<Long> indexes = new ArrayList<Long>();
+        history.scanProduct(1, new SalesHistory.RecordVisitor() {
+            @Override
+            public void visit(long index, int productId, ApplicationEnum type, int quantity, long amount) {
+                assertEquals(1, productId);
+                indexes.add(index);
+            }
+        });
+        assertEquals("[7, 4, 1]", indexes.toString());
+        history.scanProduct(5, new SalesHistory.RecordVisitor() {
+            @Override
+            public void visit(long index, int productId, ApplicationEnum type, int quantity, long amount) {
+                throw new AssertionError("No record of product 5");
+            }
+        });
+    }
+
+    @Test
+    public void testConcurrentAppends() throws Exception {
+        final SalesHistory history = new SalesHistory(1024);
+        Thread[] writers = new Thread[4];
+        for (int w = 0; w < writers.length; w++) {
+            final int productId = w;
+            writers[w] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < 25000; i++) {
+                        history.append(sale(productId, 1, 3));
+                    }
+                }
+            };
+            writers[w].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        assertEquals(100000, history.size());
+        for (int w = 0; w < writers.length; w++) {
+            final AtomicLong quantity = new AtomicLong();
+            history.scanProduct(w, new SalesHistory.RecordVisitor() {
+                @Override
+                public void visit(long index, int productId, ApplicationEnum type, int q, long amount) {
+                    quantity.addAndGet(q);
+                }
+            });
+            assertEquals(25000, quantity.get());
+        }
+    }
+
+    @Test
+    public void testReceiverKeepsEveryMessage() {
+        MessageReceiver receiver = new MessageReceiver(new ProductDictionary(), new NullReportSink());
+        assertNull("Kept on demand only", receiver.getHistory());
+        receiver.setHistory(new SalesHistory());
+        receiver.receive("3 sales of apples at 20p each");
+        receiver.receive("Add 5p apples");
+        receiver.receive("bad");
+        final List<ApplicationEnum> types = new ArrayList<ApplicationEnum>();
+        receiver.getHistory().scan(new SalesHistory.RecordVisitor() {
+            @Override
+            public void visit(long index, int productId, ApplicationEnum type, int quantity, long amount) {
+                types.add(type);
+            }
+        });
+        assertEquals("[RECORD, ADDITION]", types.toString());
+    }
+
+    private static Product sale(int productId, int quantity, long price) {
+        Product p = new Product();
+        p.setProductId(productId);
+        p.setType(ApplicationEnum.RECORD);
+        p.setQuantity(quantity);
+        p.setPrice(price);
+        return p;
+    }
+
+    private static Product adjustment(int productId, ApplicationEnum type, long amount) {
+        Product p = new Product();
+        p.setProductId(productId);
+        p.setType(type);
+        p.setAdjustPrice(amount);
+        return p;
+    }
+}
@@ -0,0 +1,173 @@
+package com.jpmc;
+
+import com.jpmc.domain.Product;
+import com.jpmc.domain.ProductDictionary;
+import com.jpmc.journal.JournalReader;
+import com.jpmc.journal.SalesJournal;
+import com.jpmc.journal.SyncPolicy;
+import com.jpmc.receiver.MessageReceiver;
+import com.jpmc.report.NullReportSink;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Recorded messages written to the journal and replayed into a new receiver.
+ *
+ * @author Stanly
+ */
+public class SalesJournalTest {
+
+    private static final long REGION_SIZE = 1 << 16;
+
+    private Path file = null;
+
+    @Before
+    public void createFile() throws IOException {
+        file = Files.createTempFile("sales", ".journal");
+        Files.delete(file);
+    }
+
+    @After
+    public void deleteFile() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void testReplayRebuildsAggregates() throws IOException {
+        MessageReceiver first = receiver();
+        SalesJournal journal = open(first);
+        first.setJournal(journal);
+        first.receive("20 sales of apples at 10p each");
+        first.receive("banana at 3p");
+        first.receive("4 sales of bananas at 12p each");
+        first.receive("Add 2p bananas");
+        first.receive("Multiply 3p apples");
+        first.receive("Multiply 0.75 bananas");
+        first.receive("this is not a sale");
+        journal.close();
+
+        MessageReceiver second = receiver();
+        open(second).close();
+        assertEquals("Messages", first.messageCount(), second.messageCount());
+        assertEquals("Adjustments", 3, second.adjustmentCount());
+        assertEquals("Apple Sales", 600, second.getTotalSalePriceByName("apple"));
+        assertEquals("Banana Quantity", 4, second.getQuantityByName("banana"));
+        assertEquals("Banana Sales, 56p times 0.75", 42, second.getTotalSalePriceByName("banana"));
+    }
+
+    @Test
+    public void testReplayAcrossRegions() throws IOException {
+        MessageReceiver first = receiver();
+        SalesJournal journal = open(first);
+        first.setJournal(journal);
+        for (int i = 0; i < 10000; i++) {
+            first.receive("2 sales of product" + (i % 50) + " at 1p each");
+        }
+        assertTrue(journal.size() > 3 * REGION_SIZE);
+        journal.close();
+
+        MessageReceiver second = receiver();
+        open(second).close();
+        assertEquals("Messages", 10000, second.messageCount());
+        assertEquals("Quantity", 400, second.getQuantityByName("product7"));
+    }
+
+    @Test
+    public void testTornRecordIsDropped() throws IOException {
+        MessageReceiver first = receiver();
+        SalesJournal journal = open(first);
+        first.setJournal(journal);
+        first.receive("20 sales of apples at 10p each");
+        first.receive("5 sales of apples at 10p each");
+        long end = journal.size();
+        journal.close();
+
+        //Corrupt the amount of the last record
+        RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw");
+        raf.seek(end - 8);
+        raf.write(0x7f);
+        raf.close();
+
+        MessageReceiver second = receiver();
+        SalesJournal reopened = open(second);
+        assertEquals("Messages", 1, second.messageCount());
+        assertEquals("Apple Quantity", 20, second.getQuantityByName("apple"));
+
+        //Appends continue after the last good record
+        second.setJournal(reopened);
+        second.receive("1 sales of apples at 10p each");
+        reopened.close();
+        MessageReceiver third = receiver();
+        open(third).close();
+        assertEquals("Apple Quantity", 21, third.getQuantityByName("apple"));
+    }
+
+    @Test
+    public void testConcurrentReplayGivesSameTotals() throws Exception {
+        final MessageReceiver first = receiver();
+        SalesJournal journal = open(first);
+        first.setJournal(journal);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < 2000; i++) {
+                        //An Add depends on the quantity sold before it
+                        first.receive(i % 10 == 0 ? "Add 1p apples" : "1 sales of apples at 1p each");
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        journal.close();
+
+        MessageReceiver second = receiver();
+        open(second).close();
+        assertEquals("Apple Sales", first.getTotalSalePriceByName("apple"), second.getTotalSalePriceByName("apple"));
+    }
+
+    @Test
+    public void testUnregisteredProductKeepsTheJournal() throws IOException {
+        MessageReceiver first = receiver();
+        SalesJournal journal = open(first);
+        first.setJournal(journal);
+        first.receive("3 sales of kiwis at 5p each");
+        first.receive("20 sales of apples at 10p each");
+        long end = journal.size();
+        journal.close();
+
+        //No room for kiwi
+        MessageReceiver second = new MessageReceiver(new ProductDictionary(2, "apple", "orange"), new NullReportSink());
+        open(second).close();
+        assertEquals("Messages", 2, second.messageCount());
+        assertEquals("Apple Quantity", 20, second.getQuantityByName("apple"));
+        assertEquals("Not truncated", end, Files.size(file));
+    }
+
+    private static MessageReceiver receiver() {
+        return new MessageReceiver(new ProductDictionary("apple", "orange"), new NullReportSink());
+    }
+
+    private SalesJournal open(final MessageReceiver receiver) throws IOException {
+        return SalesJournal.open(file, receiver.getDictionary(), SyncPolicy.NONE, REGION_SIZE, 10,
+                new JournalReader(receiver.getDictionary()), new Consumer<Product>() {
+            @Override
+            public void accept(Product p) {
+                receiver.restore(p);
+            }
+        });
+    }
+}
@@ -0,0 +1,130 @@
+package com.jpmc;
+
+import com.jpmc.domain.ProductDictionary;
+import com.jpmc.domain.Report;
+import com.jpmc.receiver.MessageReceiver;
+import com.jpmc.receiver.SalesView;
+import com.jpmc.report.NullReportSink;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Published views are immutable versions of the totals, ranked by value and quantity.
+ *
+ * @author Stanly
+ */
+public class SalesViewTest {
+
+    //Held so the level set below is not lost with a collected logger
+    private static final Logger logger = Logger.getLogger("com.jpmc");
+
+    private final MessageReceiver receiver = new MessageReceiver(new ProductDictionary(), new NullReportSink());
+    private Level level = null;
+
+    @Before
+    public void quiet() {
+        level = logger.getLevel();
+        logger.setLevel(Level.SEVERE);
+    }
+
+    @After
+    public void restore() {
+        logger.setLevel(level);
+    }
+
+    @Test
+    public void testVersions() {
+        SalesView empty = receiver.view();
+        assertEquals(0, empty.getVersion());
+        receiver.receive("2 sales of apples at 10p each");
+        SalesView first = receiver.view();
+        assertEquals(1, first.getVersion());
+        assertSame("Nothing changed", first, receiver.view());
+
+        receiver.receive("3 sales of apples at 10p each");
+        SalesView second = receiver.view();
+        assertEquals(2, second.getVersion());
+        assertEquals("Earlier versions do not change", 2, first.getQuantity("apples"));
+        assertEquals(5, second.getQuantity("apples"));
+        assertEquals(50, second.getTotalPrice("apple"));
+        assertEquals(0, second.getQuantity("pears"));
+    }
+
+    @Test
+    public void testTopProducts() {
+        receiver.receive("10 sales of apples at 1p each");
+        receiver.receive("2 sales of pears at 20p each");
+        receiver.receive("5 sales of plums at 5p each");
+        SalesView view = receiver.view();
+        assertEquals(names("pear", "plum", "apple"), names(view.topByValue(10)));
+        assertEquals(names("apple", "plum", "pear"), names(view.topByQuantity(10)));
+        assertEquals(names("pear"), names(view.topByValue(1)));
+
+        //Adjustments re-rank only the product they change
+        receiver.receive("Multiply 10p apples");
+        view = receiver.view();
+        assertEquals(names("apple", "pear", "plum"), names(view.topByValue(10)));
+        assertEquals(100, view.topByValue(1).get(0).getTotalPrice());
+        assertEquals(names("apple", "plum", "pear"), names(view.topByQuantity(10)));
+    }
+
+    @Test
+    public void testConcurrentReaders() throws Exception {
+        final String[] products = {"apples", "pears", "plums", "figs"};
+        Thread[] writers = new Thread[4];
+        for (int w = 0; w < writers.length; w++) {
+            final int offset = w;
+            writers[w] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < 5000; i++) {
+                        receiver.receive("1 sales of " + products[(i + offset) % products.length] + " at 2p each");
+                    }
+                }
+            };
+            writers[w].start();
+        }
+        long last = -1;
+        while (writers[0].isAlive() || writers[writers.length - 1].isAlive()) {
+            SalesView view = receiver.view();
+            assertTrue("Versions only move on", view.getVersion() >= last);
+            last = view.getVersion();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        SalesView view = receiver.view();
+        int total = 0;
+        for (Report r : view.getProducts()) {
+            assertEquals(r.getName(), receiver.getQuantityByName(r.getName()), r.getQuantity());
+            assertEquals(2L * r.getQuantity(), r.getTotalPrice());
+            total += r.getQuantity();
+        }
+        assertEquals(20000, total);
+    }
+
+    private static List<String> names(String... names) {
+        List<String> list = new ArrayList<String>();
+        for (String name : names) {
+            list.add(name);
+        }
+        return list;
+    }
+
+    private static List<String> names(List<Report> reports) {
+        List<String> list = new ArrayList<String>();
+        for (Report r : reports) {
+            list.add(r.getName());
+        }
+        return list;
+    }
+}
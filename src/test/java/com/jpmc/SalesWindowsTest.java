@@ -0,0 +1,150 @@
+package com.jpmc;
+
+import com.jpmc.domain.ProductDictionary;
+import com.jpmc.domain.Report;
+import com.jpmc.receiver.MessageReceiver;
+import com.jpmc.receiver.SalesWindows;
+import com.jpmc.report.MemoryReportSink;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Sales are bucketed by window of time, complete windows are read back tumbling or
+ * sliding, and buckets are reused once their window leaves the ring.
+ *
+ * @author Stanly
+ */
+public class SalesWindowsTest {
+
+    private final AtomicLong now = new AtomicLong(10000);
+    private final ProductDictionary dictionary = new ProductDictionary("apple", "orange");
+    private SalesWindows windows = null;
+
+    @Before
+    public void setUp() {
+        windows = new SalesWindows(dictionary, 1000, 5, new LongSupplier() {
+            @Override
+            public long getAsLong() {
+                return now.get();
+            }
+        });
+    }
+
+    @Test
+    public void testTumblingWindows() {
+        windows.record(0, 2, 20);
+        windows.record(1, 1, 5);
+        now.set(11500);
+        windows.record(0, 3, 30);
+        now.set(12000);
+
+        List<SalesWindows.Window> last = windows.last(2);
+        assertEquals(2, last.size());
+        assertEquals(10000, last.get(0).getStart());
+        assertEquals(2, last.get(0).getMessages());
+        assertEquals(totals("apple", 2, 20), totals(last.get(0).getProducts(), "apple"));
+        assertEquals(totals("orange", 1, 5), totals(last.get(0).getProducts(), "orange"));
+        assertEquals(11000, last.get(1).getStart());
+        assertEquals(1, last.get(1).getProducts().size());
+        assertEquals(totals("apple", 3, 30), totals(last.get(1).getProducts(), "apple"));
+    }
+
+    @Test
+    public void testSlidingWindow() {
+        for (int i = 0; i < 5; i++) {
+            now.set(10000 + i * 1000);
+            windows.record(0, 1, 10);
+        }
+        now.set(15000);
+        SalesWindows.Window all = windows.sum(5);
+        assertEquals(5, all.getMessages());
+        assertEquals(totals("apple", 5, 50), totals(all.getProducts(), "apple"));
+        assertEquals(3, windows.sum(3).getMessages());
+        //The window in progress is not complete yet
+        windows.record(0, 1, 10);
+        assertEquals(5, windows.sum(5).getMessages());
+    }
+
+    @Test
+    public void testBucketsReusedAfterTheRing() {
+        windows.record(0, 1, 10);
+        now.set(16000);
+        windows.record(1, 4, 40);
+        now.set(17000);
+        //The window at 10000 left the ring, its bucket now holds the one at 16000
+        assertEquals(1, windows.sum(5).getMessages());
+        assertEquals(totals("orange", 4, 40), totals(windows.sum(5).getProducts(), "orange"));
+
+        //A sale timed in a window whose bucket was reused since is dropped
+        now.set(10500);
+        windows.record(0, 1, 10);
+        now.set(17000);
+        assertEquals(1, windows.sum(5).getMessages());
+    }
+
+    @Test
+    public void testIdleWindowsAreEmpty() {
+        now.set(50000);
+        List<SalesWindows.Window> last = windows.last(10);
+        assertEquals("At most the windows kept", 5, last.size());
+        for (SalesWindows.Window w : last) {
+            assertEquals(0, w.getMessages());
+            assertTrue(w.getProducts().isEmpty());
+        }
+    }
+
+    @Test
+    public void testConcurrentSales() throws Exception {
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int product = t % 2;
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        windows.record(product, 1, 10);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        now.set(11000);
+        SalesWindows.Window last = windows.sum(1);
+        assertEquals(40000, last.getMessages());
+        assertEquals(totals("apple", 20000, 200000), totals(last.getProducts(), "apple"));
+        assertEquals(totals("orange", 20000, 200000), totals(last.getProducts(), "orange"));
+    }
+
+    @Test
+    public void testWindowReport() {
+        MemoryReportSink sink = new MemoryReportSink();
+        MessageReceiver receiver = new MessageReceiver(new ProductDictionary(), sink);
+        receiver.receive("20 sales of apples at 10p each");
+        receiver.logWindowReport();
+        List<String> reports = sink.getReports();
+        assertEquals(1, reports.size());
+        assertTrue(reports.get(0).contains("In the last 1000 ms"));
+        assertTrue(reports.get(0).contains("In the last 60000 ms"));
+    }
+
+    private static String totals(String name, int quantity, long value) {
+        return name + " " + quantity + " " + value;
+    }
+
+    private static String totals(List<Report> products, String name) {
+        for (Report r : products) {
+            if (r.getName().equals(name))
+                return totals(name, r.getQuantity(), r.getTotalPrice());
+        }
+        return null;
+    }
+}
@@ -0,0 +1,176 @@
+package com.jpmc;
+
+import com.jpmc.domain.Product;
+import com.jpmc.domain.ProductDictionary;
+import com.jpmc.journal.JournalReader;
+import com.jpmc.journal.SalesJournal;
+import com.jpmc.journal.SyncPolicy;
+import com.jpmc.receiver.MessageReceiver;
+import com.jpmc.report.NullReportSink;
+import com.jpmc.snapshot.Snapshot;
+import com.jpmc.snapshot.SnapshotFile;
+import com.jpmc.snapshot.Snapshotter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Snapshots taken from the journal while messages are received, and startup from a
+ * snapshot plus the journal tail.
+ *
+ * @author Stanly
+ */
+public class SnapshotTest {
+
+    private Path directory = null;
+    private Path journalFile = null;
+    private Path snapshotFile = null;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("snapshot");
+        journalFile = directory.resolve("sales.journal");
+        snapshotFile = directory.resolve("sales.snapshot");
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        Files.deleteIfExists(journalFile);
+        Files.deleteIfExists(snapshotFile);
+        Files.deleteIfExists(directory);
+    }
+
+    @Test
+    public void testStartFromSnapshotAndJournalTail() throws IOException {
+        MessageReceiver first = receiver();
+        SalesJournal journal = open(first, new JournalReader(first.getDictionary()));
+        first.setJournal(journal);
+        Snapshotter snapshotter = new Snapshotter(journalFile, snapshotFile, 60000);
+        snapshotter.start(null);
+
+        for (int i = 0; i < 30; i++) {
+            first.receive("2 sales of apples at 10p each");
+        }
+        first.receive("Add 5p apples");
+        journal.sync();
+        assertTrue(snapshotter.snapshot());
+        assertFalse(snapshotter.snapshot());
+        Snapshot snapshot = SnapshotFile.read(snapshotFile);
+        assertEquals("Snapshot Messages", 31, snapshot.getMessageCount());
+        assertEquals("Snapshot Adjustments", 1, snapshot.getAdjustments().size());
+
+        //The tail after the snapshot
+        first.receive("3 sales of pears at 20p each");
+        first.receive("Multiply 2p apples");
+        journal.close();
+        snapshotter.stop();
+
+        //Start from the first snapshot plus the journal tail
+        MessageReceiver second = receiver();
+        second.restore(snapshot);
+        JournalReader reader = new JournalReader(second.getDictionary());
+        reader.seek(snapshot.getJournalPosition(), snapshot.getJournalNames());
+        open(second, reader).close();
+        assertState(first, second);
+
+        //The last snapshot, taken on stop, covers the whole journal
+        snapshot = SnapshotFile.read(snapshotFile);
+        assertEquals("Snapshot Messages", 33, snapshot.getMessageCount());
+        MessageReceiver third = receiver();
+        third.restore(snapshot);
+        assertState(first, third);
+    }
+
+    @Test
+    public void testShadowCompactsAdjustments() throws IOException {
+        MessageReceiver first = receiver();
+        SalesJournal journal = open(first, new JournalReader(first.getDictionary()));
+        first.setJournal(journal);
+        Snapshotter snapshotter = new Snapshotter(journalFile, snapshotFile, 60000, 2);
+        snapshotter.start(null);
+
+        first.receive("10 sales of apples at 10p each");
+        for (int i = 0; i < 10; i++) {
+            first.receive("Add 1p apples");
+        }
+        journal.close();
+        snapshotter.stop();
+
+        Snapshot snapshot = SnapshotFile.read(snapshotFile);
+        assertEquals("A summary and the last two", 3, snapshot.getAdjustments().size());
+        MessageReceiver second = receiver();
+        second.restore(snapshot);
+        assertEquals(10, second.adjustmentCount());
+        assertEquals(first.getTotalSalePriceByName("apple"), second.getTotalSalePriceByName("apple"));
+    }
+
+    @Test
+    public void testResumeSurvivesRestart() throws IOException {
+        MessageReceiver first = receiver();
+        SalesJournal journal = open(first, new JournalReader(first.getDictionary()));
+        first.setJournal(journal);
+        Snapshotter snapshotter = new Snapshotter(journalFile, snapshotFile, 60000);
+        snapshotter.start(null);
+
+        for (int i = 0; i < 50; i++) {
+            first.receive("1 sales of apples at 10p each");
+        }
+        assertTrue("Paused at the quota", first.snapshot().isPaused());
+        first.resume();
+        for (int i = 0; i < 10; i++) {
+            first.receive("1 sales of apples at 10p each");
+        }
+        journal.close();
+        snapshotter.stop();
+
+        //The shadow saw the resume
+        Snapshot snapshot = SnapshotFile.read(snapshotFile);
+        assertFalse(snapshot.isPaused());
+        assertEquals(50, snapshot.getQuotaStart());
+
+        //A replay of the journal resumes too
+        MessageReceiver second = receiver();
+        open(second, new JournalReader(second.getDictionary())).close();
+        assertFalse(second.snapshot().isPaused());
+        assertEquals(50, second.snapshot().getQuotaStart());
+
+        MessageReceiver third = receiver();
+        third.restore(snapshot);
+        for (int i = 0; i < 39; i++) {
+            third.receive("1 sales of apples at 10p each");
+        }
+        assertFalse("Below the next quota", third.snapshot().isPaused());
+        third.receive("1 sales of apples at 10p each");
+        assertTrue("At the next quota", third.snapshot().isPaused());
+    }
+
+    private static void assertState(MessageReceiver expected, MessageReceiver actual) {
+        assertEquals("Messages", expected.messageCount(), actual.messageCount());
+        assertEquals("Adjustments", expected.adjustmentCount(), actual.adjustmentCount());
+        assertEquals("Apple Sales", expected.getTotalSalePriceByName("apple"), actual.getTotalSalePriceByName("apple"));
+        assertEquals("Apple Quantity", 60, actual.getQuantityByName("apple"));
+        assertEquals("Pear Sales", 60, actual.getTotalSalePriceByName("pear"));
+    }
+
+    private static MessageReceiver receiver() {
+        return new MessageReceiver(new ProductDictionary("apple", "orange"), new NullReportSink());
+    }
+
+    private SalesJournal open(final MessageReceiver receiver, JournalReader reader) throws IOException {
+        return SalesJournal.open(journalFile, receiver.getDictionary(), SyncPolicy.NONE, 1 << 16, 10, reader, new Consumer<Product>() {
+            @Override
+            public void accept(Product p) {
+                receiver.restore(p);
+            }
+        });
+    }
+}